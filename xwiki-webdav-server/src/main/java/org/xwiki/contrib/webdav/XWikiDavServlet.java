@@ -19,13 +19,16 @@
  */
 package org.xwiki.contrib.webdav;
 
+import java.io.File;
 import java.io.IOException;
 
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.jackrabbit.webdav.DavConstants;
 import org.apache.jackrabbit.webdav.DavException;
 import org.apache.jackrabbit.webdav.DavLocatorFactory;
 import org.apache.jackrabbit.webdav.DavMethods;
@@ -37,14 +40,21 @@ import org.apache.jackrabbit.webdav.WebdavRequest;
 import org.apache.jackrabbit.webdav.WebdavRequestImpl;
 import org.apache.jackrabbit.webdav.WebdavResponse;
 import org.apache.jackrabbit.webdav.WebdavResponseImpl;
+import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
 import org.apache.jackrabbit.webdav.server.AbstractWebdavServlet;
 import org.apache.jackrabbit.webdav.simple.LocatorFactoryImplEx;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xwiki.cache.CacheException;
+import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.container.Container;
 import org.xwiki.context.Execution;
 import org.xwiki.contrib.webdav.resources.XWikiDavResource;
+import org.xwiki.contrib.webdav.utils.XWikiDavComponents;
 import org.xwiki.contrib.webdav.utils.XWikiDavContext;
+import org.xwiki.contrib.webdav.utils.XWikiDavErrorLogger;
+import org.xwiki.contrib.webdav.utils.XWikiDavListingException;
+import org.xwiki.contrib.webdav.utils.XWikiDavMultiStatusWriter;
 import org.xwiki.contrib.webdav.utils.XWikiDavResourceFactory;
 import org.xwiki.contrib.webdav.utils.XWikiDavSessionProvider;
 
@@ -73,6 +83,21 @@ public class XWikiDavServlet extends AbstractWebdavServlet
      */
     public static final String WWW_AUTHENTICATE_HEADER = "WWW-Authenticate";
 
+    /**
+     * Authorization header string.
+     */
+    private static final String AUTHORIZATION_HEADER = "Authorization";
+
+    /**
+     * Allow header string.
+     */
+    private static final String ALLOW_HEADER = "Allow";
+
+    /**
+     * MS-Author-Via header string, expected by Microsoft clients.
+     */
+    private static final String MS_AUTHOR_VIA_HEADER = "MS-Author-Via";
+
     /**
      * Locator factory. {@link DavLocatorFactory}
      */
@@ -88,19 +113,50 @@ public class XWikiDavServlet extends AbstractWebdavServlet
      */
     private transient DavSessionProvider sessionProvider;
 
+    /**
+     * The components shared by all the requests, looked up once when the servlet is initialized.
+     */
+    private transient XWikiDavComponents components;
+
+    /**
+     * Logs the errors of the requests, limiting the messages about the client errors.
+     */
+    private transient XWikiDavErrorLogger errorLogger;
+
     @Override
     public void init() throws ServletException
     {
         super.init();
+        try {
+            File workDirectory = (File) getServletContext().getAttribute(ServletContext.TEMPDIR);
+            this.components = new XWikiDavComponents(Utils.getComponentManager(), workDirectory);
+            this.errorLogger =
+                new XWikiDavErrorLogger(logger, this.components.getConfiguration().getClientErrorLogInterval());
+        } catch (ComponentLookupException | CacheException e) {
+            throw new ServletException("Failed to initialize the components needed by the WebDAV servlet", e);
+        }
         setLocatorFactory(new LocatorFactoryImplEx(""));
-        setResourceFactory(new XWikiDavResourceFactory(getServletContext()));
+        setResourceFactory(new XWikiDavResourceFactory(getServletContext(), this.components));
         setDavSessionProvider(new XWikiDavSessionProvider());
     }
 
+    @Override
+    public void destroy()
+    {
+        if (this.components != null) {
+            this.components.dispose();
+        }
+        super.destroy();
+    }
+
     @Override
     protected void service(HttpServletRequest request, HttpServletResponse response)
         throws ServletException, IOException
     {
+        // Answer the requests which don't need the wiki before setting up anything.
+        if (preDispatch(request, response)) {
+            return;
+        }
         XWikiDavContext context = null;
         WebdavRequest webdavRequest = new WebdavRequestImpl(request, getLocatorFactory());
         WebdavResponse webdavResponse = new WebdavResponseImpl(response, false);
@@ -132,11 +188,17 @@ public class XWikiDavServlet extends AbstractWebdavServlet
                 super.service(request, response);
             }
         } catch (DavException e) {
-            if (e.getErrorCode() == HttpServletResponse.SC_UNAUTHORIZED) {
+            if (response.isCommitted()) {
+                // Part of the response (e.g. a streamed listing) has been sent already: it's too late to send an
+                // error, so let the container abort the connection rather than end the response normally.
+                logger.error("Failed to complete the [{}] request on [{}]", request.getMethod(),
+                    request.getRequestURI(), e);
+                throw new IOException(e);
+            } else if (e.getErrorCode() == HttpServletResponse.SC_UNAUTHORIZED) {
                 webdavResponse.setHeader(WWW_AUTHENTICATE_HEADER, getAuthenticateHeaderValue());
                 webdavResponse.sendError(e.getErrorCode(), e.getStatusPhrase());
             } else {
-                logger.error("WebDAV Exception Occurred : ", e);
+                this.errorLogger.log(request.getMethod(), request.getRequestURI(), e);
                 webdavResponse.sendError(e);
             }
         } finally {
@@ -150,12 +212,85 @@ public class XWikiDavServlet extends AbstractWebdavServlet
         }
     }
 
+    /**
+     * Answers, with static responses, the requests that can be handled without the wiki: plain OPTIONS requests (the
+     * supported methods and compliance class are the same for all the resources) and anonymous requests, which will be
+     * challenged anyway (a request authenticated by the container is never considered anonymous). Clients like the
+     * Windows MiniRedir or Mac OS Finder send such a probe before each authenticated request, and there is no need to
+     * bootstrap a full XWiki context to answer them.
+     * 
+     * @param request the servlet request.
+     * @param response the servlet response.
+     * @return true if the request has been answered, false if it must go through the normal processing.
+     */
+    private boolean preDispatch(HttpServletRequest request, HttpServletResponse response)
+    {
+        int methodCode = DavMethods.getMethodCode(request.getMethod());
+        if (methodCode == DavMethods.DAV_OPTIONS && !hasBody(request)) {
+            response.setStatus(DavServletResponse.SC_OK);
+            response.addHeader(DavConstants.HEADER_DAV, DavResource.COMPLIANCE_CLASS);
+            response.addHeader(ALLOW_HEADER, DavResource.METHODS);
+            response.addHeader(MS_AUTHOR_VIA_HEADER, DavConstants.HEADER_DAV);
+            response.setContentLength(0);
+            return true;
+        } else if (request.getHeader(AUTHORIZATION_HEADER) == null && request.getCookies() == null
+            && request.getUserPrincipal() == null) {
+            // Without credentials, cookies (which could hold an authenticated session) nor a principal set by the
+            // container (SSO filters, client certificates...) the user can only be the guest user.
+            response.setStatus(DavServletResponse.SC_UNAUTHORIZED);
+            response.setHeader(WWW_AUTHENTICATE_HEADER, getAuthenticateHeaderValue());
+            response.setContentLength(0);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param request the servlet request.
+     * @return true if the given request has a body.
+     */
+    private boolean hasBody(HttpServletRequest request)
+    {
+        return request.getContentLength() > 0 || request.getHeader("Transfer-Encoding") != null;
+    }
+
     @Override
     protected boolean execute(WebdavRequest request, WebdavResponse response, int method,
         DavResource resource) throws ServletException, IOException, DavException
     {        
         logger.debug(String.format("Resource: [%s] Method: [%s]", resource.getDisplayName(), request.getMethod()));
-        return super.execute(request, response, method, resource);
+        try {
+            return super.execute(request, response, method, resource);
+        } catch (XWikiDavListingException e) {
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The multistatus response is streamed: each resource is written as soon as it is produced, instead of building the
+     * whole response in memory first.
+     * </p>
+     */
+    @Override
+    protected void doPropFind(WebdavRequest request, WebdavResponse response, DavResource resource)
+        throws IOException, DavException
+    {
+        if (!resource.exists()) {
+            response.sendError(DavServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        int depth = request.getDepth(DavConstants.DEPTH_INFINITY);
+        DavPropertyNameSet requestProperties = request.getPropFindProperties();
+        int propFindType = request.getPropFindType();
+
+        response.setStatus(DavServletResponse.SC_MULTI_STATUS);
+        response.setContentType("text/xml; charset=UTF-8");
+        XWikiDavMultiStatusWriter writer = new XWikiDavMultiStatusWriter(response.getOutputStream());
+        writer.writeResourceProperties(resource, requestProperties, propFindType, depth);
+        // Not reached if the listing fails, which leaves the response unterminated.
+        writer.finish();
     }
 
     @Override
@@ -212,8 +347,8 @@ public class XWikiDavServlet extends AbstractWebdavServlet
      */
     private void cleanUp(WebdavRequest request, XWikiDavContext context)
     {
-        Container container = Utils.getComponent(Container.class);
-        Execution execution = Utils.getComponent(Execution.class);
+        Container container = this.components.getContainer();
+        Execution execution = this.components.getExecution();
         container.removeRequest();
         container.removeResponse();
         container.removeSession();
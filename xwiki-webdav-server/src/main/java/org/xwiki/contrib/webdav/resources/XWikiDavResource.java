@@ -20,12 +20,14 @@
 package org.xwiki.contrib.webdav.resources;
 
 import java.util.List;
+import java.util.Map;
 
 import org.apache.jackrabbit.webdav.DavException;
 import org.apache.jackrabbit.webdav.DavResource;
 import org.apache.jackrabbit.webdav.DavResourceLocator;
 import org.apache.jackrabbit.webdav.property.DavPropertySet;
 import org.xwiki.contrib.webdav.utils.XWikiDavContext;
+import org.xwiki.contrib.webdav.utils.XWikiDavVirtualMember;
 import org.xwiki.model.reference.EntityReference;
 
 /**
@@ -67,24 +69,71 @@ public interface XWikiDavResource extends DavResource
      * 
      * @param tokens segmented URL.
      * @param next next index to be processed by this resource.
-     * @return the {@link XWikiDavResource} corresponding to the given URL.
+     * @return the {@link XWikiDavResource} corresponding to the given URL, or null if the URL doesn't resolve to any
+     *         resource (a missing resource is common enough not to be reported with an exception).
      * @throws DavException If it's not possible to decode the URL.
      */
     XWikiDavResource decode(String[] tokens, int next) throws DavException;
 
     /**
-     * @return List of virtual members for this resource.
+     * @return List of virtual members for this resource, rebuilt against the current context from the snapshots stored
+     *         in the user's session if they have been modified, from the initial members otherwise.
      */
     List<XWikiDavResource> getVirtualMembers();
 
+    /**
+     * @return Snapshots of the virtual members stored in the temporary resource store for this resource, by name, null
+     *         if they have never been modified. The returned map must not be modified.
+     */
+    Map<String, XWikiDavVirtualMember> getStoredMembers();
+
+    /**
+     * Stores the snapshot of a virtual member, replacing the one of the same name. The stored members are initialized
+     * with the initial members first if they aren't stored yet.
+     * 
+     * @param member Snapshot of the virtual member.
+     * @return The replaced snapshot, null if there was none. Its content is not released.
+     * @throws DavException If the snapshot cannot be stored.
+     */
+    XWikiDavVirtualMember putStoredMember(XWikiDavVirtualMember member) throws DavException;
+
+    /**
+     * Removes the snapshot of a virtual member. The stored members are initialized with the initial members first if
+     * they aren't stored yet.
+     * 
+     * @param name Name of the virtual member.
+     * @return The removed snapshot, null if there was none. Its content is not released.
+     * @throws DavException If the snapshot cannot be removed.
+     */
+    XWikiDavVirtualMember removeStoredMember(String name) throws DavException;
+
+    /**
+     * @param create whether the set should be stored in the user's session if it isn't yet.
+     * @return Set of the properties set by the client on this resource, stored in the user's session, null if there's
+     *         none and {@code create} is false.
+     */
+    DavPropertySet getStoredProperties(boolean create);
+
     /**
      * @return Set of virtual properties for this resource.
+     * @deprecated the computed properties are not stored anymore, use {@link #getProperties()} to read all the
+     *             properties of the resource and {@link #getStoredProperties(boolean)} for the ones set by the client,
+     *             which this method returns (creating the set if needed)
      */
+    @Deprecated
     DavPropertySet getVirtualProperties();
 
+    /**
+     * @return Snapshots of the members that are added to the initial virtual member list.
+     */
+    List<XWikiDavVirtualMember> getInitMemberSnapshots();
+
     /**
      * @return List of members that is added to the initial virtual member list.
+     * @deprecated the members are rebuilt from their snapshots for each request, use {@link #getInitMemberSnapshots()}
+     *             which is also the method to override to change the initial members
      */
+    @Deprecated
     List<XWikiDavResource> getInitMembers();
 
     /**
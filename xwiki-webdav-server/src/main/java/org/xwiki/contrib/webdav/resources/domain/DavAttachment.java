@@ -21,6 +21,7 @@ package org.xwiki.contrib.webdav.resources.domain;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Date;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.server.io.IOUtil;
@@ -30,13 +31,15 @@ import org.apache.jackrabbit.webdav.DavResource;
 import org.apache.jackrabbit.webdav.DavServletResponse;
 import org.apache.jackrabbit.webdav.io.OutputContext;
 import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DavPropertySet;
 import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
 import org.xwiki.contrib.webdav.resources.XWikiDavResource;
 import org.xwiki.contrib.webdav.resources.partial.AbstractDavFile;
+import org.xwiki.contrib.webdav.utils.XWikiDavAttachmentMetadata;
+import org.xwiki.contrib.webdav.utils.XWikiDavPropertyCache;
 import org.xwiki.model.reference.AttachmentReference;
 
 import com.xpn.xwiki.doc.XWikiAttachment;
-import com.xpn.xwiki.doc.XWikiDocument;
 
 /**
  * The DAV resource representing an {@link XWikiAttachment}.
@@ -55,39 +58,109 @@ public class DavAttachment extends AbstractDavFile
      */
     private AttachmentReference attachmentRef;
 
+    /**
+     * The metadata this resource has been initialized from, null if the attachment has been looked up right away.
+     */
+    private XWikiDavAttachmentMetadata metadata;
+
     @Override
     public void init(XWikiDavResource parent, String name, String relativePath)
         throws DavException
     {
         super.init(parent, name, relativePath);
         if (parent.exists()) {
-            this.attachment = ((DavPage) parent).getDocument().getAttachment(this.name);
+            this.attachment = ((DavPage) parent).getAttachment(this.name);
             this.attachmentRef = new AttachmentReference(this.name, ((DavPage) parent).getReference());
         }
         if (exists()) {
-            String timeStamp = DavConstants.creationDateFormat.format(attachment.getDate());
-            getProperties().add(new DefaultDavProperty(DavPropertyName.CREATIONDATE, timeStamp));
-            timeStamp = DavConstants.modificationDateFormat.format(attachment.getDate());
-            getProperties().add(
-                new DefaultDavProperty(DavPropertyName.GETLASTMODIFIED, timeStamp));
-            getProperties().add(new DefaultDavProperty(DavPropertyName.GETETAG, timeStamp));
-            getProperties().add(
-                new DefaultDavProperty(DavPropertyName.GETCONTENTTYPE, getContext().getMimeType(
-                    attachment)));
-            getProperties().add(
-                new DefaultDavProperty(DavPropertyName.GETCONTENTLANGUAGE, attachment.getDoc()
-                    .getLanguage()));
-            getProperties()
-                .add(
-                    new DefaultDavProperty(DavPropertyName.GETCONTENTLENGTH, attachment
-                        .getLongSize()));
+            initProperties(attachment.getVersion(), attachment.getDate(), attachment.getDoc().getLanguage(),
+                attachment.getLongSize());
         }
     }
 
+    /**
+     * Initializes this resource from the metadata of an existing attachment, as returned by the listing queries. The
+     * attachment itself is only looked up when it is actually needed, i.e. when its content is read or it is modified.
+     * 
+     * @param parent the page holding the attachment.
+     * @param metadata the metadata of the attachment.
+     * @param relativePath Path relative to the parent resource.
+     * @throws DavException If the initialization fails.
+     */
+    public void init(DavPage parent, XWikiDavAttachmentMetadata metadata, String relativePath) throws DavException
+    {
+        super.init(parent, metadata.getFilename(), relativePath);
+        this.metadata = metadata;
+        this.attachmentRef = new AttachmentReference(this.name, parent.getReference());
+        // The attachments belong to the default translation of the page.
+        initProperties(metadata.getVersion(), metadata.getDate(), "", metadata.getSize());
+    }
+
+    /**
+     * Adds the live properties of the attachment, computed once per version of the attachment.
+     * 
+     * @param version the version of the attachment.
+     * @param date the date of the version of the attachment.
+     * @param language the language of the document holding the attachment.
+     * @param size the size of the attachment content, in bytes.
+     * @throws DavException If the attachment cannot be looked up to detect its media type.
+     */
+    private void initProperties(String version, Date date, String language, long size) throws DavException
+    {
+        // The live properties only depend on the version of the attachment, they are shared by all the users.
+        XWikiDavPropertyCache propertyCache = getContext().getPropertyCache();
+        String key = propertyCache.getKey("attachment", this.attachmentRef, version, date);
+        DavPropertySet liveProperties = propertyCache.get(key);
+        if (liveProperties == null) {
+            liveProperties = new DavPropertySet();
+            String timeStamp = DavConstants.creationDateFormat.format(date);
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.CREATIONDATE, timeStamp));
+            timeStamp = DavConstants.modificationDateFormat.format(date);
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.GETLASTMODIFIED, timeStamp));
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.GETETAG, timeStamp));
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.GETCONTENTTYPE, getContentType()));
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.GETCONTENTLANGUAGE, language));
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.GETCONTENTLENGTH, size));
+            propertyCache.put(key, liveProperties);
+        }
+        getProperties().addAll(liveProperties);
+    }
+
+    /**
+     * Both the listings and the content use this media type, so that the clients don't see it change when they open a
+     * file.
+     * 
+     * @return the media type of the attachment: the one stored with the attachment, detected from its name when none
+     *         is stored (the attachments created by older versions).
+     * @throws DavException If the attachment cannot be looked up to detect its media type.
+     */
+    private String getContentType() throws DavException
+    {
+        String mimeType = (this.metadata != null) ? this.metadata.getMimeType() : this.attachment.getMimeType();
+        if ((mimeType == null || mimeType.isEmpty()) && getAttachment() != null) {
+            mimeType = getContext().getMimeType(getAttachment());
+        }
+        return mimeType;
+    }
+
+    /**
+     * @return the attachment represented by this resource, looked up on first access when this resource has been
+     *         initialized from the attachment metadata, null if it doesn't exist.
+     * @throws DavException If the document holding the attachment cannot be loaded.
+     */
+    private XWikiAttachment getAttachment() throws DavException
+    {
+        if (this.attachment == null && this.metadata != null) {
+            this.attachment = ((DavPage) getCollection()).getAttachment(this.name);
+        }
+        return this.attachment;
+    }
+
     @Override
     public boolean exists()
     {
-        return this.attachment != null;
+        // Listed attachments exist, no need to load the document to know it.
+        return this.attachment != null || this.metadata != null;
     }
 
     @Override
@@ -100,20 +173,28 @@ public class DavAttachment extends AbstractDavFile
     public void spool(OutputContext outputContext) throws IOException
     {
         // Protect against direct url referencing.
-        if (!getContext().hasAccess("view", attachment.getDoc().getDocumentReference())) {
+        if (!getContext().hasAccess("view", this.attachmentRef.getDocumentReference())) {
             throw new IOException("Access rights violation.");
         }
-        if (exists()) {
-            outputContext.setContentLanguage(attachment.getDoc().getLanguage());
-            outputContext.setContentLength(getContext().getAttachmentSize(attachment));
-            outputContext.setContentType(getContext().getMimeType(attachment));
+        XWikiAttachment spooled;
+        String contentType;
+        try {
+            spooled = getAttachment();
+            contentType = (spooled != null) ? getContentType() : null;
+        } catch (DavException e) {
+            throw new IOException(e);
+        }
+        if (spooled != null) {
+            outputContext.setContentLanguage(spooled.getDoc().getLanguage());
+            outputContext.setContentLength(getContext().getAttachmentSize(spooled));
+            outputContext.setContentType(contentType);
             outputContext.setETag(DavConstants.modificationDateFormat.format(getModificationTime()));
             outputContext.setModificationTime(getModificationTime());
             outputContext.setProperty("Cache-Control", "private, no-cache, no-store, must-revalidate");
             OutputStream out = outputContext.getOutputStream();
             if (null != out) {
                 try (OutputStream outf = out) {
-                    IOUtils.copy(getContext().getContentInputStream(attachment), outf);
+                    IOUtils.copy(getContext().getContentInputStream(spooled), outf);
                     outf.flush();
                 }
             }
@@ -123,28 +204,34 @@ public class DavAttachment extends AbstractDavFile
     @Override
     public void move(DavResource destination) throws DavException
     {
-        getContext().checkAccess("edit", attachment.getDoc().getDocumentReference());
+        getContext().checkAccess("edit", this.attachmentRef.getDocumentReference());
+        XWikiAttachment source = getAttachment();
         if (destination instanceof DavAttachment) {
             DavAttachment dAttachment = (DavAttachment) destination;
             // Check if this is a rename operation.
             if (dAttachment.getCollection().equals(getCollection())) {
-                getContext().moveAttachment(attachment, attachment.getDoc(),
+                getContext().moveAttachment(source, source.getDoc(),
                     dAttachment.getDisplayName());
             } else if (dAttachment.getCollection() instanceof DavPage) {
-                XWikiDocument dDoc = ((DavPage) dAttachment.getCollection()).getDocument();
-                getContext().moveAttachment(attachment, dDoc, dAttachment.getDisplayName());
+                DavPage dPage = (DavPage) dAttachment.getCollection();
+                getContext().moveAttachment(source, dPage.loadDocument(), dAttachment.getDisplayName());
+                dPage.resetAttachments();
             } else {
                 throw new DavException(DavServletResponse.SC_BAD_REQUEST);
             }
         } else {
             throw new DavException(DavServletResponse.SC_BAD_REQUEST);
         }
+        ((DavPage) getCollection()).resetAttachments();
         clearCache();
     }
 
     @Override
     public long getModificationTime()
     {
+        if (this.attachment == null && this.metadata != null) {
+            return this.metadata.getDate().getTime();
+        }
         if (exists()) {
             return attachment.getDate().getTime();
         }
@@ -22,7 +22,11 @@ package org.xwiki.contrib.webdav.resources.domain;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 import org.apache.jackrabbit.server.io.IOUtil;
 import org.apache.jackrabbit.webdav.DavConstants;
@@ -34,13 +38,20 @@ import org.apache.jackrabbit.webdav.DavServletResponse;
 import org.apache.jackrabbit.webdav.io.InputContext;
 import org.apache.jackrabbit.webdav.io.OutputContext;
 import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DavPropertySet;
 import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.contrib.webdav.resources.XWikiDavResource;
 import org.xwiki.contrib.webdav.resources.partial.AbstractDavResource;
+import org.xwiki.contrib.webdav.resources.partial.LazyDavResourceIterator;
+import org.xwiki.contrib.webdav.utils.XWikiDavAttachmentMetadata;
+import org.xwiki.contrib.webdav.utils.XWikiDavPageMetadata;
+import org.xwiki.contrib.webdav.utils.XWikiDavPropertyCache;
+import org.xwiki.contrib.webdav.utils.XWikiDavVirtualMember;
 import org.xwiki.model.reference.DocumentReference;
 
+import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
 
 /**
@@ -65,6 +76,45 @@ public class DavPage extends AbstractDavResource
      */
     private DocumentReference docRef;
 
+    /**
+     * The metadata this resource has been initialized from, null if the document has been loaded right away.
+     */
+    private XWikiDavPageMetadata metadata;
+
+    /**
+     * The attachments of the document by name, built on first lookup, null if it has to be built.
+     */
+    private Map<String, XWikiAttachment> attachments;
+
+    /**
+     * The document instance the attachment index has been built from.
+     */
+    private XWikiDocument attachmentsDocument;
+
+    /**
+     * The version of the document the attachment index has been built from.
+     */
+    private String attachmentsVersion;
+
+    /**
+     * Creates the page named by a segment of a decoded path, for the views which take the full name of the page.
+     * 
+     * @param parent Parent resource.
+     * @param name Full name of the page.
+     * @param relativePath Path relative to the parent resource.
+     * @return the page, or null if the name doesn't resolve to a page of a space.
+     * @throws DavException If the initialization fails.
+     */
+    public static DavPage resolve(XWikiDavResource parent, String name, String relativePath) throws DavException
+    {
+        if (parent.getContext().getDocumentReference(name).getLastSpaceReference() == null) {
+            return null;
+        }
+        DavPage page = new DavPage();
+        page.init(parent, name, relativePath);
+        return page;
+    }
+
     @Override
     public void init(XWikiDavResource parent, String name, String relativePath) throws DavException
     {
@@ -77,14 +127,52 @@ public class DavPage extends AbstractDavResource
         }
 
         this.doc = getContext().getDocument(docRef);
-        String timeStamp = DavConstants.creationDateFormat.format(doc.getCreationDate());
-        getProperties().add(new DefaultDavProperty(DavPropertyName.CREATIONDATE, timeStamp));
-        timeStamp = DavConstants.modificationDateFormat.format(doc.getContentUpdateDate());
-        getProperties().add(new DefaultDavProperty(DavPropertyName.GETLASTMODIFIED, timeStamp));
-        getProperties().add(new DefaultDavProperty(DavPropertyName.GETETAG, timeStamp));
-        getProperties().add(new DefaultDavProperty(DavPropertyName.GETCONTENTTYPE, "text/directory"));
-        getProperties().add(new DefaultDavProperty(DavPropertyName.GETCONTENTLANGUAGE, doc.getLocale().toString()));
-        getProperties().add(new DefaultDavProperty(DavPropertyName.GETCONTENTLENGTH, 0));
+        // New documents have no stable version yet.
+        initProperties(doc.getCreationDate(), doc.getContentUpdateDate(), doc.getLocale().toString(),
+            doc.isNew() ? null : doc.getVersion());
+    }
+
+    /**
+     * Initializes this resource from the metadata of an existing page, as returned by the listing queries. The document
+     * itself is only loaded when it is actually needed, i.e. when the client descends into the page.
+     * 
+     * @param parent Parent resource.
+     * @param metadata the metadata of the page.
+     * @param relativePath Path relative to the parent resource.
+     * @throws DavException If the initialization fails.
+     */
+    public void init(XWikiDavResource parent, XWikiDavPageMetadata metadata, String relativePath)
+        throws DavException
+    {
+        super.init(parent, parent.getContext().serialize(metadata.getReference()), relativePath);
+
+        this.docRef = metadata.getReference();
+        this.metadata = metadata;
+        initProperties(metadata.getCreationDate(), metadata.getContentUpdateDate(), metadata.getLanguage(),
+            metadata.getVersion());
+    }
+
+    private void initProperties(Date creationDate, Date contentUpdateDate, String language, String version)
+    {
+        // The live properties only depend on the version of the page, they are shared by all the users.
+        XWikiDavPropertyCache propertyCache = getContext().getPropertyCache();
+        String key = propertyCache.getKey("page", this.docRef, version, creationDate);
+        DavPropertySet liveProperties = propertyCache.get(key);
+        if (liveProperties == null) {
+            liveProperties = new DavPropertySet();
+            String timeStamp = DavConstants.creationDateFormat.format(creationDate);
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.CREATIONDATE, timeStamp));
+            timeStamp = DavConstants.modificationDateFormat.format(contentUpdateDate);
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.GETLASTMODIFIED, timeStamp));
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.GETETAG, timeStamp));
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.GETCONTENTTYPE, "text/directory"));
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.GETCONTENTLANGUAGE, language));
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.GETCONTENTLENGTH, 0));
+            if (version != null) {
+                propertyCache.put(key, liveProperties);
+            }
+        }
+        getProperties().addAll(liveProperties);
     }
 
     @Override
@@ -99,27 +187,57 @@ public class DavPage extends AbstractDavResource
         } else if (nextToken.equals(DavWikiFile.WIKI_TXT) || nextToken.equals(DavWikiFile.WIKI_XML)) {
             resource = new DavWikiFile();
             resource.init(this, nextToken, relativePath);
-        } else if (doc.getAttachment(nextToken) != null || (last && getContext().isCreateFileRequest())
-            || (last && getContext().isMoveAttachmentRequest(doc))) {
+        } else if (getAttachment(nextToken) != null || (last && getContext().isCreateFileRequest())
+            || (last && getContext().isMoveAttachmentRequest(loadDocument()))) {
             resource = new DavAttachment();
             resource.init(this, nextToken, relativePath);
         } else {
-            // children pages: if they are in the same space as the current page, we get a relative path, otherwise a
-            // full one. try to distinguish between both cases
-            DocumentReference nextDocRef = getContext().getDocumentReference(nextToken);
-            if (nextDocRef.getLastSpaceReference() == null) {
-                nextDocRef = new DocumentReference(nextDocRef.getName(), docRef.getLastSpaceReference());
-            }
             resource = new DavPage();
-            resource.init(this, getContext().serialize(nextDocRef), relativePath);
+            resource.init(this, getContext().serialize(getChildReference(nextToken)), relativePath);
         }
         return last ? resource : resource.decode(tokens, next + 1);
     }
 
+    /**
+     * @param nextToken the next segment of the path.
+     * @return the reference of the child page named by the segment.
+     */
+    private DocumentReference getChildReference(String nextToken)
+    {
+        // children pages: if they are in the same space as the current page, we get a relative path, otherwise a
+        // full one. try to distinguish between both cases
+        DocumentReference nextDocRef = getContext().getDocumentReference(nextToken);
+        if (nextDocRef.getLastSpaceReference() == null) {
+            nextDocRef = new DocumentReference(nextDocRef.getName(), docRef.getLastSpaceReference());
+        }
+        return nextDocRef;
+    }
+
+    @Override
+    protected boolean isWikiMember(String resourceName)
+    {
+        try {
+            return getAttachment(resourceName) != null
+                || getContext().documentExists(getChildReference(resourceName));
+        } catch (DavException e) {
+            logger.error("Unexpected Error : ", e);
+            return false;
+        }
+    }
+
     @Override
     public boolean exists()
     {
-        return !doc.isNew();
+        // Listed pages exist, no need to load them to know it.
+        if (this.doc == null && this.metadata != null) {
+            return true;
+        }
+        try {
+            return !loadDocument().isNew();
+        } catch (DavException e) {
+            logger.error("Unexpected Error : ", e);
+            return false;
+        }
     }
 
     @Override
@@ -135,36 +253,47 @@ public class DavPage extends AbstractDavResource
     public DavResourceIterator getMembers()
     {
         // Protect against direct url referencing.
-        List<DavResource> children = new ArrayList<DavResource>();
         if (!getContext().hasAccess("view", this.docRef)) {
-            return new DavResourceIteratorImpl(children);
+            return new DavResourceIteratorImpl(new ArrayList<DavResource>());
         }
         try {
-            List<DocumentReference> childReferences = getContext().getChildPages(docRef);
-            for (DocumentReference childReference : childReferences) {
-                String childDocName = getContext().serialize(childReference);
-                if (!createsCycle(childDocName) && getContext().hasAccess("view", childReference)) {
+            DavResourceIterator attachmentMembers = new LazyDavResourceIterator<XWikiDavAttachmentMetadata>(
+                getContext().getAttachmentsMetadataForPage(docRef).iterator(),
+                new DavResourceIteratorImpl(new ArrayList<DavResource>(getVirtualMembers())))
+            {
+                @Override
+                protected DavResource createMember(XWikiDavAttachmentMetadata attachmentMetadata)
+                    throws DavException
+                {
+                    DavAttachment attachment = new DavAttachment();
+                    attachment.init(DavPage.this, attachmentMetadata, "/" + attachmentMetadata.getFilename());
+                    return attachment;
+                }
+            };
+            return new LazyDavResourceIterator<XWikiDavPageMetadata>(getContext().iterateChildPages(docRef),
+                attachmentMembers)
+            {
+                @Override
+                protected DavResource createMember(XWikiDavPageMetadata child) throws DavException
+                {
+                    DocumentReference childReference = child.getReference();
+                    String childDocName = getContext().serialize(childReference);
+                    if (createsCycle(childDocName)) {
+                        return null;
+                    }
                     DavPage page = new DavPage();
-
-                    if (childReference.getLastSpaceReference().equals(this.docRef.getLastSpaceReference())) {
-                        page.init(this, childDocName, "/" + childReference.getName());
+                    if (childReference.getLastSpaceReference().equals(docRef.getLastSpaceReference())) {
+                        page.init(DavPage.this, child, "/" + childReference.getName());
                     } else {
-                        page.init(this, childDocName, "/" + childDocName);
+                        page.init(DavPage.this, child, "/" + childDocName);
                     }
-                    children.add(page);
+                    return page;
                 }
-            }
-            List<String> filenames = getContext().getAttachmentsForPage(docRef);
-            for (String filename : filenames) {
-                DavAttachment attachment = new DavAttachment();
-                attachment.init(this, filename, "/" + filename);
-                children.add(attachment);
-            }
-            children.addAll(getVirtualMembers());
+            };
         } catch (DavException e) {
             logger.error("Unexpected Error : ", e);
         }
-        return new DavResourceIteratorImpl(children);
+        return new DavResourceIteratorImpl(new ArrayList<DavResource>());
     }
 
     @Override
@@ -185,15 +314,18 @@ public class DavPage extends AbstractDavResource
             String fName = resource.getDisplayName();
             if (fName.equals(DavWikiFile.WIKI_TXT)) {
                 String data = getContext().getFileContentAsString(inputContext.getInputStream());
-                doc.setContent(data);
-                getContext().saveDocument(doc);
+                XWikiDocument document = loadDocument();
+                document.setContent(data);
+                getContext().saveDocument(document);
             } else if (fName.equals(DavWikiFile.WIKI_XML)) {
                 throw new DavException(DavServletResponse.SC_METHOD_NOT_ALLOWED);
             } else {
                 try (InputStream in = inputContext.getInputStream()) {
-                    getContext().addAttachment(doc, in, fName, null);
+                    getContext().addAttachment(loadDocument(), in, fName, null);
                 } catch (IOException ioe) {
                     throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ioe);
+                } finally {
+                    resetAttachments();
                 }
             }
         } else {
@@ -213,7 +345,8 @@ public class DavPage extends AbstractDavResource
             getContext().checkAccess("delete", docRef);
             removeVirtualMember(dResource);
         } else if (dResource instanceof DavAttachment) {
-            getContext().deleteAttachment(doc.getAttachment(mName));
+            getContext().deleteAttachment(getAttachment(mName));
+            resetAttachments();
         } else if (dResource instanceof DavPage) {
             XWikiDocument childDoc = getContext().getDocument(docRef);
             getContext().checkAccess("delete", childDoc.getDocumentReference());
@@ -234,7 +367,7 @@ public class DavPage extends AbstractDavResource
         getContext().checkAccess("edit", this.docRef);
         if (destination instanceof DavPage) {
             DavPage dPage = (DavPage) destination;
-            XWikiDocument dDoc = dPage.getDocument();
+            XWikiDocument dDoc = dPage.loadDocument();
             // XXX: why this check?
             // do we really need the new parent space to exist?
             if (getContext().spaceExists(dPage.getReference().getLastSpaceReference())) {
@@ -246,7 +379,7 @@ public class DavPage extends AbstractDavResource
                 for (DocumentReference childDocName : childDocNames) {
                     getContext().checkAccess("edit", childDocName);
                 }
-                getContext().renameDocument(doc, newDocName);
+                getContext().renameDocument(loadDocument(), newDocName);
                 for (DocumentReference childDocName : childDocNames) {
                     XWikiDocument childDoc = getContext().getDocument(childDocName);
                     childDoc.setParentReference(newDocName);
@@ -260,19 +393,11 @@ public class DavPage extends AbstractDavResource
     }
 
     @Override
-    public List<XWikiDavResource> getInitMembers()
+    public List<XWikiDavVirtualMember> getInitMemberSnapshots()
     {
-        List<XWikiDavResource> initialMembers = new ArrayList<XWikiDavResource>();
-        try {
-            DavWikiFile wikiText = new DavWikiFile();
-            wikiText.init(this, DavWikiFile.WIKI_TXT, "/" + DavWikiFile.WIKI_TXT);
-            initialMembers.add(wikiText);
-            DavWikiFile wikiXml = new DavWikiFile();
-            wikiXml.init(this, DavWikiFile.WIKI_XML, "/" + DavWikiFile.WIKI_XML);
-            initialMembers.add(wikiXml);
-        } catch (DavException ex) {
-            logger.error("Error while initializing members.", ex);
-        }
+        List<XWikiDavVirtualMember> initialMembers = new ArrayList<XWikiDavVirtualMember>();
+        initialMembers.add(XWikiDavVirtualMember.wikiFile(DavWikiFile.WIKI_TXT));
+        initialMembers.add(XWikiDavVirtualMember.wikiFile(DavWikiFile.WIKI_XML));
         return initialMembers;
     }
 
@@ -291,20 +416,93 @@ public class DavPage extends AbstractDavResource
     @Override
     public long getModificationTime()
     {
+        if (this.doc == null && this.metadata != null) {
+            return this.metadata.getContentUpdateDate().getTime();
+        }
         if (exists()) {
-            return doc.getContentUpdateDate().getTime();
+            return this.doc.getContentUpdateDate().getTime();
         }
         return IOUtil.UNDEFINED_TIME;
     }
 
     /**
-     * @return The document represented by this resource.
+     * @return The document represented by this resource, null if it cannot be loaded (the error is logged).
+     * @see #loadDocument()
      */
     public XWikiDocument getDocument()
     {
+        try {
+            return loadDocument();
+        } catch (DavException e) {
+            logger.error("Failed to load the document [{}]", this.docRef, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return The document represented by this resource, loaded on first access when this resource has been
+     *         initialized from the page metadata.
+     * @throws DavException If the document cannot be loaded.
+     */
+    public XWikiDocument loadDocument() throws DavException
+    {
+        if (this.doc == null) {
+            this.doc = getContext().getDocument(this.docRef);
+        }
         return this.doc;
     }
 
+    /**
+     * @return the metadata of the page (dates, language and version), taken from the listing query this resource has
+     *         been initialized from if any, so that the document doesn't have to be loaded, read from the document
+     *         otherwise.
+     * @throws DavException If the document cannot be loaded.
+     */
+    public XWikiDavPageMetadata getMetadata() throws DavException
+    {
+        if (this.metadata != null) {
+            return this.metadata;
+        }
+        XWikiDocument document = loadDocument();
+        return new XWikiDavPageMetadata(this.docRef, document.getCreationDate(), document.getContentUpdateDate(),
+            document.getLocale().toString(), document.getVersion());
+    }
+
+    /**
+     * Looks an attachment of the document up by name. The attachments are indexed on the first lookup, so that
+     * resolving all the attachments of a page doesn't scan the attachment list for each of them. The index is rebuilt
+     * when the document is reloaded or saved, and after the attachments are modified through this resource.
+     * 
+     * @param filename the name of the attachment.
+     * @return the attachment, null if the document has no attachment with this name.
+     * @throws DavException If the document cannot be loaded.
+     */
+    public XWikiAttachment getAttachment(String filename) throws DavException
+    {
+        XWikiDocument document = loadDocument();
+        // The attachments modified without going through this resource are saved with a new version of the document.
+        if (this.attachments == null || document != this.attachmentsDocument
+            || !Objects.equals(document.getVersion(), this.attachmentsVersion)) {
+            List<XWikiAttachment> attachmentList = document.getAttachmentList();
+            Map<String, XWikiAttachment> index = new HashMap<String, XWikiAttachment>(attachmentList.size() * 2);
+            for (XWikiAttachment attachment : attachmentList) {
+                index.put(attachment.getFilename(), attachment);
+            }
+            this.attachments = index;
+            this.attachmentsDocument = document;
+            this.attachmentsVersion = document.getVersion();
+        }
+        return this.attachments.get(filename);
+    }
+
+    /**
+     * Forgets the index of the attachments, after they have been modified.
+     */
+    void resetAttachments()
+    {
+        this.attachments = null;
+    }
+
     /**
      * Utility method to verify that a member of this resource doesn't give rise to a cycle.
      * 
@@ -24,6 +24,8 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 import org.apache.jackrabbit.server.io.IOUtil;
 import org.apache.jackrabbit.webdav.DavConstants;
@@ -38,6 +40,8 @@ import org.apache.jackrabbit.webdav.property.DavPropertyName;
 import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
 import org.xwiki.contrib.webdav.resources.XWikiDavResource;
 import org.xwiki.contrib.webdav.resources.partial.AbstractDavResource;
+import org.xwiki.contrib.webdav.utils.XWikiDavTempContent;
+import org.xwiki.contrib.webdav.utils.XWikiDavVirtualMember;
 import org.xwiki.model.reference.EntityReference;
 
 /**
@@ -53,9 +57,9 @@ public class DavTempFile extends AbstractDavResource
     private boolean isCollection;
 
     /**
-     * Content of this resource (file).
+     * Content of this resource (file), null if none has been written.
      */
-    private byte[] data;
+    private XWikiDavTempContent content;
 
     /**
      * Indicates if this resource has been created or not. Here creation means if the resource has been actually PUT /
@@ -83,6 +87,20 @@ public class DavTempFile extends AbstractDavResource
         timeOfLastModification = (Date) timeOfCreation.clone();
     }
 
+    /**
+     * Rebuilds a temporary resource from the snapshot stored in the user's session.
+     * 
+     * @param snapshot the snapshot of the resource.
+     */
+    public DavTempFile(XWikiDavVirtualMember snapshot)
+    {
+        isCollection = snapshot.isCollection();
+        content = snapshot.getContent();
+        created = snapshot.isCreated();
+        timeOfCreation = new Date(snapshot.getCreationTime());
+        timeOfLastModification = new Date(snapshot.getModificationTime());
+    }
+
     @Override
     public void init(XWikiDavResource parent, String name, String relativePath) throws DavException
     {
@@ -95,7 +113,7 @@ public class DavTempFile extends AbstractDavResource
         getProperties().add(new DefaultDavProperty(DavPropertyName.GETCONTENTLANGUAGE, "en"));
         String contentType = isCollection() ? "text/directory" : "application/octet-stream";
         getProperties().add(new DefaultDavProperty(DavPropertyName.GETCONTENTTYPE, contentType));
-        int contentLength = (data != null) ? data.length : 0;
+        long contentLength = getContentLength();
         getProperties().add(new DefaultDavProperty(DavPropertyName.GETCONTENTLENGTH, contentLength));
     }
 
@@ -108,7 +126,9 @@ public class DavTempFile extends AbstractDavResource
     @Override
     public boolean exists()
     {
-        return parentResource.getVirtualMembers().contains(this);
+        Map<String, XWikiDavVirtualMember> members = parentResource.getStoredMembers();
+        XWikiDavVirtualMember member = (members != null) ? members.get(this.name) : null;
+        return member != null && !member.isEvicted();
     }
 
     /**
@@ -126,14 +146,14 @@ public class DavTempFile extends AbstractDavResource
     public void spool(OutputContext outputContext) throws IOException
     {
         outputContext.setContentLanguage("en");
-        outputContext.setContentLength(data != null ? data.length : 0);
+        outputContext.setContentLength(getContentLength());
         outputContext.setContentType(isCollection() ? "text/directory" : "application/octet-stream");
         outputContext.setETag(DavConstants.modificationDateFormat.format(getModificationTime()));
         outputContext.setModificationTime(getModificationTime());
         if (exists() && !isCollection()) {
             OutputStream out = outputContext.getOutputStream();
-            if (out != null) {
-                out.write(this.data);
+            if (out != null && this.content != null) {
+                this.content.writeTo(out);
                 out.flush();
             }
         }
@@ -174,9 +194,13 @@ public class DavTempFile extends AbstractDavResource
             && !destination.isCollection() && !isCollection()) {
             // A file rename operation
             DavTempFile destTempFile = (DavTempFile) destination;
-            parentResource.getVirtualMembers().remove(this);
-            parentResource.getVirtualMembers().add(destTempFile);
-            destTempFile.update(this.data.clone(), this.timeOfLastModification);
+            // The content is handed over to the destination, not copied.
+            destTempFile.update(this.content, this.timeOfLastModification);
+            parentResource.removeStoredMember(this.name);
+            XWikiDavVirtualMember overwritten = parentResource.putStoredMember(destTempFile.getSnapshot());
+            if (overwritten != null && !Objects.equals(overwritten.getContent(), this.content)) {
+                overwritten.dispose();
+            }
         } else {
             throw new DavException(DavServletResponse.SC_FORBIDDEN);
         }
@@ -184,14 +208,36 @@ public class DavTempFile extends AbstractDavResource
     }
 
     /**
-     * @param data Data to be set as the content of this temporary file.
+     * @param content Content of this temporary file, as stored by the temporary store.
      * @param modificationTime Time of modification.
      */
-    public void update(byte[] data, Date modificationTime)
+    public void update(XWikiDavTempContent content, Date modificationTime)
     {
-        this.data = data.clone();
+        this.content = content;
         setModified(modificationTime);
-        getProperties().add(new DefaultDavProperty(DavPropertyName.GETCONTENTLENGTH, this.data.length));
+        getProperties().add(new DefaultDavProperty(DavPropertyName.GETCONTENTLENGTH, getContentLength()));
+    }
+
+    /**
+     * @return the content of this temporary file, null if none has been written.
+     */
+    public XWikiDavTempContent getContent()
+    {
+        return content;
+    }
+
+    /**
+     * @return the snapshot of this resource, to be stored in the user's session.
+     */
+    public XWikiDavVirtualMember getSnapshot()
+    {
+        return new XWikiDavVirtualMember(this.name, isCollection, content, created, timeOfCreation.getTime(),
+            timeOfLastModification.getTime());
+    }
+
+    private long getContentLength()
+    {
+        return (content != null) ? content.getLength() : 0;
     }
 
     /**
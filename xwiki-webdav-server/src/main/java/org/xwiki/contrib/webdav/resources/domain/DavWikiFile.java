@@ -21,6 +21,10 @@ package org.xwiki.contrib.webdav.resources.domain;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.jackrabbit.server.io.IOUtil;
 import org.apache.jackrabbit.webdav.DavConstants;
@@ -29,9 +33,14 @@ import org.apache.jackrabbit.webdav.DavResource;
 import org.apache.jackrabbit.webdav.DavServletResponse;
 import org.apache.jackrabbit.webdav.io.OutputContext;
 import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DavPropertySet;
 import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
 import org.xwiki.contrib.webdav.resources.XWikiDavResource;
 import org.xwiki.contrib.webdav.resources.partial.AbstractDavFile;
+import org.xwiki.contrib.webdav.utils.XWikiDavContentCache;
+import org.xwiki.contrib.webdav.utils.XWikiDavPageMetadata;
+import org.xwiki.contrib.webdav.utils.XWikiDavPropertyCache;
+import org.xwiki.contrib.webdav.utils.XWikiDavVirtualMember;
 import org.xwiki.model.reference.EntityReference;
 
 import com.xpn.xwiki.doc.XWikiDocument;
@@ -54,13 +63,33 @@ public class DavWikiFile extends AbstractDavFile
     public static final String WIKI_XML = "wiki.xml";
 
     /**
-     * The {@link XWikiDocument} of whose content is represented by this resource (file).
+     * The content type of the wiki text file, whose content is always encoded in UTF-8.
      */
-    private XWikiDocument parentDoc;
+    private static final String TEXT_CONTENT_TYPE = "text/plain;charset=UTF-8";
+
+    /**
+     * The content type of the wiki xml file, whose content is always encoded in UTF-8.
+     */
+    private static final String XML_CONTENT_TYPE = "text/xml;charset=UTF-8";
+
+    /**
+     * Matches the encoding declared by an XML declaration.
+     */
+    private static final Pattern XML_ENCODING = Pattern.compile("^(<\\?xml[^>]*?encoding\\s*=\\s*)([\"'])[^\"']*\\2");
+
+    /**
+     * The page whose content is represented by this resource (file).
+     */
+    private DavPage parentPage;
+
+    /**
+     * The metadata of the page, which identifies the cached properties and content.
+     */
+    private XWikiDavPageMetadata pageMetadata;
 
     public EntityReference getReference()
     {
-        return parentDoc.getDocumentReference();
+        return pageMetadata.getReference();
     }
 
 
@@ -72,65 +101,114 @@ public class DavWikiFile extends AbstractDavFile
         if (!(name.equals(WIKI_TXT) || name.equals(WIKI_XML))) {
             throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR);
         }
-        this.parentDoc = ((DavPage) parent).getDocument();
-        String timeStamp = DavConstants.creationDateFormat.format(parentDoc.getCreationDate());
-        getProperties().add(new DefaultDavProperty(DavPropertyName.CREATIONDATE, timeStamp));
-        timeStamp = DavConstants.modificationDateFormat.format(parentDoc.getContentUpdateDate());
-        getProperties().add(new DefaultDavProperty(DavPropertyName.GETLASTMODIFIED, timeStamp));
-        getProperties().add(new DefaultDavProperty(DavPropertyName.GETETAG, timeStamp));
-        getProperties().add(
-            new DefaultDavProperty(DavPropertyName.GETCONTENTLANGUAGE, parentDoc.getLanguage()));
-        String contentType = this.name.equals(WIKI_TXT) ? "text/plain" : "text/xml";
-        getProperties().add(new DefaultDavProperty(DavPropertyName.GETCONTENTTYPE, contentType));
-        int contentLength =
-            this.name.equals(WIKI_TXT) ? parentDoc.getContent().length() : getContext().toXML(
-                parentDoc).length();
-        getProperties().add(
-            new DefaultDavProperty(DavPropertyName.GETCONTENTLENGTH, contentLength));
+        this.parentPage = (DavPage) parent;
+        // A page listed by a query already knows its version: the document is only loaded if the properties or the
+        // content of this version aren't cached yet.
+        this.pageMetadata = this.parentPage.getMetadata();
+        // The live properties only depend on the version of the page, they are shared by all the users.
+        XWikiDavPropertyCache propertyCache = getContext().getPropertyCache();
+        String key = propertyCache.getKey(this.name, pageMetadata.getReference(), pageMetadata.getVersion(),
+            pageMetadata.getCreationDate());
+        DavPropertySet liveProperties = propertyCache.get(key);
+        if (liveProperties == null) {
+            liveProperties = new DavPropertySet();
+            String timeStamp = DavConstants.creationDateFormat.format(pageMetadata.getCreationDate());
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.CREATIONDATE, timeStamp));
+            timeStamp = DavConstants.modificationDateFormat.format(pageMetadata.getContentUpdateDate());
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.GETLASTMODIFIED, timeStamp));
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.GETETAG, timeStamp));
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.GETCONTENTLANGUAGE, pageMetadata.getLanguage()));
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.GETCONTENTTYPE, getContentType()));
+            liveProperties.add(new DefaultDavProperty(DavPropertyName.GETCONTENTLENGTH, getSerializedContent().length));
+            // New documents have no stable version yet.
+            if (this.parentPage.exists()) {
+                propertyCache.put(key, liveProperties);
+            }
+        }
+        getProperties().addAll(liveProperties);
     }
 
     @Override
     public boolean exists()
     {
-        return !parentDoc.isNew() && parentResource.getVirtualMembers().contains(this);
+        // Both wiki files exist unless the client has deleted one of them in this session.
+        Map<String, XWikiDavVirtualMember> members = parentResource.getStoredMembers();
+        return this.parentPage.exists() && (members == null || members.containsKey(this.name));
     }
 
     @Override
     public void spool(OutputContext outputContext) throws IOException
     {
         // Protect against direct url referencing.
-        if (!getContext().hasAccess("view", parentDoc.getDocumentReference())) {
+        if (!getContext().hasAccess("view", pageMetadata.getReference())) {
             throw new IOException("Access rights violation.");
         }
-        outputContext.setContentLanguage(parentDoc.getLanguage());
-        int contentLength = 0;
+        outputContext.setContentLanguage(pageMetadata.getLanguage());
+        byte[] content;
         try {
-            contentLength =
-                this.name.equals(WIKI_TXT) ? parentDoc.getContent().length() : getContext()
-                    .toXML(parentDoc).length();
+            content = getSerializedContent();
         } catch (DavException ex) {
             throw new IOException(ex.getMessage());
         }
-        outputContext.setContentLength(contentLength);
-        outputContext.setContentType(this.name.equals(WIKI_TXT) ? "text/plain" : "text/xml");
+        outputContext.setContentLength(content.length);
+        outputContext.setContentType(getContentType());
         outputContext.setETag(DavConstants.modificationDateFormat.format(getModificationTime()));
         outputContext.setModificationTime(getModificationTime());
         if (exists()) {
             OutputStream out = outputContext.getOutputStream();
             if (out != null) {
-                try {
-                    String content =
-                        this.name.equals(WIKI_TXT) ? parentDoc.getContent() : getContext().toXML(
-                            parentDoc);
-                    out.write(content.getBytes());
-                    out.flush();
-                } catch (DavException ex) {
-                    throw new IOException(ex.getMessage());
-                }
+                out.write(content);
+                out.flush();
             }
         }
     }
 
+    /**
+     * @return the content type of this file, with the charset of its content.
+     */
+    private String getContentType()
+    {
+        return this.name.equals(WIKI_TXT) ? TEXT_CONTENT_TYPE : XML_CONTENT_TYPE;
+    }
+
+    /**
+     * @return the content of this file encoded in UTF-8, serialized from the page only if it isn't cached yet for the
+     *         current version of the page. It must not be modified.
+     * @throws DavException If the page cannot be serialized.
+     */
+    private byte[] getSerializedContent() throws DavException
+    {
+        XWikiDavContentCache contentCache = getContext().getContentCache();
+        String key = contentCache.getKey(this.name, pageMetadata.getReference(), pageMetadata.getVersion(),
+            pageMetadata.getCreationDate());
+        byte[] content = contentCache.get(key);
+        if (content == null) {
+            // Loaded only when the content of this version isn't cached yet.
+            XWikiDocument document = this.parentPage.loadDocument();
+            String text =
+                this.name.equals(WIKI_TXT) ? document.getContent() : declareUTF8(getContext().toXML(document));
+            content = text.getBytes(StandardCharsets.UTF_8);
+            // New documents have no stable version yet.
+            if (!document.isNew()) {
+                contentCache.put(key, content);
+            }
+        }
+        return content;
+    }
+
+    /**
+     * The document is serialized with the encoding of the wiki in its XML declaration, while the content of this file
+     * is always encoded in UTF-8.
+     * 
+     * @param xml the XML serialization of a document.
+     * @return the same XML, declaring the UTF-8 encoding.
+     */
+    private static String declareUTF8(String xml)
+    {
+        Matcher matcher = XML_ENCODING.matcher(xml);
+        return matcher.find() ? matcher.replaceFirst("$1$2UTF-8$2") : xml;
+    }
+
     @Override
     public void move(DavResource destination) throws DavException
     {
@@ -141,7 +219,7 @@ public class DavWikiFile extends AbstractDavFile
     public long getModificationTime()
     {
         if (exists()) {
-            return parentDoc.getContentUpdateDate().getTime();
+            return pageMetadata.getContentUpdateDate().getTime();
         }
         return IOUtil.UNDEFINED_TIME;
     }
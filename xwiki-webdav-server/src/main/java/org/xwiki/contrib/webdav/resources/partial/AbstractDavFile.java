@@ -37,7 +37,7 @@ public abstract class AbstractDavFile extends AbstractDavResource
     @Override
     public XWikiDavResource decode(String[] tokens, int next) throws DavException
     {
-        throw new DavException(DavServletResponse.SC_BAD_REQUEST);
+        return null;
     }
 
     @Override
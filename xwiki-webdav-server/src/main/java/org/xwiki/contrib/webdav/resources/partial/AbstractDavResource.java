@@ -20,9 +20,11 @@
 package org.xwiki.contrib.webdav.resources.partial;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 import org.apache.jackrabbit.webdav.DavConstants;
 import org.apache.jackrabbit.webdav.DavException;
@@ -48,9 +50,14 @@ import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
 import org.apache.jackrabbit.webdav.property.DavPropertySet;
 import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
 import org.apache.jackrabbit.webdav.property.ResourceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xwiki.contrib.webdav.resources.XWikiDavResource;
 import org.xwiki.contrib.webdav.resources.domain.DavTempFile;
+import org.xwiki.contrib.webdav.resources.domain.DavWikiFile;
 import org.xwiki.contrib.webdav.utils.XWikiDavContext;
+import org.xwiki.contrib.webdav.utils.XWikiDavTempContent;
+import org.xwiki.contrib.webdav.utils.XWikiDavVirtualMember;
 
 /**
  * The superclass for all XWiki WebDAV resources.
@@ -59,6 +66,18 @@ import org.xwiki.contrib.webdav.utils.XWikiDavContext;
  */
 public abstract class AbstractDavResource implements XWikiDavResource
 {
+    /**
+     * Logger instance.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AbstractDavResource.class);
+
+    /**
+     * The creation date reported for the resources which don't have one of their own (the views and the other
+     * collections which don't describe a wiki entity): the time the server started, which stays the same across the
+     * requests so that the clients don't see these resources as recreated each time they look at them.
+     */
+    private static final String DEFAULT_CREATION_DATE = DavConstants.creationDateFormat.format(new Date());
+
     /**
      * Name of this resource.
      */
@@ -79,6 +98,11 @@ public abstract class AbstractDavResource implements XWikiDavResource
      */
     private XWikiDavContext context;
 
+    /**
+     * The properties of this resource, computed when it is initialized.
+     */
+    private DavPropertySet properties;
+
     @Override
     public void init(XWikiDavResource parent, String name, String relativePath) throws DavException
     {
@@ -97,12 +121,9 @@ public abstract class AbstractDavResource implements XWikiDavResource
         this.locator = locator;
         this.context = context;
         // set fundamental properties (Will be overridden as necessary)
-        // Some properties are cached and should not be overwritten.
-        DavPropertySet propertySet = getVirtualProperties();
-        if (propertySet.get(DavPropertyName.CREATIONDATE) == null) {
-            String timeStamp = DavConstants.creationDateFormat.format(new Date());
-            propertySet.add(new DefaultDavProperty(DavPropertyName.CREATIONDATE, timeStamp));
-        }
+        // They are computed for each request, only the properties set by the client are kept in the session.
+        DavPropertySet propertySet = new DavPropertySet();
+        propertySet.add(new DefaultDavProperty(DavPropertyName.CREATIONDATE, DEFAULT_CREATION_DATE));
         propertySet.add(new DefaultDavProperty(DavPropertyName.DISPLAYNAME, getDisplayName()));
         if (isCollection()) {
             propertySet.add(new ResourceType(ResourceType.COLLECTION));
@@ -114,8 +135,8 @@ public abstract class AbstractDavResource implements XWikiDavResource
             propertySet.add(new DefaultDavProperty(DavPropertyName.ISCOLLECTION, "0"));
         }
         /*
-         * set current lock information. If no lock is set to this resource, an empty lockdiscovery will be returned in
-         * the response.
+         * set current lock information. If no lock is set to this resource, an empty lockdiscovery will be returned
+         * in the response.
          */
         propertySet.add(new LockDiscovery(getLock(Type.WRITE, Scope.EXCLUSIVE)));
         /*
@@ -124,6 +145,14 @@ public abstract class AbstractDavResource implements XWikiDavResource
         SupportedLock supportedLock = new SupportedLock();
         supportedLock.addEntry(Type.WRITE, Scope.EXCLUSIVE);
         propertySet.add(supportedLock);
+        DavPropertySet storedProperties = getStoredProperties(false);
+        if (storedProperties != null) {
+            // The set is shared by the parallel requests of the user.
+            synchronized (storedProperties) {
+                propertySet.addAll(storedProperties);
+            }
+        }
+        this.properties = propertySet;
     }
 
     /**
@@ -133,24 +162,25 @@ public abstract class AbstractDavResource implements XWikiDavResource
     public XWikiDavResource decode(String[] tokens, int next) throws DavException
     {
         if (!isCollection()) {
-           throw new DavException(DavServletResponse.SC_BAD_REQUEST);
+           return null;
         }
         String nextToken = tokens[next];
         boolean last = (next == tokens.length - 1);
-        DavTempFile resource = new DavTempFile();
-        String method = getContext().getMethod();
-        if (method != null && DavMethods.getMethodCode(method) == DavMethods.DAV_MKCOL) {
-            resource.setCollection();
-        }
-        resource.init(this, nextToken, "/" + nextToken);
+        DavTempFile resource;
         // Search inside session resources to see if we already have this resource stored
-        int index = getVirtualMembers().indexOf(resource);
-        if (index != -1) {
-            // Use the old resource instead.
-            resource = (DavTempFile) getVirtualMembers().get(index);
-            // Re-init the old resource.
-            resource.init(this, nextToken, "/" + nextToken);
+        Map<String, XWikiDavVirtualMember> storedMembers = getStoredMembers();
+        XWikiDavVirtualMember storedMember = (storedMembers != null) ? storedMembers.get(nextToken) : null;
+        if (storedMember != null && !storedMember.isWikiFile() && !storedMember.isEvicted()) {
+            // Rebuild the stored resource.
+            resource = new DavTempFile(storedMember);
+        } else {
+            resource = new DavTempFile();
+            String method = getContext().getMethod();
+            if (method != null && DavMethods.getMethodCode(method) == DavMethods.DAV_MKCOL) {
+                resource.setCollection();
+            }
         }
+        resource.init(this, nextToken, "/" + nextToken);
         return last ? resource : resource.decode(tokens, next + 1);
     }
 
@@ -220,13 +250,14 @@ public abstract class AbstractDavResource implements XWikiDavResource
     }
 
     /**
-     * Default implementation simply returns all the cached properties.
+     * Default implementation simply returns the properties computed when this resource was initialized, including the
+     * ones set by the client.
      * 
      * @return The set of properties associated with this resource.
      */
     public DavPropertySet getProperties()
     {
-        return getVirtualProperties();
+        return this.properties;
     }
 
     @Override
@@ -246,6 +277,10 @@ public abstract class AbstractDavResource implements XWikiDavResource
         throws DavException
     {
         getProperties().addAll(setProperties);
+        DavPropertySet storedProperties = getStoredProperties(true);
+        synchronized (storedProperties) {
+            storedProperties.addAll(setProperties);
+        }
         DavPropertyNameIterator it = removePropertyNames.iterator();
         while (it.hasNext()) {
             removeProperty(it.nextPropertyName());
@@ -284,12 +319,22 @@ public abstract class AbstractDavResource implements XWikiDavResource
     public void removeProperty(DavPropertyName propertyName) throws DavException
     {
         getProperties().remove(propertyName);
+        DavPropertySet storedProperties = getStoredProperties(false);
+        if (storedProperties != null) {
+            synchronized (storedProperties) {
+                storedProperties.remove(propertyName);
+            }
+        }
     }
 
     @Override
     public void setProperty(DavProperty property) throws DavException
     {
         getProperties().add(property);
+        DavPropertySet storedProperties = getStoredProperties(true);
+        synchronized (storedProperties) {
+            storedProperties.add(property);
+        }
     }
 
     @Override
@@ -361,36 +406,122 @@ public abstract class AbstractDavResource implements XWikiDavResource
     @Override
     public List<XWikiDavResource> getVirtualMembers()
     {
-        Map<String, List<XWikiDavResource>> vResourcesMap = getContext().getUserStorage().getResourcesMap();
-        if (vResourcesMap.get(getResourcePath()) == null) {
-            vResourcesMap.put(getResourcePath(), getInitMembers());
+        Map<String, XWikiDavVirtualMember> storedMembers = getStoredMembers();
+        // Nothing is stored in the session until the members are actually modified.
+        Collection<XWikiDavVirtualMember> snapshots =
+            (storedMembers != null) ? storedMembers.values() : getInitMemberSnapshots();
+        List<XWikiDavResource> members = new ArrayList<XWikiDavResource>(snapshots.size());
+        for (XWikiDavVirtualMember snapshot : snapshots) {
+            try {
+                if (snapshot.isEvicted()) {
+                    // The content has been evicted to stay within the memory budget, forget the whole member.
+                    forgetEvictedMember(snapshot);
+                } else {
+                    members.add(createVirtualMember(snapshot));
+                }
+            } catch (DavException ex) {
+                logger.error("Error while initializing members.", ex);
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Rebuilds a virtual member of this resource from its snapshot.
+     * 
+     * @param snapshot the snapshot of the member, as stored in the user's session.
+     * @return the member, initialized against the current context.
+     * @throws DavException If the initialization fails.
+     */
+    protected XWikiDavResource createVirtualMember(XWikiDavVirtualMember snapshot) throws DavException
+    {
+        XWikiDavResource member = snapshot.isWikiFile() ? new DavWikiFile() : new DavTempFile(snapshot);
+        member.init(this, snapshot.getName(), "/" + snapshot.getName());
+        return member;
+    }
+
+    /**
+     * Removes the snapshot of a member whose content has been evicted, unless it has been replaced meanwhile.
+     * 
+     * @param snapshot the evicted snapshot.
+     * @throws DavException If the store cannot be updated.
+     */
+    private void forgetEvictedMember(XWikiDavVirtualMember snapshot) throws DavException
+    {
+        XWikiDavVirtualMember removed = removeStoredMember(snapshot.getName());
+        if (removed != null && removed != snapshot) {
+            putStoredMember(removed);
         }
-        return vResourcesMap.get(getResourcePath());
     }
 
     @Override
-    public DavPropertySet getVirtualProperties()
+    public Map<String, XWikiDavVirtualMember> getStoredMembers()
+    {
+        return getContext().getTempResourceStore().getMembers(getContext().getUser(), getResourcePath());
+    }
+
+    @Override
+    public XWikiDavVirtualMember putStoredMember(XWikiDavVirtualMember member) throws DavException
+    {
+        return getContext().getTempResourceStore().putMember(getContext().getUser(), getResourcePath(),
+            getInitMemberSnapshots(), member);
+    }
+
+    @Override
+    public XWikiDavVirtualMember removeStoredMember(String name) throws DavException
+    {
+        return getContext().getTempResourceStore().removeMember(getContext().getUser(), getResourcePath(),
+            getInitMemberSnapshots(), name);
+    }
+
+    @Override
+    public DavPropertySet getStoredProperties(boolean create)
     {
         Map<String, DavPropertySet> vPropertiesMap = getContext().getUserStorage().getPropertiesMap();
-        if (vPropertiesMap.get(getResourcePath()) == null) {
-            vPropertiesMap.put(getResourcePath(), new DavPropertySet());
+        synchronized (vPropertiesMap) {
+            DavPropertySet storedProperties = vPropertiesMap.get(getResourcePath());
+            if (storedProperties == null && create) {
+                storedProperties = new DavPropertySet();
+                vPropertiesMap.put(getResourcePath(), storedProperties);
+            }
+            return storedProperties;
         }
-        return vPropertiesMap.get(getResourcePath());
     }
 
     @Override
+    @Deprecated
+    public DavPropertySet getVirtualProperties()
+    {
+        return getStoredProperties(true);
+    }
+
+    @Override
+    public List<XWikiDavVirtualMember> getInitMemberSnapshots()
+    {
+        return new ArrayList<XWikiDavVirtualMember>();
+    }
+
+    @Override
+    @Deprecated
     public List<XWikiDavResource> getInitMembers()
     {
-        return new ArrayList<XWikiDavResource>();
+        List<XWikiDavVirtualMember> snapshots = getInitMemberSnapshots();
+        List<XWikiDavResource> members = new ArrayList<XWikiDavResource>(snapshots.size());
+        for (XWikiDavVirtualMember snapshot : snapshots) {
+            try {
+                members.add(createVirtualMember(snapshot));
+            } catch (DavException ex) {
+                logger.error("Error while initializing members.", ex);
+            }
+        }
+        return members;
     }
 
     @Override
     public void clearCache()
     {
-        Map<String, List<XWikiDavResource>> vResourcesMap = getContext().getUserStorage().getResourcesMap();
-        Map<String, DavPropertySet> vPropertiesMap = getContext().getUserStorage().getPropertiesMap();
-        vResourcesMap.remove(getResourcePath());
-        vPropertiesMap.remove(getResourcePath());
+        getContext().getTempResourceStore().removeMembers(getContext().getUser(), getResourcePath());
+        getContext().getUserStorage().getPropertiesMap().remove(getResourcePath());
     }
 
     /**
@@ -401,22 +532,26 @@ public abstract class AbstractDavResource implements XWikiDavResource
      */
     public void addVirtualMember(DavResource resource, InputContext inputContext) throws DavException
     {
-        XWikiDavResource davResource = (XWikiDavResource) resource;
+        if (!(resource instanceof DavTempFile)) {
+            throw new DavException(DavServletResponse.SC_FORBIDDEN);
+        }
         boolean isFile = (inputContext.getInputStream() != null);
         long modificationTime = inputContext.getModificationTime();
-        if (davResource instanceof DavTempFile) {
-            DavTempFile tempFile = (DavTempFile) davResource;
-            if (isFile) {
-                byte[] data = null;
-                data = getContext().getFileContentAsBytes(inputContext.getInputStream());
-                tempFile.update(data, new Date(modificationTime));
-            } else {
-                tempFile.setModified(new Date(modificationTime));
-            }
+        DavTempFile tempFile = (DavTempFile) resource;
+        if (isFile && getContext().isDiscarded(tempFile.getDisplayName())) {
+            // Client metadata file: acknowledge it with an empty content, without reading the body.
+            tempFile.update(XWikiDavTempContent.EMPTY, new Date(modificationTime));
+        } else if (isFile) {
+            XWikiDavTempContent content =
+                getContext().storeTempContent(getResourcePath(), inputContext.getInputStream());
+            tempFile.update(content, new Date(modificationTime));
+        } else {
+            tempFile.setModified(new Date(modificationTime));
         }
         // It's possible that we are updating an existing resource.
-        if (!getVirtualMembers().contains(davResource)) {
-            getVirtualMembers().add(davResource);
+        XWikiDavVirtualMember previous = putStoredMember(tempFile.getSnapshot());
+        if (previous != null && !Objects.equals(previous.getContent(), tempFile.getContent())) {
+            previous.dispose();
         }
     }
 
@@ -428,8 +563,9 @@ public abstract class AbstractDavResource implements XWikiDavResource
     public void removeVirtualMember(DavResource member) throws DavException
     {
         XWikiDavResource davResource = (XWikiDavResource) member;
-        if (getVirtualMembers().contains(davResource)) {
-            getVirtualMembers().remove(davResource);
+        XWikiDavVirtualMember removed = removeStoredMember(davResource.getDisplayName());
+        if (removed != null) {
+            removed.dispose();
             davResource.clearCache();
         } else {
             throw new DavException(DavServletResponse.SC_NOT_FOUND);
@@ -448,6 +584,9 @@ public abstract class AbstractDavResource implements XWikiDavResource
      * Note 2: As a consequence this means that XWiki Document names cannot start with ".", end with "~" or match
      * "mach_kernel" or "Backups.backupdb".
      *
+     * Note 3: The client metadata files which are discarded (see {@link XWikiDavContext#isDiscarded(String)}) are
+     * temporary resources too, unless a page or an attachment of that name exists (see {@link #isWikiMember(String)}).
+     *
      * @param resourceName Name of the resource.
      * @return True if the resourceName corresponds to a temporary file / directory. False otherwise.
      */
@@ -456,7 +595,20 @@ public abstract class AbstractDavResource implements XWikiDavResource
         return resourceName.startsWith(".")
             || resourceName.endsWith("~")
             || resourceName.equals("mach_kernel")
-            || resourceName.equals("Backups.backupdb");
+            || resourceName.equals("Backups.backupdb")
+            || (getContext().isDiscarded(resourceName) && !isWikiMember(resourceName));
+    }
+
+    /**
+     * Default implementation: the resource doesn't have any member mapped to a wiki entity.
+     * 
+     * @param resourceName Name of a member of this resource.
+     * @return True if the name resolves to an existing wiki entity (a space, a page or an attachment) below this
+     *         resource, in which case it must not be discarded even if it matches a client metadata file name.
+     */
+    protected boolean isWikiMember(String resourceName)
+    {
+        return false;
     }
 
     @Override
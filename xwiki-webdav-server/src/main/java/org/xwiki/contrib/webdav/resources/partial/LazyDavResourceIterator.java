@@ -0,0 +1,152 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.resources.partial;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavResource;
+import org.apache.jackrabbit.webdav.DavResourceIterator;
+import org.xwiki.contrib.webdav.utils.XWikiDavListingException;
+
+/**
+ * A {@link DavResourceIterator} building the members of a collection only when they are requested. The items the
+ * members are built from (usually query results) are read incrementally from a source iterator, so the memory and the
+ * time needed to list a collection depend on what has actually been consumed rather than on the size of the
+ * collection. The members of an optional tail iterator (usually the virtual members) are returned after the built ones.
+ * A member which cannot be built is reported with a {@link XWikiDavListingException}, rather than silently skipped.
+ *
+ * @param <T> the type of the items the members are built from.
+ * @version $Id$
+ */
+public abstract class LazyDavResourceIterator<T> implements DavResourceIterator
+{
+    /**
+     * The items the members are built from.
+     */
+    private final Iterator<T> source;
+
+    /**
+     * The members returned after the built ones, may be null.
+     */
+    private final DavResourceIterator tail;
+
+    /**
+     * The members produced in advance, either by {@link #hasNext()} or {@link #size()}.
+     */
+    private final Deque<DavResource> buffer = new ArrayDeque<DavResource>();
+
+    /**
+     * The number of members already returned.
+     */
+    private int returned;
+
+    /**
+     * @param source the items the members are built from.
+     * @param tail the members to return after the built ones, may be null.
+     */
+    public LazyDavResourceIterator(Iterator<T> source, DavResourceIterator tail)
+    {
+        this.source = source;
+        this.tail = tail;
+    }
+
+    /**
+     * Builds the member corresponding to the given item.
+     *
+     * @param item the item.
+     * @return the member, or null if the item should be skipped.
+     * @throws DavException if the member cannot be built, which ends the iteration with an error.
+     */
+    protected abstract DavResource createMember(T item) throws DavException;
+
+    @Override
+    public boolean hasNext()
+    {
+        return !this.buffer.isEmpty() || produce();
+    }
+
+    @Override
+    public DavResource nextResource()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        this.returned++;
+        return this.buffer.poll();
+    }
+
+    @Override
+    public DavResource next()
+    {
+        return nextResource();
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The size is not known in advance: calling this method builds all the remaining members.
+     * </p>
+     */
+    @Override
+    public int size()
+    {
+        while (produce()) {
+            // Build all the remaining members.
+        }
+        return this.returned + this.buffer.size();
+    }
+
+    /**
+     * Adds the next member to the buffer.
+     *
+     * @return false if there are no more members.
+     * @throws XWikiDavListingException if the next member cannot be built.
+     */
+    private boolean produce()
+    {
+        while (this.source.hasNext()) {
+            T item = this.source.next();
+            try {
+                DavResource member = createMember(item);
+                if (member != null) {
+                    this.buffer.add(member);
+                    return true;
+                }
+            } catch (DavException e) {
+                throw new XWikiDavListingException("Failed to build the member [" + item + "]", e);
+            }
+        }
+        if (this.tail != null && this.tail.hasNext()) {
+            this.buffer.add(this.tail.nextResource());
+            return true;
+        }
+        return false;
+    }
+}
@@ -23,7 +23,6 @@ import org.apache.jackrabbit.webdav.DavException;
 import org.apache.jackrabbit.webdav.DavResource;
 import org.apache.jackrabbit.webdav.DavResourceIterator;
 import org.apache.jackrabbit.webdav.DavResourceIteratorImpl;
-import org.apache.jackrabbit.webdav.DavServletResponse;
 import org.apache.jackrabbit.webdav.io.InputContext;
 import org.apache.jackrabbit.webdav.property.DavPropertySet;
 import org.xwiki.contrib.webdav.resources.XWikiDavResource;
@@ -59,7 +58,7 @@ public class HomeView extends AbstractVirtualDavView
         } else if (isTempResource(nextToken)) {
             return super.decode(tokens, next);
         } else {
-            throw new DavException(DavServletResponse.SC_BAD_REQUEST);
+            return null;
         }
     }
 
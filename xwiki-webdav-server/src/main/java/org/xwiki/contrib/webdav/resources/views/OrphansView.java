@@ -26,7 +26,6 @@ import org.apache.jackrabbit.webdav.DavException;
 import org.apache.jackrabbit.webdav.DavResource;
 import org.apache.jackrabbit.webdav.DavResourceIterator;
 import org.apache.jackrabbit.webdav.DavResourceIteratorImpl;
-import org.apache.jackrabbit.webdav.DavServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.contrib.webdav.resources.XWikiDavResource;
@@ -54,14 +53,19 @@ public class OrphansView extends AbstractVirtualDavView
         if (isTempResource(nextToken)) {
             return super.decode(tokens, next);
         } else if (getContext().exists(nextToken) && !(last && getContext().isCreateOrMoveRequest())) {
-            DavPage page = new DavPage();
-            page.init(this, nextToken, "/" + nextToken);
-            return last ? page : page.decode(tokens, next + 1);
+            DavPage page = DavPage.resolve(this, nextToken, "/" + nextToken);
+            return (last || page == null) ? page : page.decode(tokens, next + 1);
         } else {
-            throw new DavException(DavServletResponse.SC_BAD_REQUEST);
+            return null;
         }
     }
 
+    @Override
+    protected boolean isWikiMember(String resourceName)
+    {
+        return getContext().exists(resourceName);
+    }
+
     @Override
     public DavResourceIterator getMembers()
     {
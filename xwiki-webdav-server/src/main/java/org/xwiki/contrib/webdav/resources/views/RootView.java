@@ -68,7 +68,7 @@ public class RootView extends AbstractVirtualDavView
         } else if (nextToken.equals(BaseViews.ATTACHMENTS)) {
             resource = new AttachmentsView();
         } else {
-            throw new DavException(DavServletResponse.SC_BAD_REQUEST);
+            return null;
         }
         resource.init(this, nextToken, "/" + nextToken);
         return last ? resource : resource.decode(tokens, next + 1);        
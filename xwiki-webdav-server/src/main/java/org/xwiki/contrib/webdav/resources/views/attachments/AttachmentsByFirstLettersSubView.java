@@ -20,7 +20,6 @@
 package org.xwiki.contrib.webdav.resources.views.attachments;
 
 import java.util.ArrayList;
-import java.util.List;
 
 import org.apache.jackrabbit.webdav.DavException;
 import org.apache.jackrabbit.webdav.DavResource;
@@ -32,6 +31,8 @@ import org.slf4j.LoggerFactory;
 import org.xwiki.contrib.webdav.resources.XWikiDavResource;
 import org.xwiki.contrib.webdav.resources.domain.DavPage;
 import org.xwiki.contrib.webdav.resources.partial.AbstractDavView;
+import org.xwiki.contrib.webdav.resources.partial.LazyDavResourceIterator;
+import org.xwiki.contrib.webdav.utils.XWikiDavPageMetadata;
 import org.xwiki.contrib.webdav.utils.XWikiDavUtils;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.SpaceReference;
@@ -77,33 +78,40 @@ public class AttachmentsByFirstLettersSubView extends AbstractDavView
             page.init(this, getContext().serialize(pageRef), "/" + nextToken);
             return last ? page : page.decode(tokens, next + 1);
         } else {
-            throw new DavException(DavServletResponse.SC_BAD_REQUEST);
+            return null;
         }
     }
 
+    @Override
+    protected boolean isWikiMember(String resourceName)
+    {
+        return getContext().documentExists(new DocumentReference(resourceName, getReference()));
+    }
+
     @Override
     public DavResourceIterator getMembers()
     {
-        List<DavResource> children = new ArrayList<DavResource>();
         String filter =
             getDisplayName().substring(XWikiDavUtils.VIRTUAL_DIRECTORY_PREFIX.length(),
                 getDisplayName().length() - XWikiDavUtils.VIRTUAL_DIRECTORY_POSTFIX.length());
+        DavResourceIterator virtualMembers =
+            new DavResourceIteratorImpl(new ArrayList<DavResource>(getVirtualMembers()));
         try {
-            List<DocumentReference> docRefs = getContext().getPagesWithAttachmentsInSpace(getReference());
-            for (DocumentReference docRef : docRefs) {
-                if (getContext().hasAccess("view", docRef)) {
-                    String pageName = docRef.getName();
-                    if (pageName.toUpperCase().startsWith(filter)) {
-                        DavPage page = new DavPage();
-                        page.init(this, getContext().serialize(docRef), "/" + pageName);
-                        children.add(page);
-                    }
+            return new LazyDavResourceIterator<XWikiDavPageMetadata>(
+                getContext().iteratePagesWithAttachmentsWithPrefix(getReference(), filter), virtualMembers)
+            {
+                @Override
+                protected DavResource createMember(XWikiDavPageMetadata metadata) throws DavException
+                {
+                    DocumentReference docRef = metadata.getReference();
+                    DavPage page = new DavPage();
+                    page.init(AttachmentsByFirstLettersSubView.this, metadata, "/" + docRef.getName());
+                    return page;
                 }
-            }
+            };
         } catch (DavException e) {
             logger.error("Unexpected Error : ", e);
         }
-        children.addAll(getVirtualMembers());
-        return new DavResourceIteratorImpl(children);
+        return virtualMembers;
     }
 }
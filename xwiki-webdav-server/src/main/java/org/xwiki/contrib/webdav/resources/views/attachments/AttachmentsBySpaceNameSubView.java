@@ -28,14 +28,15 @@ import org.apache.jackrabbit.webdav.DavException;
 import org.apache.jackrabbit.webdav.DavResource;
 import org.apache.jackrabbit.webdav.DavResourceIterator;
 import org.apache.jackrabbit.webdav.DavResourceIteratorImpl;
-import org.apache.jackrabbit.webdav.DavServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.contrib.webdav.resources.XWikiDavResource;
 import org.xwiki.contrib.webdav.resources.domain.DavPage;
 import org.xwiki.contrib.webdav.resources.partial.AbstractDavView;
+import org.xwiki.contrib.webdav.resources.partial.LazyDavResourceIterator;
 import org.xwiki.contrib.webdav.utils.XWikiDavUtils;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.SpaceReference;
 
 /**
@@ -65,17 +66,29 @@ public class AttachmentsBySpaceNameSubView extends AbstractDavView
             subView.init(this, nextToken.toUpperCase(), "/" + nextToken.toUpperCase());            
         } else {
             DocumentReference docRef = new DocumentReference(nextToken, getReference());
-            if (getContext().documentExists(docRef)) {
+            String childPath = getResourcePath() + "/" + nextToken;
+            EntityReference resolved = getContext().getResolvedReference(childPath);
+            boolean exists = (resolved != null) ? docRef.equals(resolved) : getContext().documentExists(docRef);
+            if (exists) {
+                if (resolved == null) {
+                    getContext().setResolvedReference(childPath, docRef);
+                }
                 subView = new DavPage();
                 subView.init(this, getContext().serialize(docRef), "/" + nextToken);
             }
         }
         if (subView == null) {
-            throw new DavException(DavServletResponse.SC_BAD_REQUEST);
+            return null;
         }
         return last ? subView : subView.decode(tokens, next + 1);
     }
 
+    @Override
+    protected boolean isWikiMember(String resourceName)
+    {
+        return getContext().documentExists(new DocumentReference(resourceName, getReference()));
+    }
+
     @Override
     public SpaceReference getReference()
     {
@@ -85,19 +98,19 @@ public class AttachmentsBySpaceNameSubView extends AbstractDavView
     @Override
     public DavResourceIterator getMembers()
     {
+        List<DocumentReference> pages = new ArrayList<DocumentReference>();
         List<DavResource> children = new ArrayList<DavResource>();
         try {
             List<DocumentReference> docRefs = getContext().getPagesWithAttachmentsInSpace(getReference());
             Set<String> subViewNames = new HashSet<String>();
             int subViewNameLength = XWikiDavUtils.getSubViewNameLength(docRefs.size());
-            for (DocumentReference docRef : docRefs) {
-                if (getContext().hasAccess("view", docRef)) {
+            if (subViewNameLength == 0) {
+                // The pages are only built while iterating over the members.
+                pages = docRefs;
+            } else {
+                for (DocumentReference docRef : docRefs) {
                     String pageName = docRef.getName();
-                    if (subViewNameLength == 0) {
-                        DavPage page = new DavPage();
-                        page.init(this, pageName, "/" + pageName);
-                        children.add(page);
-                    } else if (subViewNameLength < pageName.length()) {
+                    if (subViewNameLength < pageName.length()) {
                         subViewNames.add(pageName.substring(0, subViewNameLength).toUpperCase());
                     } else {
                         // This is not good.
@@ -120,6 +133,16 @@ public class AttachmentsBySpaceNameSubView extends AbstractDavView
             logger.error("Unexpected Error : ", ex);
         }
         children.addAll(getVirtualMembers());
-        return new DavResourceIteratorImpl(children);
+        return new LazyDavResourceIterator<DocumentReference>(pages.iterator(), new DavResourceIteratorImpl(children))
+        {
+            @Override
+            protected DavResource createMember(DocumentReference docRef) throws DavException
+            {
+                String pageName = docRef.getName();
+                DavPage page = new DavPage();
+                page.init(AttachmentsBySpaceNameSubView.this, pageName, "/" + pageName);
+                return page;
+            }
+        };
     }
 }
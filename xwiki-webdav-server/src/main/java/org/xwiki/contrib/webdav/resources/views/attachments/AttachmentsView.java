@@ -28,12 +28,13 @@ import org.apache.jackrabbit.webdav.DavException;
 import org.apache.jackrabbit.webdav.DavResource;
 import org.apache.jackrabbit.webdav.DavResourceIterator;
 import org.apache.jackrabbit.webdav.DavResourceIteratorImpl;
-import org.apache.jackrabbit.webdav.DavServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.contrib.webdav.resources.XWikiDavResource;
 import org.xwiki.contrib.webdav.resources.partial.AbstractDavView;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.model.reference.WikiReference;
 
 /**
@@ -55,16 +56,40 @@ public class AttachmentsView extends AbstractDavView
         boolean last = (next == tokens.length - 1);
         if (isTempResource(nextToken)) {
             return super.decode(tokens, next);
-        } else if (getContext().spaceExists(getContext().getSpaceReference(nextToken))
-            && !(last && getContext().isCreateOrMoveRequest())) {
+        } else if (resolvesToSpace(nextToken) && !(last && getContext().isCreateOrMoveRequest())) {
             AttachmentsBySpaceNameSubView subView = new AttachmentsBySpaceNameSubView();
             subView.init(this, nextToken, "/" + nextToken);
             return last ? subView : subView.decode(tokens, next + 1);
         } else {
-            throw new DavException(DavServletResponse.SC_BAD_REQUEST);
+            return null;
         }
     }
 
+    @Override
+    protected boolean isWikiMember(String resourceName)
+    {
+        return resolvesToSpace(resourceName);
+    }
+
+    /**
+     * @param nextToken the next segment of the path.
+     * @return true if the segment names an existing space.
+     */
+    private boolean resolvesToSpace(String nextToken)
+    {
+        String childPath = getResourcePath() + "/" + nextToken;
+        SpaceReference spaceRef = getContext().getSpaceReference(nextToken);
+        EntityReference resolved = getContext().getResolvedReference(childPath);
+        if (resolved != null) {
+            return spaceRef.equals(resolved);
+        }
+        if (getContext().spaceExists(spaceRef)) {
+            getContext().setResolvedReference(childPath, spaceRef);
+            return true;
+        }
+        return false;
+    }
+
     @Override
     public WikiReference getReference()
     {
@@ -79,9 +104,7 @@ public class AttachmentsView extends AbstractDavView
             List<DocumentReference> docRefs = getContext().getPagesWithAttachments();
             Set<String> spacesWithAttachments = new HashSet<String>();
             for (DocumentReference docRef : docRefs) {
-                if (getContext().hasAccess("view", docRef)) {
-                    spacesWithAttachments.add(getContext().serialize(docRef.getParent()));
-                }
+                spacesWithAttachments.add(getContext().serialize(docRef.getParent()));
             }
             for (String spaceName : spacesWithAttachments) {
                 AttachmentsBySpaceNameSubView subView = new AttachmentsBySpaceNameSubView();
@@ -20,7 +20,6 @@
 package org.xwiki.contrib.webdav.resources.views.pages;
 
 import java.util.ArrayList;
-import java.util.List;
 
 import org.apache.jackrabbit.webdav.DavException;
 import org.apache.jackrabbit.webdav.DavResource;
@@ -34,6 +33,8 @@ import org.xwiki.contrib.webdav.resources.XWikiDavResource;
 import org.xwiki.contrib.webdav.resources.domain.DavPage;
 import org.xwiki.contrib.webdav.resources.domain.DavTempFile;
 import org.xwiki.contrib.webdav.resources.partial.AbstractDavView;
+import org.xwiki.contrib.webdav.resources.partial.LazyDavResourceIterator;
+import org.xwiki.contrib.webdav.utils.XWikiDavPageMetadata;
 import org.xwiki.contrib.webdav.utils.XWikiDavUtils;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.SpaceReference;
@@ -82,29 +83,40 @@ public class PagesByFirstLettersSubView extends AbstractDavView
             page.init(this, getContext().serialize(docRef), "/" + nextToken);
             return last ? page : page.decode(tokens, next + 1);
         } else {
-            throw new DavException(DavServletResponse.SC_BAD_REQUEST);
+            return null;
         }
     }
 
+    @Override
+    protected boolean isWikiMember(String resourceName)
+    {
+        return getContext().documentExists(new DocumentReference(resourceName, getReference()));
+    }
+
     @Override
     public DavResourceIterator getMembers()
     {
-        List<DavResource> children = new ArrayList<DavResource>();
         String filter = getDisplayName().substring(XWikiDavUtils.VIRTUAL_DIRECTORY_PREFIX.length(),
             getDisplayName().length() - XWikiDavUtils.VIRTUAL_DIRECTORY_POSTFIX.length());
+        DavResourceIterator virtualMembers =
+            new DavResourceIteratorImpl(new ArrayList<DavResource>(getVirtualMembers()));
         try {
-            List<DocumentReference> docRefs = getContext().getChildPagesWithPrefix(getReference(), filter);
-            for (DocumentReference docRef : docRefs) {
-                String pageName = docRef.getName();
-                DavPage page = new DavPage();
-                page.init(this, getContext().serialize(docRef), "/" + pageName);
-                children.add(page);
-            }
+            return new LazyDavResourceIterator<XWikiDavPageMetadata>(
+                getContext().iterateChildPagesWithPrefix(getReference(), filter), virtualMembers)
+            {
+                @Override
+                protected DavResource createMember(XWikiDavPageMetadata metadata) throws DavException
+                {
+                    DocumentReference docRef = metadata.getReference();
+                    DavPage page = new DavPage();
+                    page.init(PagesByFirstLettersSubView.this, metadata, "/" + docRef.getName());
+                    return page;
+                }
+            };
         } catch (DavException e) {
             logger.error("Unexpected Error : ", e);
         }
-        children.addAll(getVirtualMembers());
-        return new DavResourceIteratorImpl(children);
+        return virtualMembers;
     }
 
     @Override
@@ -35,8 +35,11 @@ import org.slf4j.LoggerFactory;
 import org.xwiki.contrib.webdav.resources.XWikiDavResource;
 import org.xwiki.contrib.webdav.resources.domain.DavPage;
 import org.xwiki.contrib.webdav.resources.partial.AbstractDavView;
+import org.xwiki.contrib.webdav.resources.partial.LazyDavResourceIterator;
+import org.xwiki.contrib.webdav.utils.XWikiDavPageMetadata;
 import org.xwiki.contrib.webdav.utils.XWikiDavUtils;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.SpaceReference;
 
 import com.xpn.xwiki.doc.XWikiDocument;
@@ -66,23 +69,68 @@ public class PagesBySpaceNameSubView extends AbstractDavView
             && !(last && getContext().isCreateOrMoveRequest())) {
             resource = new PagesByFirstLettersSubView();
             resource.init(this, nextToken.toUpperCase(), "/" + nextToken.toUpperCase());
-        } else if (getContext().isCreateCollectionRequest()
-            || getContext().documentExists(new DocumentReference(nextToken, getReference()))) {
+        } else if (resolvesToPage(nextToken)) {
             resource = new DavPage();
             DocumentReference docRef = new DocumentReference(nextToken, getReference());
             resource.init(this, getContext().serialize(docRef), "/" + nextToken);
-        } else if (getContext().spaceExists( new SpaceReference(nextToken, getReference()))) {
+        } else if (resolvesToSpace(nextToken)) {
             resource = new PagesBySpaceNameSubView();
             resource.init(this, nextToken, "/" + nextToken);
         } else if (nextToken.startsWith(this.name + ".") && getContext().documentExists(getContext().getDocumentReference(nextToken))) {
             // For compatibility with FoXWiki
-            resource = new DavPage();
-            resource.init(this, nextToken, "/" + nextToken);
+            resource = DavPage.resolve(this, nextToken, "/" + nextToken);
         } else {
-            // maybe throw "NOT_FOUND" here?
-            throw new DavException(DavServletResponse.SC_BAD_REQUEST);
+            return null;
+        }
+        return (last || resource == null) ? resource : resource.decode(tokens, next + 1);
+    }
+
+    @Override
+    protected boolean isWikiMember(String resourceName)
+    {
+        return getContext().documentExists(new DocumentReference(resourceName, getReference()))
+            || resolvesToSpace(resourceName);
+    }
+
+    /**
+     * @param nextToken the next segment of the path.
+     * @return true if the segment names a child page of this space (or one that is being created).
+     */
+    private boolean resolvesToPage(String nextToken)
+    {
+        if (getContext().isCreateCollectionRequest()) {
+            return true;
+        }
+        String childPath = getResourcePath() + "/" + nextToken;
+        DocumentReference docRef = new DocumentReference(nextToken, getReference());
+        EntityReference resolved = getContext().getResolvedReference(childPath);
+        if (resolved != null) {
+            return docRef.equals(resolved);
+        }
+        if (getContext().documentExists(docRef)) {
+            getContext().setResolvedReference(childPath, docRef);
+            return true;
         }
-        return last ? resource : resource.decode(tokens, next + 1);
+        return false;
+    }
+
+    /**
+     * @param nextToken the next segment of the path, which does not name a page.
+     * @return true if the segment names a child space of this space.
+     */
+    private boolean resolvesToSpace(String nextToken)
+    {
+        String childPath = getResourcePath() + "/" + nextToken;
+        SpaceReference spaceRef = new SpaceReference(nextToken, getReference());
+        EntityReference resolved = getContext().getResolvedReference(childPath);
+        if (resolved != null) {
+            return spaceRef.equals(resolved);
+        }
+        if (getContext().spaceExists(spaceRef)) {
+            getContext().setResolvedReference(childPath, spaceRef);
+            return true;
+        }
+        return false;
     }
 
     @Override
@@ -100,33 +148,28 @@ public class PagesBySpaceNameSubView extends AbstractDavView
     @Override
     public DavResourceIterator getMembers()
     {
+        List<String> childSpaces = new ArrayList<String>();
+        List<XWikiDavPageMetadata> pages = new ArrayList<XWikiDavPageMetadata>();
         List<DavResource> children = new ArrayList<DavResource>();
         try {
-            List<String> childSpaces = getContext().getChildSpaces(getReference());
-            for(String childSpace : childSpaces) {
-                PagesBySpaceNameSubView childSpaceView = new PagesBySpaceNameSubView();
-                childSpaceView.init(this, childSpace, "/" + childSpace);
-                children.add(childSpaceView);
-            }
+            childSpaces = getContext().getChildSpaces(getReference());
 
-            List<DocumentReference> docRefs = getContext().getChildPages(getReference());
+            List<XWikiDavPageMetadata> childPages = getContext().getChildPagesMetadata(getReference());
             Set<String> subViewNames = new HashSet<String>();
-            int subViewNameLength = XWikiDavUtils.getSubViewNameLength(docRefs.size());
-            for (DocumentReference docRef : docRefs) {
-                logger.debug("check for page [{}] as {}", docRef, docRef.getName() );
-                if (getContext().hasAccess("view", docRef)) {
+            int subViewNameLength = XWikiDavUtils.getSubViewNameLength(childPages.size());
+            if (subViewNameLength == 0) {
+                // The pages are only built while iterating over the members.
+                pages = childPages;
+            } else {
+                for (XWikiDavPageMetadata childPage : childPages) {
+                    DocumentReference docRef = childPage.getReference();
+                    logger.debug("check for page [{}] as {}", docRef, docRef.getName());
                     String pageName = docRef.getName();
-                    if (subViewNameLength == 0) {
-                        DavPage page = new DavPage();
-                        page.init(this, getContext().serialize(docRef), "/" + pageName);
-                        children.add(page);
+                    if (subViewNameLength < pageName.length()) {
+                        subViewNames.add(pageName.substring(0, subViewNameLength).toUpperCase());
                     } else {
-                        if (subViewNameLength < pageName.length()) {
-                            subViewNames.add(pageName.substring(0, subViewNameLength).toUpperCase());
-                        } else {
-                            // This is not good.
-                            subViewNames.add(pageName.toUpperCase());
-                        }
+                        // This is not good.
+                        subViewNames.add(pageName.toUpperCase());
                     }
                 }
             }
@@ -146,7 +189,30 @@ public class PagesBySpaceNameSubView extends AbstractDavView
             logger.error("Unexpected Error : ", ex);
         }
         children.addAll(getVirtualMembers());
-        return new DavResourceIteratorImpl(children);
+
+        DavResourceIterator pageMembers = new LazyDavResourceIterator<XWikiDavPageMetadata>(pages.iterator(),
+            new DavResourceIteratorImpl(children))
+        {
+            @Override
+            protected DavResource createMember(XWikiDavPageMetadata metadata) throws DavException
+            {
+                DocumentReference docRef = metadata.getReference();
+                logger.debug("check for page [{}] as {}", docRef, docRef.getName());
+                DavPage page = new DavPage();
+                page.init(PagesBySpaceNameSubView.this, metadata, "/" + docRef.getName());
+                return page;
+            }
+        };
+        return new LazyDavResourceIterator<String>(childSpaces.iterator(), pageMembers)
+        {
+            @Override
+            protected DavResource createMember(String childSpace) throws DavException
+            {
+                PagesBySpaceNameSubView childSpaceView = new PagesBySpaceNameSubView();
+                childSpaceView.init(PagesBySpaceNameSubView.this, childSpace, "/" + childSpace);
+                return childSpaceView;
+            }
+        };
     }
 
     @Override
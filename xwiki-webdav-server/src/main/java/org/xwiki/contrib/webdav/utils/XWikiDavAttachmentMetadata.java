@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.util.Date;
+
+/**
+ * The few columns of an attachment needed to list it as a WebDAV file, read for all the attachments of a page with a
+ * single projection query instead of loading the document and looking the attachments up one by one.
+ *
+ * @version $Id$
+ */
+public class XWikiDavAttachmentMetadata
+{
+    /**
+     * The name of the attachment.
+     */
+    private final String filename;
+
+    /**
+     * The size of the attachment content, in bytes.
+     */
+    private final long size;
+
+    /**
+     * The date of the last version of the attachment.
+     */
+    private final Date date;
+
+    /**
+     * The media type of the attachment.
+     */
+    private final String mimeType;
+
+    /**
+     * The version of the attachment.
+     */
+    private final String version;
+
+    /**
+     * @param filename the name of the attachment.
+     * @param size the size of the attachment content, in bytes.
+     * @param date the date of the last version of the attachment.
+     * @param mimeType the media type of the attachment.
+     * @param version the version of the attachment.
+     */
+    public XWikiDavAttachmentMetadata(String filename, long size, Date date, String mimeType, String version)
+    {
+        this.filename = filename;
+        this.size = size;
+        this.date = date;
+        this.mimeType = mimeType;
+        this.version = version;
+    }
+
+    /**
+     * @return the name of the attachment.
+     */
+    public String getFilename()
+    {
+        return filename;
+    }
+
+    /**
+     * @return the size of the attachment content, in bytes.
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return the date of the last version of the attachment.
+     */
+    public Date getDate()
+    {
+        return date;
+    }
+
+    /**
+     * @return the media type of the attachment.
+     */
+    public String getMimeType()
+    {
+        return mimeType;
+    }
+
+    /**
+     * @return the version of the attachment.
+     */
+    public String getVersion()
+    {
+        return version;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Remembers, for a limited time, the user behind the Basic credentials of the recent WebDAV requests. Mounted drives
+ * send hundreds of requests per minute, each one carrying the same {@code Authorization} header, and checking the
+ * password (which means hashing it) for each of them is expensive.
+ * <p>
+ * The credentials themselves are never stored: the cache is keyed by a keyed hash (HMAC) of the header, computed with
+ * a secret generated at startup. The whole cache is emptied as soon as a user profile is modified or deleted, so that
+ * a password change or a disabled account is taken into account right away.
+ *
+ * @version $Id$
+ */
+public class XWikiDavAuthenticationCache implements EventListener
+{
+    /**
+     * The name of this listener.
+     */
+    public static final String NAME = "XWikiDavAuthenticationCache";
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(XWikiDavAuthenticationCache.class);
+
+    /**
+     * Only Basic credentials are cached, the other schemes are always delegated to the authentication service.
+     */
+    private static final String BASIC_PREFIX = "Basic ";
+
+    /**
+     * The algorithm of the keyed hash.
+     */
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    /**
+     * The class of the user profiles.
+     */
+    private static final LocalDocumentReference USER_CLASS = new LocalDocumentReference("XWiki", "XWikiUsers");
+
+    /**
+     * The events invalidating the cache.
+     */
+    private static final List<Event> EVENTS = Arrays.<Event>asList(new DocumentUpdatedEvent(),
+        new DocumentDeletedEvent());
+
+    /**
+     * Verified credentials hash to user name.
+     */
+    private final Cache<String> cache;
+
+    /**
+     * The secret used to hash the credentials.
+     */
+    private final SecretKeySpec secret;
+
+    /**
+     * Creates a new credentials cache.
+     *
+     * @param cacheManager used to create the underlying cache.
+     * @param timeToLive the number of seconds during which verified credentials are trusted, 0 to disable the cache.
+     * @param size the maximum number of verified credentials kept.
+     * @throws CacheException if the underlying cache cannot be created.
+     */
+    public XWikiDavAuthenticationCache(CacheManager cacheManager, int timeToLive, int size) throws CacheException
+    {
+        if (timeToLive > 0 && size > 0) {
+            CacheConfiguration conf = new CacheConfiguration();
+            conf.setConfigurationId("webdav.authentication");
+            LRUEvictionConfiguration lec = new LRUEvictionConfiguration();
+            lec.setMaxEntries(size);
+            lec.setLifespan(timeToLive);
+            conf.put(LRUEvictionConfiguration.CONFIGURATIONID, lec);
+            this.cache = cacheManager.createNewCache(conf);
+        } else {
+            this.cache = null;
+        }
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.secret = new SecretKeySpec(key, HMAC_ALGORITHM);
+    }
+
+    /**
+     * @param authorization the value of the {@code Authorization} header of the current request, may be null.
+     * @return the user previously authenticated with these credentials, or null if they have to be verified.
+     */
+    public String get(String authorization)
+    {
+        String key = getKey(authorization);
+        return (key != null) ? this.cache.get(key) : null;
+    }
+
+    /**
+     * Remembers that the given credentials have been verified.
+     *
+     * @param authorization the value of the {@code Authorization} header of the current request, may be null.
+     * @param user the user authenticated by these credentials.
+     */
+    public void put(String authorization, String user)
+    {
+        String key = getKey(authorization);
+        if (key != null) {
+            this.cache.set(key, user);
+        }
+    }
+
+    /**
+     * @param authorization the value of the {@code Authorization} header of a request, may be null.
+     * @return true if the header holds Basic credentials, the name of the scheme being case-insensitive.
+     */
+    public static boolean isBasic(String authorization)
+    {
+        return authorization != null && authorization.regionMatches(true, 0, BASIC_PREFIX, 0, BASIC_PREFIX.length());
+    }
+
+    /**
+     * Releases the underlying cache.
+     */
+    public void dispose()
+    {
+        if (this.cache != null) {
+            this.cache.dispose();
+        }
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return EVENTS;
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (this.cache != null && source instanceof XWikiDocument) {
+            XWikiDocument document = (XWikiDocument) source;
+            if (isUserProfile(document) || isUserProfile(document.getOriginalDocument())) {
+                this.cache.removeAll();
+            }
+        }
+    }
+
+    private boolean isUserProfile(XWikiDocument document)
+    {
+        return document != null && document.getXObject(USER_CLASS) != null;
+    }
+
+    /**
+     * @param authorization the value of the {@code Authorization} header.
+     * @return the cache key for the given credentials, or null if they cannot be cached.
+     */
+    private String getKey(String authorization)
+    {
+        if (this.cache == null || !isBasic(authorization)) {
+            return null;
+        }
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(this.secret);
+            return Base64.getEncoder().encodeToString(mac.doFinal(authorization.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            LOGGER.warn("Failed to hash the credentials, they won't be cached: {}", e.getMessage());
+            return null;
+        }
+    }
+}
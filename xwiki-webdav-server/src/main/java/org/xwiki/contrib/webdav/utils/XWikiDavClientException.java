@@ -0,0 +1,53 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import org.apache.jackrabbit.webdav.DavException;
+
+/**
+ * A {@link DavException} for the expected errors caused by the client, such as the paths which don't resolve to any
+ * resource. File managers trigger them by hundreds when they probe for their metadata files, so the exception doesn't
+ * fill its stack trace, which would only tell where the path failed to resolve.
+ *
+ * @version $Id$
+ */
+public class XWikiDavClientException extends DavException
+{
+    /**
+     * Class version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new exception.
+     *
+     * @param errorCode the HTTP status of the error, in the 4xx range.
+     */
+    public XWikiDavClientException(int errorCode)
+    {
+        super(errorCode);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace()
+    {
+        return this;
+    }
+}
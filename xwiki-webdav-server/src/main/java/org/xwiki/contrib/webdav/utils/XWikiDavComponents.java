@@ -0,0 +1,577 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.io.File;
+import java.util.regex.Pattern;
+
+import org.apache.jackrabbit.webdav.lock.LockManager;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.container.Container;
+import org.xwiki.container.servlet.ServletContainerInitializer;
+import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReferenceResolver;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.query.QueryFilter;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.AuthorizationManager;
+
+/**
+ * Holds the XWiki components needed to serve WebDAV requests. The components are looked up once, when the WebDAV
+ * servlet is initialized, and then shared by all the requests instead of being resolved again for each request. The
+ * services shared by all the requests (such as the caches) are created at the same time and released by
+ * {@link #dispose()}.
+ *
+ * @version $Id$
+ */
+public class XWikiDavComponents
+{
+    /**
+     * Hint of the query filter removing hidden documents.
+     */
+    private static final String HIDDEN_DOCUMENT_FILTER = "hidden/document";
+
+    /**
+     * Hint of the query filter removing hidden spaces.
+     */
+    private static final String HIDDEN_SPACE_FILTER = "hidden/space";
+
+    /**
+     * Hint of the query filter transforming document names into document references.
+     */
+    private static final String DOCUMENT_FILTER = "document";
+
+    /**
+     * Hint of the default reference resolvers.
+     */
+    private static final String DEFAULT_HINT = "default";
+
+    /**
+     * The component manager used for the lookups.
+     */
+    private final ComponentManager componentManager;
+
+    /**
+     * The authorization manager for access checks.
+     */
+    private final AuthorizationManager authorizationManager;
+
+    /**
+     * Query manager to search through the wiki.
+     */
+    private final QueryManager queryManager;
+
+    /**
+     * Entity reference serializer generating string representations relative to the current wiki.
+     */
+    private final EntityReferenceSerializer<String> localSerializer;
+
+    /**
+     * Resolver for document references.
+     */
+    private final DocumentReferenceResolver<String> documentReferenceResolver;
+
+    /**
+     * Resolver for space references.
+     */
+    private final SpaceReferenceResolver<String> spaceReferenceResolver;
+
+    /**
+     * Query filter removing hidden documents.
+     */
+    private final QueryFilter hiddenDocumentFilter;
+
+    /**
+     * Query filter removing hidden spaces.
+     */
+    private final QueryFilter hiddenSpaceFilter;
+
+    /**
+     * Query filter transforming document names into document references.
+     */
+    private final QueryFilter documentFilter;
+
+    /**
+     * Query filter transforming the rows of a projection into page metadata.
+     */
+    private final XWikiDavPageMetadataFilter pageMetadataFilter;
+
+    /**
+     * The container, holding the current request / response / session.
+     */
+    private final Container container;
+
+    /**
+     * The execution, holding the current execution context.
+     */
+    private final Execution execution;
+
+    /**
+     * Used to initialize the container for each request.
+     */
+    private final ServletContainerInitializer containerInitializer;
+
+    /**
+     * Used to create the caches of the WebDAV module.
+     */
+    private final CacheManager cacheManager;
+
+    /**
+     * Used to listen to the wiki events invalidating the caches.
+     */
+    private final ObservationManager observationManager;
+
+    /**
+     * The configuration of the WebDAV module.
+     */
+    private final XWikiDavConfiguration configuration;
+
+    /**
+     * The cache of verified credentials.
+     */
+    private final XWikiDavAuthenticationCache authenticationCache;
+
+    /**
+     * The cache of resolved paths.
+     */
+    private final XWikiDavPathCache pathCache;
+
+    /**
+     * The cache of the paths which didn't resolve.
+     */
+    private final XWikiDavMissingPathCache missingPathCache;
+
+    /**
+     * The cache of collection listings.
+     */
+    private final XWikiDavListingCache listingCache;
+
+    /**
+     * The cache of live properties.
+     */
+    private final XWikiDavPropertyCache propertyCache;
+
+    /**
+     * The cache of serialized wiki files.
+     */
+    private final XWikiDavContentCache contentCache;
+
+    /**
+     * The session storages of the users.
+     */
+    private final XWikiDavUserStorageCache userStorageCache;
+
+    /**
+     * The store of the temporary file contents.
+     */
+    private final XWikiDavTempStore tempStore;
+
+    /**
+     * The store of the temporary resources of the WebDAV sessions.
+     */
+    private final XWikiDavTempResourceStore tempResourceStore;
+
+    /**
+     * The manager of the WebDAV locks.
+     */
+    private final XWikiDavLockManager lockManager;
+
+    /**
+     * The statistics published through JMX.
+     */
+    private final XWikiDavStatistics statistics;
+
+    /**
+     * Matches the names of the client metadata files which are not stored, null if there's none.
+     */
+    private final Pattern discardPattern;
+
+    /**
+     * Looks up all the components needed by the WebDAV module and creates the shared services. The large temporary
+     * files are stored in the default temporary directory.
+     *
+     * @param componentManager the component manager to use for the lookups.
+     * @throws ComponentLookupException if one of the components cannot be found.
+     * @throws CacheException if one of the caches cannot be created.
+     */
+    public XWikiDavComponents(ComponentManager componentManager) throws ComponentLookupException, CacheException
+    {
+        this(componentManager, null);
+    }
+
+    /**
+     * Looks up all the components needed by the WebDAV module and creates the shared services.
+     *
+     * @param componentManager the component manager to use for the lookups.
+     * @param workDirectory the directory where the large temporary files are stored, usually the work directory of the
+     *            servlet, null to use the default temporary directory.
+     * @throws ComponentLookupException if one of the components cannot be found.
+     * @throws CacheException if one of the caches cannot be created.
+     */
+    public XWikiDavComponents(ComponentManager componentManager, File workDirectory)
+        throws ComponentLookupException, CacheException
+    {
+        this.componentManager = componentManager;
+        this.authorizationManager = componentManager.getInstance(AuthorizationManager.class);
+        this.queryManager = componentManager.getInstance(QueryManager.class);
+        this.localSerializer = componentManager.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        this.documentReferenceResolver =
+            componentManager.getInstance(DocumentReferenceResolver.TYPE_STRING, DEFAULT_HINT);
+        this.spaceReferenceResolver = componentManager.getInstance(SpaceReferenceResolver.TYPE_STRING, DEFAULT_HINT);
+        this.hiddenDocumentFilter = componentManager.getInstance(QueryFilter.class, HIDDEN_DOCUMENT_FILTER);
+        this.hiddenSpaceFilter = componentManager.getInstance(QueryFilter.class, HIDDEN_SPACE_FILTER);
+        this.documentFilter = componentManager.getInstance(QueryFilter.class, DOCUMENT_FILTER);
+        this.pageMetadataFilter = new XWikiDavPageMetadataFilter(this.documentReferenceResolver);
+        this.container = componentManager.getInstance(Container.class);
+        this.execution = componentManager.getInstance(Execution.class);
+        this.containerInitializer = componentManager.getInstance(ServletContainerInitializer.class);
+        this.cacheManager = componentManager.getInstance(CacheManager.class, DEFAULT_HINT);
+        this.observationManager = componentManager.getInstance(ObservationManager.class);
+        this.configuration =
+            new XWikiDavConfiguration(componentManager.getInstance(ConfigurationSource.class, "xwikiproperties"));
+
+        this.authenticationCache = new XWikiDavAuthenticationCache(this.cacheManager,
+            this.configuration.getAuthenticationCacheTimeToLive(), this.configuration.getAuthenticationCacheSize());
+        this.observationManager.addListener(this.authenticationCache);
+        this.pathCache = new XWikiDavPathCache(this.cacheManager, this.configuration.getPathCacheSize());
+        this.observationManager.addListener(this.pathCache);
+        this.missingPathCache = new XWikiDavMissingPathCache(this.cacheManager,
+            this.configuration.getMissingPathCacheTimeToLive(), this.configuration.getMissingPathCacheSize());
+        this.observationManager.addListener(this.missingPathCache);
+        this.listingCache = new XWikiDavListingCache(this.cacheManager, this.configuration.getListingCacheSize(),
+            this.configuration.getListingCacheTimeToLive());
+        this.observationManager.addListener(this.listingCache);
+        this.propertyCache = new XWikiDavPropertyCache(this.cacheManager, this.configuration.getPropertyCacheSize());
+        this.contentCache = new XWikiDavContentCache(this.configuration.getContentCacheSize());
+        this.userStorageCache = new XWikiDavUserStorageCache(this.cacheManager, this.configuration);
+        this.tempStore = new XWikiDavTempStore(workDirectory, this.configuration.getTempFileMemoryThreshold(),
+            this.configuration.getTempFileMemoryBudget(), this.configuration.getTempFileUserQuota());
+        this.tempResourceStore = createTempResourceStore(workDirectory);
+        this.lockManager = createLockManager(workDirectory);
+        this.discardPattern = compileDiscardPattern(this.configuration.getDiscardPatterns());
+        this.statistics = new XWikiDavStatistics(this.tempStore, this.lockManager, this.userStorageCache);
+        this.statistics.register();
+    }
+
+    /**
+     * @param workDirectory the work directory of the servlet, null to use the default temporary directory.
+     * @return the store of the temporary resources selected by the configuration.
+     */
+    private XWikiDavTempResourceStore createTempResourceStore(File workDirectory)
+    {
+        if ("directory".equals(this.configuration.getTempStore())) {
+            String path = this.configuration.getTempStoreDirectory();
+            File directory;
+            if (!path.isEmpty()) {
+                directory = new File(path);
+            } else {
+                File parent = (workDirectory != null) ? workDirectory : new File(System.getProperty("java.io.tmpdir"));
+                directory = new File(parent, "webdav");
+            }
+            return new XWikiDavDirectoryTempResourceStore(directory, this.configuration.getTempStoreTimeToLive(),
+                this.configuration.getTempFileUserQuota());
+        }
+        return new XWikiDavMemoryTempResourceStore(this.userStorageCache, this.tempStore);
+    }
+
+    /**
+     * @param workDirectory the work directory of the servlet, null to use the default temporary directory.
+     * @return the lock manager selected by the configuration.
+     */
+    private XWikiDavLockManager createLockManager(File workDirectory)
+    {
+        if ("directory".equals(this.configuration.getLockManager())) {
+            String path = this.configuration.getLockDirectory();
+            File directory;
+            if (!path.isEmpty()) {
+                directory = new File(path);
+            } else {
+                File parent = (workDirectory != null) ? workDirectory : new File(System.getProperty("java.io.tmpdir"));
+                directory = new File(parent, "webdav-locks");
+            }
+            return new XWikiDavDirectoryLockManager(directory, this.configuration.getLockMaxTimeout(),
+                this.configuration.getLockSweepInterval(), this.configuration.getLockCacheTimeToLive());
+        }
+        return new XWikiDavMemoryLockManager(this.configuration.getLockMaxTimeout(),
+            this.configuration.getLockSweepInterval());
+    }
+
+    /**
+     * @param patterns the comma separated list of file names, which may contain {@code *} wildcards.
+     * @return the pattern matching the given names, case insensitively, null if the list is empty.
+     */
+    private static Pattern compileDiscardPattern(String patterns)
+    {
+        StringBuilder regex = new StringBuilder();
+        for (String pattern : patterns.split(",")) {
+            String name = pattern.trim();
+            if (!name.isEmpty()) {
+                if (regex.length() > 0) {
+                    regex.append('|');
+                }
+                regex.append(Pattern.quote(name).replace("*", "\\E.*\\Q"));
+            }
+        }
+        return (regex.length() > 0) ? Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE) : null;
+    }
+
+    /**
+     * Unregisters the listeners and the statistics, and releases the caches created by this instance.
+     */
+    public void dispose()
+    {
+        this.statistics.unregister();
+        this.observationManager.removeListener(this.authenticationCache.getName());
+        this.authenticationCache.dispose();
+        this.observationManager.removeListener(this.pathCache.getName());
+        this.pathCache.dispose();
+        this.observationManager.removeListener(this.missingPathCache.getName());
+        this.missingPathCache.dispose();
+        this.observationManager.removeListener(this.listingCache.getName());
+        this.listingCache.dispose();
+        this.propertyCache.dispose();
+        this.tempResourceStore.dispose();
+        this.userStorageCache.dispose();
+        this.lockManager.dispose();
+    }
+
+    /**
+     * @return the component manager used for the lookups.
+     */
+    public ComponentManager getComponentManager()
+    {
+        return componentManager;
+    }
+
+    /**
+     * @return the authorization manager.
+     */
+    public AuthorizationManager getAuthorizationManager()
+    {
+        return authorizationManager;
+    }
+
+    /**
+     * @return the query manager.
+     */
+    public QueryManager getQueryManager()
+    {
+        return queryManager;
+    }
+
+    /**
+     * @return the entity reference serializer generating string representations relative to the current wiki.
+     */
+    public EntityReferenceSerializer<String> getLocalSerializer()
+    {
+        return localSerializer;
+    }
+
+    /**
+     * @return the default resolver for document references.
+     */
+    public DocumentReferenceResolver<String> getDocumentReferenceResolver()
+    {
+        return documentReferenceResolver;
+    }
+
+    /**
+     * @return the default resolver for space references.
+     */
+    public SpaceReferenceResolver<String> getSpaceReferenceResolver()
+    {
+        return spaceReferenceResolver;
+    }
+
+    /**
+     * @return the query filter removing hidden documents.
+     */
+    public QueryFilter getHiddenDocumentFilter()
+    {
+        return hiddenDocumentFilter;
+    }
+
+    /**
+     * @return the query filter removing hidden spaces.
+     */
+    public QueryFilter getHiddenSpaceFilter()
+    {
+        return hiddenSpaceFilter;
+    }
+
+    /**
+     * @return the query filter transforming document names into document references.
+     */
+    public QueryFilter getDocumentFilter()
+    {
+        return documentFilter;
+    }
+
+    /**
+     * @return the query filter transforming the rows of a projection into page metadata.
+     */
+    public XWikiDavPageMetadataFilter getPageMetadataFilter()
+    {
+        return pageMetadataFilter;
+    }
+
+    /**
+     * @return the container.
+     */
+    public Container getContainer()
+    {
+        return container;
+    }
+
+    /**
+     * @return the execution.
+     */
+    public Execution getExecution()
+    {
+        return execution;
+    }
+
+    /**
+     * @return the servlet container initializer.
+     */
+    public ServletContainerInitializer getContainerInitializer()
+    {
+        return containerInitializer;
+    }
+
+    /**
+     * @return the cache manager.
+     */
+    public CacheManager getCacheManager()
+    {
+        return cacheManager;
+    }
+
+    /**
+     * @return the observation manager.
+     */
+    public ObservationManager getObservationManager()
+    {
+        return observationManager;
+    }
+
+    /**
+     * @return the configuration of the WebDAV module.
+     */
+    public XWikiDavConfiguration getConfiguration()
+    {
+        return configuration;
+    }
+
+    /**
+     * @return the cache of verified credentials.
+     */
+    public XWikiDavAuthenticationCache getAuthenticationCache()
+    {
+        return authenticationCache;
+    }
+
+    /**
+     * @return the cache of resolved paths.
+     */
+    public XWikiDavPathCache getPathCache()
+    {
+        return pathCache;
+    }
+
+    /**
+     * @return the cache of the paths which didn't resolve.
+     */
+    public XWikiDavMissingPathCache getMissingPathCache()
+    {
+        return missingPathCache;
+    }
+
+    /**
+     * @return the cache of collection listings.
+     */
+    public XWikiDavListingCache getListingCache()
+    {
+        return listingCache;
+    }
+
+    /**
+     * @return the cache of live properties.
+     */
+    public XWikiDavPropertyCache getPropertyCache()
+    {
+        return propertyCache;
+    }
+
+    /**
+     * @return the cache of serialized wiki files.
+     */
+    public XWikiDavContentCache getContentCache()
+    {
+        return contentCache;
+    }
+
+    /**
+     * @return the manager of the WebDAV locks, shared by all the requests.
+     */
+    public LockManager getLockManager()
+    {
+        return lockManager;
+    }
+
+    /**
+     * @return the session storages of the users.
+     */
+    public XWikiDavUserStorageCache getUserStorageCache()
+    {
+        return userStorageCache;
+    }
+
+    /**
+     * @return the store of the temporary file contents.
+     */
+    public XWikiDavTempStore getTempStore()
+    {
+        return tempStore;
+    }
+
+    /**
+     * @return the store of the temporary resources of the WebDAV sessions.
+     */
+    public XWikiDavTempResourceStore getTempResourceStore()
+    {
+        return tempResourceStore;
+    }
+
+    /**
+     * @param name the name of a file.
+     * @return true if the file is a client metadata file which is acknowledged but not stored.
+     */
+    public boolean isDiscarded(String name)
+    {
+        return discardPattern != null && discardPattern.matcher(name).matches();
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import org.xwiki.configuration.ConfigurationSource;
+
+/**
+ * Gives access to the configuration of the WebDAV module. All the properties are read from {@code xwiki.properties}
+ * and are prefixed with {@code webdav.}.
+ *
+ * @version $Id$
+ */
+public class XWikiDavConfiguration
+{
+    /**
+     * Prefix of all the WebDAV configuration properties.
+     */
+    private static final String PREFIX = "webdav.";
+
+    /**
+     * The source of the configuration.
+     */
+    private final ConfigurationSource source;
+
+    /**
+     * Creates a new configuration reading its values from the given source.
+     *
+     * @param source the configuration source, usually the one backed by {@code xwiki.properties}.
+     */
+    public XWikiDavConfiguration(ConfigurationSource source)
+    {
+        this.source = source;
+    }
+
+    /**
+     * @return the number of seconds during which verified credentials are trusted without checking the password
+     *         again, 0 to disable the credentials cache.
+     */
+    public int getAuthenticationCacheTimeToLive()
+    {
+        return getProperty("authenticationCache.timeToLive", 60);
+    }
+
+    /**
+     * @return the maximum number of verified credentials kept in the credentials cache.
+     */
+    public int getAuthenticationCacheSize()
+    {
+        return getProperty("authenticationCache.size", 1000);
+    }
+
+    /**
+     * @return the maximum number of resolved paths remembered across requests, 0 to disable the path cache.
+     */
+    public int getPathCacheSize()
+    {
+        return getProperty("pathCache.size", 10000);
+    }
+
+    /**
+     * @return the number of seconds during which a path which didn't resolve to any resource is answered as missing
+     *         without querying the wiki again, 0 to disable the missing path cache.
+     */
+    public int getMissingPathCacheTimeToLive()
+    {
+        return getProperty("missingPathCache.timeToLive", 10);
+    }
+
+    /**
+     * @return the maximum number of missing paths remembered across requests.
+     */
+    public int getMissingPathCacheSize()
+    {
+        return getProperty("missingPathCache.size", 10000);
+    }
+
+    /**
+     * @return the maximum number of live property sets (dates, content type, length...) of pages, attachments and wiki
+     *         files remembered across requests, 0 to disable the property cache.
+     */
+    public int getPropertyCacheSize()
+    {
+        return getProperty("propertyCache.size", 10000);
+    }
+
+    /**
+     * @return the maximum number of bytes of serialized wiki files ({@code wiki.txt} and {@code wiki.xml}) remembered
+     *         across requests, 0 to disable the content cache.
+     */
+    public long getContentCacheSize()
+    {
+        return getProperty("contentCache.size", 16L * 1024 * 1024);
+    }
+
+    /**
+     * @return the maximum number of collection listings remembered across requests, 0 to disable the listing cache.
+     */
+    public int getListingCacheSize()
+    {
+        return getProperty("listingCache.size", 1000);
+    }
+
+    /**
+     * @return the number of seconds after which a listing is queried again even if no event invalidated it (e.g. after
+     *         a modification made directly in the database), 0 to keep the listings until they are invalidated.
+     */
+    public int getListingCacheTimeToLive()
+    {
+        return getProperty("listingCache.timeToLive", 600);
+    }
+
+    /**
+     * @return the maximum number of users whose session storage (virtual members and properties) is kept.
+     */
+    public int getUserStorageSize()
+    {
+        return getProperty("userStorage.size", 1000);
+    }
+
+    /**
+     * @return the number of seconds after which the session storage of an inactive user is discarded.
+     */
+    public int getUserStorageMaxIdle()
+    {
+        return getProperty("userStorage.maxIdle", 300);
+    }
+
+    /**
+     * @return the maximum number of resources whose virtual members, and of resources whose virtual properties, are
+     *         kept for a single user.
+     */
+    public int getUserStorageMaxEntriesPerUser()
+    {
+        return getProperty("userStorage.maxEntriesPerUser", 1000);
+    }
+
+    /**
+     * @return the maximum number of entries kept in the session storages of all the users together.
+     */
+    public int getUserStorageMaxEntries()
+    {
+        return getProperty("userStorage.maxEntries", 100000);
+    }
+
+    /**
+     * @return the maximum size, in bytes, of the temporary files (lock files, backups...) kept in memory; the larger
+     *         ones are stored in the work directory of the servlet.
+     */
+    public int getTempFileMemoryThreshold()
+    {
+        return getProperty("tempFiles.memoryThreshold", 64 * 1024);
+    }
+
+    /**
+     * @return the maximum number of bytes of temporary files kept in memory by all the users together, 0 for no limit;
+     *         the least valuable files are evicted when it is exceeded.
+     */
+    public long getTempFileMemoryBudget()
+    {
+        return getProperty("tempFiles.memoryBudget", 32L * 1024 * 1024);
+    }
+
+    /**
+     * @return the maximum number of bytes of temporary files stored for each user, 0 for no limit; the uploads
+     *         exceeding it are rejected.
+     */
+    public long getTempFileUserQuota()
+    {
+        return getProperty("tempFiles.userQuota", 256L * 1024 * 1024);
+    }
+
+    /**
+     * @return where the temporary resources of the WebDAV sessions are stored: {@code memory} to keep them in the
+     *         memory of the node, {@code directory} to keep them in {@link #getTempStoreDirectory() a directory}
+     *         which may be shared by the nodes of a cluster.
+     */
+    public String getTempStore()
+    {
+        return getProperty("tempStore", "memory");
+    }
+
+    /**
+     * @return the path of the directory holding the temporary resources when they are stored in a directory, empty to
+     *         use a sub-directory of the work directory of the servlet.
+     */
+    public String getTempStoreDirectory()
+    {
+        return getProperty("tempStore.directory", "");
+    }
+
+    /**
+     * @return the number of seconds after which the temporary resources of an inactive user are deleted from the
+     *         directory store.
+     */
+    public long getTempStoreTimeToLive()
+    {
+        return getProperty("tempStore.timeToLive", 3600L);
+    }
+
+    /**
+     * @return where the WebDAV locks are kept: {@code memory} to keep them in the memory of the node, {@code directory}
+     *         to store them in a directory, which may be shared by all the nodes of a cluster (it must then support
+     *         file locks, e.g. NFSv4), and survive a restart.
+     */
+    public String getLockManager()
+    {
+        return getProperty("lockManager", "memory");
+    }
+
+    /**
+     * @return the maximum number of seconds a lock lasts without being refreshed by its client, also used for the locks
+     *         requested with an infinite timeout.
+     */
+    public long getLockMaxTimeout()
+    {
+        return getProperty("lockManager.maxTimeout", 3600L);
+    }
+
+    /**
+     * @return the number of seconds between two removals of the expired locks.
+     */
+    public long getLockSweepInterval()
+    {
+        return getProperty("lockManager.sweepInterval", 60L);
+    }
+
+    /**
+     * @return the directory where the locks are stored when the {@code directory} lock manager is selected, empty to
+     *         use a {@code webdav-locks} sub-directory of the work directory of the servlet.
+     */
+    public String getLockDirectory()
+    {
+        return getProperty("lockManager.directory", "");
+    }
+
+    /**
+     * @return the number of seconds during which the {@code directory} lock manager answers the lock lookups of the
+     *         read-only requests from the locks it has read, rather than from the directory; a lock taken by another
+     *         node may be missed during this time. 0 to always read the directory.
+     */
+    public long getLockCacheTimeToLive()
+    {
+        return getProperty("lockManager.cacheTimeToLive", 2L);
+    }
+
+    /**
+     * @return the minimum number of seconds between two log messages about the errors caused by the clients (missing
+     *         or locked resources...), 0 to log all of them.
+     */
+    public long getClientErrorLogInterval()
+    {
+        return getProperty("clientErrorLog.interval", 60L);
+    }
+
+    /**
+     * @return the comma separated list of the names of the client metadata files (such as {@code .DS_Store}) which are
+     *         acknowledged but not stored: writing them succeeds and they are then listed with an empty content. The
+     *         names are case insensitive and may contain {@code *} wildcards. An empty list disables the discard mode.
+     */
+    public String getDiscardPatterns()
+    {
+        return getProperty("discardPatterns", ".DS_Store,._*,Thumbs.db,desktop.ini");
+    }
+
+    /**
+     * @return true if the XWiki context of the requests that don't modify the wiki should be bootstrapped with only
+     *         what the WebDAV operations need (user, wiki, request / response and execution context), false to always
+     *         initialize it like for a regular page view.
+     */
+    public boolean isLeanBootstrap()
+    {
+        return !"full".equals(getProperty("bootstrap", "lean"));
+    }
+
+    /**
+     * @param key the name of the property, without the {@code webdav.} prefix.
+     * @param defaultValue the value to return when the property is not set.
+     * @param <T> the type of the property.
+     * @return the value of the property.
+     */
+    protected <T> T getProperty(String key, T defaultValue)
+    {
+        return this.source.getProperty(PREFIX + key, defaultValue);
+    }
+}
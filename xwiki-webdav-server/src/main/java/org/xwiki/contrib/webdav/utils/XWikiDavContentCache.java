@@ -0,0 +1,116 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Remembers the serialized content of the wiki files of the pages ({@code wiki.txt} and {@code wiki.xml}), encoded in
+ * UTF-8. Serializing a document to XML is expensive, and mounted drives read the length of the wiki files each time
+ * they list a page.
+ * <p>
+ * Like the {@link XWikiDavPropertyCache property cache}, the entries are keyed by the version and creation date of the
+ * document and never need to be invalidated. The cache is bounded by the total number of bytes it holds rather than by
+ * a number of entries, since the size of the documents varies widely: the least recently used contents are dropped
+ * when the bound is exceeded, and the contents larger than the whole bound are not kept at all.
+ *
+ * @version $Id$
+ */
+public class XWikiDavContentCache
+{
+    /**
+     * The contents, by document and version, from the least to the most recently used.
+     */
+    private final Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+    /**
+     * The maximum number of bytes held, 0 to disable the cache.
+     */
+    private final long maxWeight;
+
+    /**
+     * The number of bytes held.
+     */
+    private long weight;
+
+    /**
+     * Creates a new content cache.
+     *
+     * @param maxWeight the maximum number of bytes held, 0 to disable the cache.
+     */
+    public XWikiDavContentCache(long maxWeight)
+    {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * @param fileName the name of the wiki file.
+     * @param reference the reference of the document.
+     * @param version the version of the document.
+     * @param creationDate the creation date of the document.
+     * @return the key of the content of the given wiki file.
+     */
+    public String getKey(String fileName, DocumentReference reference, String version, Date creationDate)
+    {
+        return fileName + ':' + reference + '@' + version + '/' + ((creationDate != null) ? creationDate.getTime() : 0);
+    }
+
+    /**
+     * @param key the key of the content, see {@link #getKey(String, DocumentReference, String, Date)}.
+     * @return the content, which must not be modified, or null if it has to be serialized.
+     */
+    public synchronized byte[] get(String key)
+    {
+        return this.contents.get(key);
+    }
+
+    /**
+     * Remembers the content of a wiki file, dropping the least recently used ones if needed.
+     *
+     * @param key the key of the content, see {@link #getKey(String, DocumentReference, String, Date)}.
+     * @param content the content, which must not be modified afterwards.
+     */
+    public synchronized void put(String key, byte[] content)
+    {
+        if (content.length > this.maxWeight) {
+            return;
+        }
+        byte[] previous = this.contents.put(key, content);
+        this.weight += content.length - ((previous != null) ? previous.length : 0);
+        Iterator<byte[]> eldest = this.contents.values().iterator();
+        while (this.weight > this.maxWeight && eldest.hasNext()) {
+            this.weight -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return the number of bytes held.
+     */
+    public synchronized long getWeight()
+    {
+        return this.weight;
+    }
+}
@@ -22,9 +22,20 @@ package org.xwiki.contrib.webdav.utils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.servlet.ServletContext;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpSession;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.webdav.DavException;
@@ -36,25 +47,20 @@ import org.apache.jackrabbit.webdav.DavSession;
 import org.apache.jackrabbit.webdav.lock.LockManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
-import org.xwiki.cache.CacheManager;
-import org.xwiki.cache.config.CacheConfiguration;
-import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.container.servlet.ServletContainerException;
 import org.xwiki.container.servlet.ServletContainerInitializer;
+import org.xwiki.contrib.webdav.resources.XWikiDavResource;
+import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
-import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.model.reference.SpaceReference;
-import org.xwiki.model.reference.SpaceReferenceResolver;
 import org.xwiki.model.reference.WikiReference;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryFilter;
 import org.xwiki.query.QueryManager;
 import org.xwiki.security.authorization.AuthorizationManager;
 import org.xwiki.security.authorization.Right;
@@ -89,9 +95,29 @@ public class XWikiDavContext
     private static final Logger LOGGER = LoggerFactory.getLogger(XWikiDavContext.class);
 
     /**
-     * Global per-user based storage.
+     * Name of the guest user.
      */
-    private static Cache<XWikiDavUserStorage> davCache;
+    private static final String GUEST_USER = "XWiki.XWikiGuest";
+
+    /**
+     * Name of the header holding the credentials.
+     */
+    private static final String AUTHORIZATION_HEADER = "Authorization";
+
+    /**
+     * The session attribute holding the principal of the user authenticated in the session.
+     */
+    private static final String SESSION_PRINCIPAL = "org.securityfilter.filter.SecurityRequestWrapper.PRINCIPAL";
+
+    /**
+     * The cookie holding the user authenticated by a persistent login.
+     */
+    private static final String LOGIN_COOKIE = "username";
+
+    /**
+     * The components used by the contexts created without providing them.
+     */
+    private static XWikiDavComponents defaultComponents;
 
     /**
      * Dav request.
@@ -103,6 +129,11 @@ public class XWikiDavContext
      */
     private XWikiContext xwikiContext;
 
+    /**
+     * The components shared by all the webdav requests.
+     */
+    private XWikiDavComponents components;
+
     /**
      * look up components at runtime
      */
@@ -124,6 +155,43 @@ public class XWikiDavContext
      */
     private EntityReferenceSerializer<String> toStringSerializer;
 
+    /**
+     * The access rights evaluated during this request.
+     */
+    private final Map<Right, Map<EntityReference, Boolean>> accessCache =
+        new HashMap<Right, Map<EntityReference, Boolean>>();
+
+    /**
+     * The existence of the documents checked during this request.
+     */
+    private final Map<DocumentReference, Boolean> documentExistsMemo = new HashMap<DocumentReference, Boolean>();
+
+    /**
+     * The existence of the spaces checked during this request.
+     */
+    private final Map<SpaceReference, Boolean> spaceExistsMemo = new HashMap<SpaceReference, Boolean>();
+
+    /**
+     * The documents loaded during this request.
+     */
+    private final Map<DocumentReference, XWikiDocument> documentMemo = new HashMap<DocumentReference, XWikiDocument>();
+
+    /**
+     * The resources resolved during this request, by resource path.
+     */
+    private final Map<String, XWikiDavResource> resourceMemo = new HashMap<String, XWikiDavResource>();
+
+    /**
+     * The generation of the path cache when the existence of the entities started to be remembered during this
+     * request, so that what an existence check remembered before a document is created or deleted isn't stored.
+     */
+    private long pathCacheGeneration;
+
+    /**
+     * Whether the current user displays the hidden documents, null until it is needed.
+     */
+    private Boolean showHidden;
+
     /**
      * DAV resource factory.
      */
@@ -156,14 +224,47 @@ public class XWikiDavContext
      *            lock manager.
      * @throws DavException
      *             if an error occurs while initializing the xwiki context.
+     * @deprecated use {@link #XWikiDavContext(DavServletRequest, DavServletResponse, ServletContext,
+     *             DavResourceFactory, DavSession, LockManager, XWikiDavComponents)} instead, which does not look up
+     *             the components again for each request.
      */
+    @Deprecated
     public XWikiDavContext(DavServletRequest request, DavServletResponse response, ServletContext servletContext,
         DavResourceFactory resourceFactory, DavSession davSession, LockManager lockManager) throws DavException
+    {
+        this(request, response, servletContext, resourceFactory, davSession, lockManager, lookupComponents());
+    }
+
+    /**
+     * Creates a new xwiki webdav context.
+     * 
+     * @param request
+     *            dav request.
+     * @param response
+     *            dav response.
+     * @param servletContext
+     *            servlet context.
+     * @param resourceFactory
+     *            dav resource factory.
+     * @param davSession
+     *            dav session.
+     * @param lockManager
+     *            lock manager.
+     * @param components
+     *            the components shared by all the webdav requests.
+     * @throws DavException
+     *             if an error occurs while initializing the xwiki context.
+     */
+    public XWikiDavContext(DavServletRequest request, DavServletResponse response, ServletContext servletContext,
+        DavResourceFactory resourceFactory, DavSession davSession, LockManager lockManager,
+        XWikiDavComponents components) throws DavException
     {
         this.request = request;
+        this.components = components;
         this.resourceFactory = resourceFactory;
         this.davSession = davSession;
         this.lockManager = lockManager;
+        this.pathCacheGeneration = components.getPathCache().getGeneration();
         // Initialize XWikiContext.
         try {
             XWikiEngineContext xwikiEngine = new XWikiServletContext(servletContext);
@@ -175,62 +276,124 @@ public class XWikiDavContext
             // FIXME: what if called from subwiki?
             xwikiContext.setWikiId("xwiki");
 
-            ServletContainerInitializer containerInitializer = Utils.getComponent(ServletContainerInitializer.class);
+            ServletContainerInitializer containerInitializer = components.getContainerInitializer();
             containerInitializer.initializeRequest(xwikiContext.getRequest().getHttpServletRequest(), xwikiContext);
             containerInitializer.initializeResponse(xwikiContext.getResponse());
             containerInitializer.initializeSession(xwikiContext.getRequest().getHttpServletRequest());
             containerInitializer.initializeApplicationContext(servletContext);
 
-            componentManager = Utils.getComponentManager();
+            componentManager = components.getComponentManager();
 
-            authManager = componentManager.getInstance(AuthorizationManager.class);
-            queryManager = componentManager.getInstance(QueryManager.class);
+            authManager = components.getAuthorizationManager();
+            queryManager = components.getQueryManager();
 
-            toStringSerializer = componentManager.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+            toStringSerializer = components.getLocalSerializer();
 
-            XWiki xwiki = XWiki.getXWiki(xwikiContext);
-            XWikiURLFactory urlf = xwiki.getURLFactoryService().createURLFactory(xwikiContext.getMode(), xwikiContext);
-            xwikiContext.setURLFactory(urlf);
-            xwiki.prepareResources(xwikiContext);
-
-            String username = "XWiki.XWikiGuest";
-            XWikiUser user = xwikiContext.getWiki().checkAuth(xwikiContext);
-            if (user != null) {
-                username = user.getUser();
+            XWiki.getXWiki(xwikiContext);
+            // The requests which don't modify the wiki only need the user, the wiki, the request / response and the
+            // execution context. The rest is what a page view needs and is set up only when it could be used.
+            boolean lean = components.getConfiguration().isLeanBootstrap() && isReadOnlyRequest();
+            if (!lean) {
+                initializeURLFactory();
+                xwikiContext.getWiki().prepareResources(xwikiContext);
             }
-            xwikiContext.setUser(username);
 
-            if (xwikiContext.getDoc() == null) {
+            xwikiContext.setUser(authenticate());
+
+            if (!lean && xwikiContext.getDoc() == null) {
                 xwikiContext.setDoc(new XWikiDocument("Fake", "Document"));
             }
             xwikiContext.put("ajax", Boolean.TRUE);
-        } catch (XWikiException | ServletContainerException | ComponentLookupException ex) {
+        } catch (XWikiException | ServletContainerException ex) {
             throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ex);
         }
-        // Initialize the cache.
-        if (null == davCache) {
-            initCache();
+    }
+
+    /**
+     * Finds the user making the current request, through the authentication service of the wiki. When the request is
+     * only authenticated by its Basic credentials, the user is remembered for a while so that the password is verified
+     * once rather than on each request of the client. The users who may be authenticated otherwise (session, cookie...)
+     * are never cached, since the {@code Authorization} header doesn't prove who they are.
+     * 
+     * @return the name of the authenticated user, {@code XWiki.XWikiGuest} if the request is not authenticated.
+     * @throws XWikiException
+     *             if an error occurs while verifying the credentials.
+     */
+    private String authenticate() throws XWikiException
+    {
+        XWikiDavAuthenticationCache authenticationCache = components.getAuthenticationCache();
+        String authorization = request.getHeader(AUTHORIZATION_HEADER);
+        boolean cacheable = XWikiDavAuthenticationCache.isBasic(authorization) && !hasLoginState();
+        if (cacheable) {
+            String username = authenticationCache.get(authorization);
+            if (username != null) {
+                return username;
+            }
+        }
+        // The authenticators may need to compute URLs (e.g. for redirects).
+        initializeURLFactory();
+        XWikiUser user = xwikiContext.getWiki().checkAuth(xwikiContext);
+        if (user == null) {
+            return GUEST_USER;
         }
+        if (cacheable) {
+            authenticationCache.put(authorization, user.getUser());
+        }
+        return user.getUser();
     }
 
     /**
-     * Initializes global webdav cache.
+     * @return true if the current request may be authenticated by something else than its {@code Authorization} header:
+     *         a container principal, a principal saved in the session or a persistent login cookie.
+     */
+    private boolean hasLoginState()
+    {
+        if (request.getUserPrincipal() != null) {
+            return true;
+        }
+        HttpSession session = request.getSession(false);
+        if (session != null && session.getAttribute(SESSION_PRINCIPAL) != null) {
+            return true;
+        }
+        Cookie[] cookies = request.getCookies();
+        for (Cookie cookie : (cookies != null) ? cookies : new Cookie[0]) {
+            if (LOGIN_COOKIE.equals(cookie.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets up the URL factory of the XWiki context, if not already done.
+     */
+    private void initializeURLFactory()
+    {
+        if (xwikiContext.getURLFactory() == null) {
+            XWikiURLFactory urlf = xwikiContext.getWiki().getURLFactoryService()
+                .createURLFactory(xwikiContext.getMode(), xwikiContext);
+            xwikiContext.setURLFactory(urlf);
+        }
+    }
+
+    /**
+     * Looks up the components needed by the webdav requests, for callers not providing them. They are looked up only
+     * once and then shared.
      * 
+     * @return the components needed by the webdav requests.
      * @throws DavException
-     *             if an error occurs while initializing the cache.
+     *             if one of the components cannot be found.
      */
-    private static void initCache() throws DavException
+    private static synchronized XWikiDavComponents lookupComponents() throws DavException
     {
-        try {
-            CacheManager cacheManager = Utils.getComponent(CacheManager.class, "default");
-            CacheConfiguration conf = new CacheConfiguration();
-            LRUEvictionConfiguration lec = new LRUEvictionConfiguration();
-            lec.setMaxIdle(300);
-            conf.put(LRUEvictionConfiguration.CONFIGURATIONID, lec);
-            davCache = cacheManager.createNewCache(conf);
-        } catch (CacheException ex) {
-            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ex);
+        if (defaultComponents == null) {
+            try {
+                defaultComponents = new XWikiDavComponents(Utils.getComponentManager());
+            } catch (ComponentLookupException | CacheException ex) {
+                throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ex);
+            }
         }
+        return defaultComponents;
     }
 
     /**
@@ -240,11 +403,7 @@ public class XWikiDavContext
      */
     public XWikiDavUserStorage getUserStorage()
     {
-        String user = xwikiContext.getUser();
-        if (null == davCache.get(user)) {
-            davCache.set(user, new XWikiDavUserStorage());
-        }
-        return davCache.get(user);
+        return components.getUserStorageCache().get(xwikiContext.getUser());
     }
 
     /**
@@ -290,12 +449,101 @@ public class XWikiDavContext
         if (right.equals("overwrite") && (reference instanceof DocumentReference)) {
             String overwriteAccess = documentExists((DocumentReference) reference) ? "delete" : "edit";
             hasAccess = hasAccess(overwriteAccess, reference);
-        } else if (authManager.hasAccess(Right.toRight(right), xwikiContext.getUserReference(), reference)) {
+        } else if (hasAccess(Right.toRight(right), reference)) {
             hasAccess = true;
         }
         return hasAccess;
     }
 
+    /**
+     * Returns the entities, among the given ones, on which the current user has the given access level. The entities
+     * are evaluated space by space: when the user is an administrator of a space, all its entities are accepted with a
+     * single check. The results are remembered until the end of the request.
+     * 
+     * @param right
+     *            Access level, "overwrite" is not supported.
+     * @param references
+     *            references to the entities
+     * @param <T>
+     *            the type of the references
+     * @return the references to the entities the user has the given access level on, in the original order.
+     */
+    public <T extends EntityReference> List<T> filterAccessible(String right, Collection<T> references)
+    {
+        Right accessRight = Right.toRight(right);
+        Map<EntityReference, List<T>> referencesBySpace = new LinkedHashMap<EntityReference, List<T>>();
+        for (T reference : references) {
+            EntityReference space = reference.extractReference(EntityType.SPACE);
+            List<T> spaceReferences = referencesBySpace.get(space);
+            if (spaceReferences == null) {
+                spaceReferences = new ArrayList<T>();
+                referencesBySpace.put(space, spaceReferences);
+            }
+            spaceReferences.add(reference);
+        }
+
+        Set<T> accessible = new HashSet<T>();
+        for (Map.Entry<EntityReference, List<T>> entry : referencesBySpace.entrySet()) {
+            if (entry.getKey() != null && entry.getValue().size() > 1 && hasAccess(Right.ADMIN, entry.getKey())) {
+                // Administration rights cannot be denied on the entities of the space and imply all the others.
+                accessible.addAll(entry.getValue());
+            } else {
+                for (T reference : entry.getValue()) {
+                    if (hasAccess(accessRight, reference)) {
+                        accessible.add(reference);
+                    }
+                }
+            }
+        }
+
+        List<T> result = new ArrayList<T>(accessible.size());
+        for (T reference : references) {
+            if (accessible.contains(reference)) {
+                result.add(reference);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the pages, among the given ones, the current user can view. See
+     * {@link #filterAccessible(String, Collection)}.
+     * 
+     * @param pages
+     *            the metadata of the pages
+     * @return the metadata of the pages the user can view, in the original order.
+     */
+    public List<XWikiDavPageMetadata> filterViewable(List<XWikiDavPageMetadata> pages)
+    {
+        List<DocumentReference> references = new ArrayList<DocumentReference>(pages.size());
+        for (XWikiDavPageMetadata page : pages) {
+            references.add(page.getReference());
+        }
+        Set<DocumentReference> viewable = new HashSet<DocumentReference>(filterAccessible("view", references));
+        List<XWikiDavPageMetadata> result = new ArrayList<XWikiDavPageMetadata>(viewable.size());
+        for (XWikiDavPageMetadata page : pages) {
+            if (viewable.contains(page.getReference())) {
+                result.add(page);
+            }
+        }
+        return result;
+    }
+
+    private boolean hasAccess(Right right, EntityReference reference)
+    {
+        Map<EntityReference, Boolean> rightAccess = this.accessCache.get(right);
+        if (rightAccess == null) {
+            rightAccess = new HashMap<EntityReference, Boolean>();
+            this.accessCache.put(right, rightAccess);
+        }
+        Boolean hasAccess = rightAccess.get(reference);
+        if (hasAccess == null) {
+            hasAccess = authManager.hasAccess(right, xwikiContext.getUserReference(), reference);
+            rightAccess.put(reference, hasAccess);
+        }
+        return hasAccess;
+    }
+
     /**
      * Validates if the user (in the context) has the given access level on the document in question, if not, throws a
      * {@link DavException}.
@@ -403,6 +651,64 @@ public class XWikiDavContext
         }
     }
 
+    /**
+     * @param name the name of a file.
+     * @return true if the file is a client metadata file (such as {@code .DS_Store}) which is acknowledged but not
+     *         stored.
+     */
+    public boolean isDiscarded(String name)
+    {
+        return components.isDiscarded(name);
+    }
+
+    /**
+     * Returns the cache of the live properties of the pages, attachments and wiki files, shared by all the requests.
+     * 
+     * @return the cache of live properties.
+     */
+    public XWikiDavPropertyCache getPropertyCache()
+    {
+        return components.getPropertyCache();
+    }
+
+    /**
+     * Returns the cache of the serialized wiki files of the pages, shared by all the requests.
+     * 
+     * @return the cache of serialized wiki files.
+     */
+    public XWikiDavContentCache getContentCache()
+    {
+        return components.getContentCache();
+    }
+
+    /**
+     * Returns the store of the temporary resources (virtual members and temporary file contents) of the WebDAV
+     * sessions.
+     * 
+     * @return the store of the temporary resources.
+     */
+    public XWikiDavTempResourceStore getTempResourceStore()
+    {
+        return components.getTempResourceStore();
+    }
+
+    /**
+     * Reads the given input stream into the store of the temporary resources, on behalf of the current user.
+     * 
+     * @param path
+     *            path of the collection the temporary file belongs to.
+     * @param in
+     *            input stream.
+     * @return the stored content.
+     * @throws DavException
+     *             if the quota of the user is exceeded, or if an error occurs while reading the input stream or storing
+     *             the content.
+     */
+    public XWikiDavTempContent storeTempContent(String path, InputStream in) throws DavException
+    {
+        return components.getTempResourceStore().storeContent(xwikiContext.getUser(), path, in);
+    }
+
     /**
      * Utility method for reading a given input stream into a string.
      *
@@ -469,6 +775,7 @@ public class XWikiDavContext
             doc.setCreatorReference(xwikiContext.getUserReference());
         }
 
+        clearMemo();
         try {
             // the next line is a workaround for XWIKI-15669 (size is affected, too)
             attachment.setLongSize(attachment.getContentLongSize(xwikiContext));
@@ -511,6 +818,7 @@ public class XWikiDavContext
     public void moveAttachment(XWikiAttachment attachment, XWikiDocument destinationDoc, String newAttachmentName)
         throws DavException
     {
+        clearMemo();
         try {
             // Delete the current attachment
             XWikiDocument document = attachment.getDoc();
@@ -540,6 +848,7 @@ public class XWikiDavContext
      */
     public void deleteAttachment(XWikiAttachment attachment) throws DavException
     {
+        clearMemo();
         try {
             XWikiDocument document = attachment.getDoc();
 
@@ -563,7 +872,7 @@ public class XWikiDavContext
     @Deprecated
     public boolean exists(String fullDocName)
     {
-        return xwikiContext.getWiki().exists(fullDocName, xwikiContext);
+        return documentExists(getDocumentReference(fullDocName));
     }
 
     /**
@@ -575,8 +884,17 @@ public class XWikiDavContext
      */
     public boolean documentExists(DocumentReference docRef)
     {
-        LOGGER.debug("check for document [{}]", docRef);
-        return xwikiContext.getWiki().exists(docRef, xwikiContext);
+        XWikiDocument document = documentMemo.get(docRef);
+        if (document != null) {
+            return !document.isNew();
+        }
+        Boolean exists = documentExistsMemo.get(docRef);
+        if (exists == null) {
+            LOGGER.debug("check for document [{}]", docRef);
+            exists = xwikiContext.getWiki().exists(docRef, xwikiContext);
+            documentExistsMemo.put(docRef, exists);
+        }
+        return exists;
     }
 
     /**
@@ -588,16 +906,21 @@ public class XWikiDavContext
      */
     public boolean spaceExists(SpaceReference spaceRef)
     {
-        LOGGER.debug("check for space [{}]", spaceRef);
-        try {
-            Query query = queryManager
-                .createQuery("select count(*) from XWikiSpace as space where space.reference = :ref", Query.HQL);
-            query.bindValue("ref", toStringSerializer.serialize(spaceRef));
-            return 1L == (long) query.execute().get(0);
-        } catch (QueryException e) {
-            LOGGER.warn("failed to execute query to check for existing space", e);
-            return false;
+        Boolean exists = spaceExistsMemo.get(spaceRef);
+        if (exists == null) {
+            LOGGER.debug("check for space [{}]", spaceRef);
+            try {
+                Query query = queryManager
+                    .createQuery("select count(*) from XWikiSpace as space where space.reference = :ref", Query.HQL);
+                query.bindValue("ref", toStringSerializer.serialize(spaceRef));
+                exists = 1L == (long) query.execute().get(0);
+                spaceExistsMemo.put(spaceRef, exists);
+            } catch (QueryException e) {
+                LOGGER.warn("failed to execute query to check for existing space", e);
+                return false;
+            }
         }
+        return exists;
     }
 
     /**
@@ -613,35 +936,131 @@ public class XWikiDavContext
     @Deprecated
     public XWikiDocument getDocument(String fullDocName) throws DavException
     {
-        try {
-            return xwikiContext.getWiki().getDocument(fullDocName, xwikiContext);
-        } catch (XWikiException ex) {
-            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ex);
-        }
+        return getDocument(getDocumentReference(fullDocName));
     }
 
+    /**
+     * Finds the xwiki document matching the given reference. The document is loaded only once per request.
+     * 
+     * @param docRef
+     *            the reference to the document.
+     * @return xwiki document matching the given reference.
+     * @throws DavException
+     *             if an error occurs while accessing the wiki.
+     */
     public XWikiDocument getDocument(DocumentReference docRef) throws DavException
     {
-        try {
-            return xwikiContext.getWiki().getDocument(docRef, xwikiContext);
-        } catch (XWikiException ex) {
-            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ex);
+        XWikiDocument document = documentMemo.get(docRef);
+        if (document == null) {
+            try {
+                document = xwikiContext.getWiki().getDocument(docRef, xwikiContext);
+            } catch (XWikiException ex) {
+                throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ex);
+            }
+            documentMemo.put(docRef, document);
+        }
+        return document;
+    }
+
+    /**
+     * @param resourcePath
+     *            the path of a resource.
+     * @return the resource already resolved for the given path during this request, null if there is none.
+     */
+    public XWikiDavResource getResolvedResource(String resourcePath)
+    {
+        return resourceMemo.get(resourcePath);
+    }
+
+    /**
+     * Returns what the given path has been resolved to by a previous request. The entity is considered as existing
+     * for the rest of this request.
+     * 
+     * @param resourcePath
+     *            the path of a resource.
+     * @return the reference of the existing page or space the path resolves to, or null if it has to be resolved.
+     */
+    public EntityReference getResolvedReference(String resourcePath)
+    {
+        EntityReference reference = components.getPathCache().get(getWikiReference().getName(), resourcePath);
+        if (reference instanceof DocumentReference) {
+            documentExistsMemo.put((DocumentReference) reference, true);
+        } else if (reference instanceof SpaceReference) {
+            spaceExistsMemo.put((SpaceReference) reference, true);
         }
+        return reference;
+    }
+
+    /**
+     * Remembers, across requests, that the given path resolves to the given existing page or space.
+     * 
+     * @param resourcePath
+     *            the path of a resource.
+     * @param reference
+     *            the reference of the existing page or space.
+     */
+    public void setResolvedReference(String resourcePath, EntityReference reference)
+    {
+        components.getPathCache().put(getWikiReference().getName(), resourcePath, reference, pathCacheGeneration);
+    }
+
+    /**
+     * @param resourcePath
+     *            the path of a resource.
+     * @return true if the given path recently failed to resolve to any resource.
+     */
+    public boolean isMissingPath(String resourcePath)
+    {
+        return components.getMissingPathCache().isMissing(getWikiReference().getName(), resourcePath);
+    }
+
+    /**
+     * Remembers, for a short time and across requests, that the given path doesn't resolve to any resource.
+     * 
+     * @param resourcePath
+     *            the path of a resource.
+     */
+    public void setMissingPath(String resourcePath)
+    {
+        components.getMissingPathCache().setMissing(getWikiReference().getName(), resourcePath);
+    }
+
+    /**
+     * Remembers the resource resolved for the given path until the end of the request or the next modification of the
+     * wiki.
+     * 
+     * @param resourcePath
+     *            the path of the resource.
+     * @param resource
+     *            the resource.
+     */
+    public void setResolvedResource(String resourcePath, XWikiDavResource resource)
+    {
+        resourceMemo.put(resourcePath, resource);
+    }
+
+    /**
+     * Forgets everything remembered about the wiki during this request, since it is being modified.
+     */
+    private void clearMemo()
+    {
+        pathCacheGeneration = components.getPathCache().getGeneration();
+        documentExistsMemo.clear();
+        spaceExistsMemo.clear();
+        documentMemo.clear();
+        resourceMemo.clear();
     }
 
     public DocumentReference getDocumentReference(String fullPath)
     {
         // FIXME: here better use explicit resolver ??
-        DocumentReferenceResolver<String> resolveDocs = Utils.getComponent(DocumentReferenceResolver.TYPE_STRING,
-            "default");
-        return resolveDocs.resolve(fullPath); // and here pass in the WikiRef?
+        return components.getDocumentReferenceResolver().resolve(fullPath); // and here pass in the WikiRef?
     }
 
     public SpaceReference getSpaceReference(String fullPath)
     {
         // FIXME: is this the best resolver
-        SpaceReferenceResolver<String> resolveDocs = Utils.getComponent(SpaceReferenceResolver.TYPE_STRING, "default");
-        return resolveDocs.resolve(fullPath);
+        return components.getSpaceReferenceResolver().resolve(fullPath);
     }
 
     public WikiReference getWikiReference()
@@ -687,6 +1106,7 @@ public class XWikiDavContext
         if (document.isCurrentUserPage(xwikiContext)) {
             throw new DavException(DavServletResponse.SC_METHOD_NOT_ALLOWED);
         } else {
+            clearMemo();
             try {
                 document.rename(newDocumentName, xwikiContext);
             } catch (XWikiException ex) {
@@ -750,6 +1170,7 @@ public class XWikiDavContext
      */
     public void saveDocument(XWikiDocument document) throws DavException
     {
+        clearMemo();
         try {
             xwikiContext.getWiki().saveDocument(document, "[WEBDAV] Modified.", xwikiContext);
         } catch (XWikiException ex) {
@@ -770,6 +1191,7 @@ public class XWikiDavContext
         if (document.isCurrentUserPage(xwikiContext)) {
             throw new DavException(DavServletResponse.SC_METHOD_NOT_ALLOWED);
         } else {
+            clearMemo();
             try {
                 xwikiContext.getWiki().deleteDocument(document, xwikiContext);
             } catch (XWikiException ex) {
@@ -800,12 +1222,18 @@ public class XWikiDavContext
      */
     public List<String> getRootSpaces() throws DavException
     {
-
+        XWikiDavListingCache cache = components.getListingCache();
+        List<String> cached = cache.get(XWikiDavListingCache.ROOT_SPACES, getWikiReference(), isShowingHidden());
+        if (cached != null) {
+            return cached;
+        }
         try {
+            long generation = cache.getGeneration(XWikiDavListingCache.ROOT_SPACES, getWikiReference());
             Query query = queryManager
                 .createQuery("select space.name from XWikiSpace as space where space.parent is null", Query.XWQL);
-            query.addFilter(Utils.getComponent(QueryFilter.class, "hidden/space"));
-            return query.execute();
+            query.addFilter(components.getHiddenSpaceFilter());
+            return cache.put(XWikiDavListingCache.ROOT_SPACES, getWikiReference(), isShowingHidden(),
+                query.<String>execute(), generation);
         } catch (QueryException ex) {
             throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ex);
         }
@@ -818,12 +1246,19 @@ public class XWikiDavContext
      */
     public List<String> getChildSpaces(SpaceReference parentSpace) throws DavException
     {
+        XWikiDavListingCache cache = components.getListingCache();
+        List<String> cached = cache.get(XWikiDavListingCache.CHILD_SPACES, parentSpace, isShowingHidden());
+        if (cached != null) {
+            return cached;
+        }
         try {
+            long generation = cache.getGeneration(XWikiDavListingCache.CHILD_SPACES, parentSpace);
             Query query = queryManager
                 .createQuery("select space.name from XWikiSpace as space where space.parent = :parent", Query.XWQL);
             query.bindValue("parent", toStringSerializer.serialize(parentSpace));
-            query.addFilter(Utils.getComponent(QueryFilter.class, "hidden/space"));
-            return query.execute();
+            query.addFilter(components.getHiddenSpaceFilter());
+            return cache.put(XWikiDavListingCache.CHILD_SPACES, parentSpace, isShowingHidden(),
+                query.<String>execute(), generation);
         } catch (QueryException ex) {
             throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ex);
         }
@@ -886,10 +1321,148 @@ public class XWikiDavContext
     // small helper that only works with XWQL queries on documents
     private List<DocumentReference> execDocQueryWithFilters(Query query) throws QueryException
     {
-        query.addFilter(Utils.getComponent(QueryFilter.class, "hidden/document"));
-        query.addFilter(Utils.getComponent(QueryFilter.class, "document"));
-        query.addFilter(Utils.getComponent(QueryFilter.class, "viewable"));
-        return query.execute();
+        query.addFilter(components.getHiddenDocumentFilter());
+        query.addFilter(components.getDocumentFilter());
+        return filterAccessible("view", query.<DocumentReference>execute());
+    }
+
+    /**
+     * @param parentSpace
+     * @return the metadata of the pages of the given space the current user can view.
+     * @throws DavException
+     */
+    public List<XWikiDavPageMetadata> getChildPagesMetadata(SpaceReference parentSpace) throws DavException
+    {
+        return filterViewable(getCachedPagesMetadata(XWikiDavListingCache.CHILD_PAGES, parentSpace,
+            "from XWikiDocument as doc where doc.web = :collection"));
+    }
+
+    /**
+     * Reads the metadata of the pages of a listing from the listing cache, running the query only if it isn't there
+     * yet. The pages are ordered by full name.
+     * 
+     * @param listing the kind of listing, one of the constants of {@link XWikiDavListingCache}.
+     * @param collection the reference of the listed space or page, bound to the {@code collection} parameter.
+     * @param from the from and where clauses of the query selecting the pages, aliased {@code doc}.
+     * @return the metadata of the pages, before the access rights are checked.
+     * @throws DavException if the query fails.
+     */
+    private List<XWikiDavPageMetadata> getCachedPagesMetadata(String listing, EntityReference collection, String from)
+        throws DavException
+    {
+        XWikiDavListingCache cache = components.getListingCache();
+        List<XWikiDavPageMetadata> pages = cache.get(listing, collection, isShowingHidden());
+        if (pages == null) {
+            try {
+                long generation = cache.getGeneration(listing, collection);
+                Query query = queryManager.createQuery("select distinct " + XWikiDavPageMetadataFilter.COLUMNS + " "
+                    + from + " and doc.translation = 0 order by doc.fullName", Query.XWQL);
+                query.bindValue("collection", toStringSerializer.serialize(collection));
+                query.addFilter(components.getHiddenDocumentFilter());
+                query.addFilter(components.getPageMetadataFilter());
+                pages = cache.put(listing, collection, isShowingHidden(), query.<XWikiDavPageMetadata>execute(),
+                    generation);
+            } catch (QueryException ex) {
+                throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ex);
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * @param pages the metadata of some pages.
+     * @param prefix the upper case prefix of the names of the pages to keep.
+     * @return the pages whose name starts with the given prefix, ignoring the case.
+     */
+    private List<XWikiDavPageMetadata> filterByPrefix(List<XWikiDavPageMetadata> pages, String prefix)
+    {
+        List<XWikiDavPageMetadata> filtered = new ArrayList<XWikiDavPageMetadata>();
+        for (XWikiDavPageMetadata page : pages) {
+            if (page.getReference().getName().toUpperCase().startsWith(prefix)) {
+                filtered.add(page);
+            }
+        }
+        return filtered;
+    }
+
+    // like execDocQueryWithFilters, but the query is only run if its result isn't in the listing cache yet
+    private List<DocumentReference> getCachedDocuments(String listing, EntityReference collection, Query query)
+        throws QueryException
+    {
+        XWikiDavListingCache cache = components.getListingCache();
+        List<DocumentReference> documents = cache.get(listing, collection, isShowingHidden());
+        if (documents == null) {
+            long generation = cache.getGeneration(listing, collection);
+            query.addFilter(components.getHiddenDocumentFilter());
+            query.addFilter(components.getDocumentFilter());
+            documents = cache.put(listing, collection, isShowingHidden(), query.<DocumentReference>execute(),
+                generation);
+        }
+        return filterAccessible("view", documents);
+    }
+
+    /**
+     * @return true if the current user displays the hidden documents, in which case the hidden filters of the queries
+     *         keep them.
+     */
+    private boolean isShowingHidden()
+    {
+        if (this.showHidden == null) {
+            this.showHidden = "1".equals(xwikiContext.getWiki().getUserPreference("displayHiddenDocuments",
+                xwikiContext));
+        }
+        return this.showHidden;
+    }
+
+    /**
+     * Iterates over the metadata of the child pages (in the old parent/child relationship) of the given page, read from
+     * the listing cache. Only the pages the current user can view are returned.
+     * 
+     * @param parentDoc
+     * @return an iterator over the metadata of the child pages of the page.
+     * @throws DavException
+     */
+    public Iterator<XWikiDavPageMetadata> iterateChildPages(DocumentReference parentDoc) throws DavException
+    {
+        return filterViewable(getCachedPagesMetadata(XWikiDavListingCache.CHILD_PAGES_OF_PAGE, parentDoc,
+            "from XWikiDocument as doc where doc.parent = :collection")).iterator();
+    }
+
+    /**
+     * Iterates over the metadata of the pages of the given space starting with the given prefix. They are taken from
+     * the cached listing of the space. Only the pages the current user can view are returned.
+     * 
+     * @param parentSpace
+     * @param prefix the pages should start with
+     * @return an iterator over the metadata of the matching pages.
+     * @throws DavException
+     */
+    public Iterator<XWikiDavPageMetadata> iterateChildPagesWithPrefix(SpaceReference parentSpace, String prefix)
+        throws DavException
+    {
+        List<XWikiDavPageMetadata> pages = getCachedPagesMetadata(XWikiDavListingCache.CHILD_PAGES, parentSpace,
+            "from XWikiDocument as doc where doc.web = :collection");
+        return filterViewable(filterByPrefix(pages, prefix)).iterator();
+    }
+
+    /**
+     * Iterates over the metadata of the pages of the given space having attachments and starting with the given
+     * prefix. They are taken from the cached listing of the pages of the space having attachments. Only the pages the
+     * current user can view are returned.
+     * 
+     * @param parentSpace
+     * @param prefix the pages should start with
+     * @return an iterator over the metadata of the matching pages.
+     * @throws DavException
+     */
+    public Iterator<XWikiDavPageMetadata> iteratePagesWithAttachmentsWithPrefix(SpaceReference parentSpace,
+        String prefix) throws DavException
+    {
+        List<XWikiDavPageMetadata> pages = getCachedPagesMetadata(
+            XWikiDavListingCache.PAGES_WITH_ATTACHMENTS_METADATA, parentSpace,
+            "from XWikiDocument as doc, XWikiAttachment as attach"
+                + " where doc.id = attach.docId and doc.web = :collection");
+        return filterViewable(filterByPrefix(pages, prefix)).iterator();
     }
 
     /**
@@ -903,7 +1476,7 @@ public class XWikiDavContext
             Query query = queryManager.createQuery(
                 "select doc.fullName from XWikiDocument as doc, XWikiAttachment as attach where doc.id = attach.docId",
                 Query.XWQL);
-            return execDocQueryWithFilters(query);
+            return getCachedDocuments(XWikiDavListingCache.PAGES_WITH_ATTACHMENTS, getWikiReference(), query);
         } catch (QueryException ex) {
             throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ex);
         }
@@ -921,7 +1494,7 @@ public class XWikiDavContext
                 "select doc.fullName from XWikiDocument as doc, XWikiAttachment as attach where doc.id = attach.docId and doc.web = :space",
                 Query.XWQL);
             query.bindValue("space", toStringSerializer.serialize(parentSpace));
-            return execDocQueryWithFilters(query);
+            return getCachedDocuments(XWikiDavListingCache.PAGES_WITH_ATTACHMENTS, parentSpace, query);
         } catch (QueryException ex) {
             throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ex);
         }
@@ -935,17 +1508,68 @@ public class XWikiDavContext
      */
     public List<String> getAttachmentsForPage(DocumentReference document) throws DavException
     {
+        List<XWikiDavAttachmentMetadata> attachments = getAttachmentsMetadataForPage(document);
+        List<String> filenames = new ArrayList<String>(attachments.size());
+        for (XWikiDavAttachmentMetadata attachment : attachments) {
+            filenames.add(attachment.getFilename());
+        }
+        return filenames;
+    }
+
+    /**
+     * Reads the metadata of all the attachments of a page with a single query, without loading the document.
+     * 
+     * @param document
+     *            a reference to the given page
+     * @return the metadata of the attachments of the given page
+     * @throws DavException
+     *             if an error occurs while querying the wiki.
+     */
+    public List<XWikiDavAttachmentMetadata> getAttachmentsMetadataForPage(DocumentReference document)
+        throws DavException
+    {
+        XWikiDavListingCache cache = components.getListingCache();
+        List<XWikiDavAttachmentMetadata> cached = cache.get(XWikiDavListingCache.ATTACHMENTS, document, false);
+        if (cached != null) {
+            return cached;
+        }
         try {
-            Query query = queryManager.createQuery(
-                "select attach.filename from XWikiDocument as doc, XWikiAttachment as attach where doc.id = attach.docId and doc.fullName = :doc",
-                Query.XWQL);
+            long generation = cache.getGeneration(XWikiDavListingCache.ATTACHMENTS, document);
+            Query query = queryManager.createQuery("select attach.filename, attach.longSize, attach.date,"
+                + " attach.mimeType, attach.version from XWikiDocument as doc, XWikiAttachment as attach"
+                + " where doc.id = attach.docId and doc.fullName = :doc", Query.XWQL);
             query.bindValue("doc", toStringSerializer.serialize(document));
-            return query.execute();
+            List<Object[]> rows = query.execute();
+            List<XWikiDavAttachmentMetadata> attachments = new ArrayList<XWikiDavAttachmentMetadata>(rows.size());
+            for (Object[] row : rows) {
+                long size = (row[1] != null) ? ((Number) row[1]).longValue() : 0;
+                attachments.add(new XWikiDavAttachmentMetadata((String) row[0], size, (Date) row[2], (String) row[3],
+                    (String) row[4]));
+            }
+            return cache.put(XWikiDavListingCache.ATTACHMENTS, document, false, attachments, generation);
         } catch (QueryException ex) {
             throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ex);
         }
     }
 
+    /**
+     * @return true if the current webdav request cannot modify the wiki (DAV_GET, DAV_HEAD, DAV_OPTIONS or
+     *         DAV_PROPFIND). DAV_LOCK and DAV_UNLOCK are not read-only: they precede and follow the writes, and locking
+     *         an unmapped URL reserves it for a resource about to be created.
+     */
+    public boolean isReadOnlyRequest()
+    {
+        switch (DavMethods.getMethodCode(getMethod())) {
+            case DavMethods.DAV_GET:
+            case DavMethods.DAV_HEAD:
+            case DavMethods.DAV_OPTIONS:
+            case DavMethods.DAV_PROPFIND:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     /**
      * @return true if the current webdav request is trying to create a collection resource (DAV_MKCOL).
      */
@@ -1057,6 +1681,14 @@ public class XWikiDavContext
         return lockManager;
     }
 
+    /**
+     * @return the components shared by all the webdav requests.
+     */
+    public XWikiDavComponents getComponents()
+    {
+        return components;
+    }
+
     /**
      * @return the internal xwiki context.
      */
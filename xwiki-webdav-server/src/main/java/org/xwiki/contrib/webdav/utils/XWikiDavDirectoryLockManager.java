@@ -0,0 +1,699 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavResource;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.apache.jackrabbit.webdav.lock.ActiveLock;
+import org.apache.jackrabbit.webdav.lock.LockInfo;
+import org.apache.jackrabbit.webdav.lock.LockManager;
+import org.apache.jackrabbit.webdav.lock.Scope;
+import org.apache.jackrabbit.webdav.lock.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.contrib.webdav.resources.XWikiDavResource;
+
+/**
+ * Keeps the WebDAV locks in a directory which may be shared by the nodes of a cluster, so that all of them see the
+ * locks taken on any of them. The directory holds one sub-directory per wiki, with a lock table holding the path,
+ * token, owner, depth and expiration time of each lock of the wiki. Unlike wiki documents, the table has no history
+ * and triggers no event.
+ * <p>
+ * The table is only modified while holding an exclusive file lock, which the nodes (and the threads of a node)
+ * acquire in turn: checking a new lock against the locks of the ancestors and of the members of the resource, and
+ * writing the table, is a single atomic step, and a refresh updates the lock in place. The table is written to a
+ * temporary file which then replaces the previous one, so it can be read without the file lock.
+ * <p>
+ * Each node keeps the tables it has read for a short time, indexed by path and by token. The lock discovery of the
+ * read-only requests (PROPFIND, GET...) and the checks of the submitted tokens are answered from these copies, a token
+ * unknown to the copy being looked up again in the store. The requests which may modify a resource or its locks read
+ * the table from the store, once per lookup whatever the depth of the resource.
+ * <p>
+ * The locks are leases: their timeout is bounded and an expired lock is ignored even if it hasn't been released. The
+ * expired locks are dropped whenever the table is modified, and in the background.
+ *
+ * @version $Id$
+ */
+public class XWikiDavDirectoryLockManager implements XWikiDavLockManager
+{
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(XWikiDavDirectoryLockManager.class);
+
+    /**
+     * Name of the file holding the lock table of a wiki.
+     */
+    private static final String TABLE_FILE = "locks.properties";
+
+    /**
+     * Name of the file locked while the lock table of a wiki is modified. The table file itself cannot be locked since
+     * it is replaced on each modification.
+     */
+    private static final String MUTEX_FILE = "locks.mutex";
+
+    /**
+     * Prefix of the files being written.
+     */
+    private static final String TEMP_PREFIX = "tmp-";
+
+    /**
+     * Property of the lock table holding its version, incremented on each modification.
+     */
+    private static final String VERSION = "version";
+
+    /**
+     * Suffix of the property holding the path of the locked resource, after the token of the lock.
+     */
+    private static final String PATH = ".path";
+
+    /**
+     * Suffix of the property holding the owner of a lock, after its token.
+     */
+    private static final String OWNER = ".owner";
+
+    /**
+     * Suffix of the property holding the depth of a lock, after its token.
+     */
+    private static final String DEEP = ".deep";
+
+    /**
+     * Suffix of the property holding the expiration time of a lock, after its token.
+     */
+    private static final String EXPIRES = ".expires";
+
+    /**
+     * The temporary files older than this number of milliseconds are left-overs of a crashed node.
+     */
+    private static final long TEMP_FILE_MAX_AGE = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * The monitors guarding the file locks, by path of the locked file. They are shared by all the instances since a
+     * JVM cannot lock the same file twice.
+     */
+    private static final ConcurrentMap<String, Object> MONITORS = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * The root directory of the locks, shared by the nodes.
+     */
+    private final File directory;
+
+    /**
+     * The maximum timeout of a lock, in milliseconds.
+     */
+    private final long maxTimeout;
+
+    /**
+     * The number of milliseconds during which a lock table read from the store is used to answer the lookups.
+     */
+    private final long cacheTimeToLive;
+
+    /**
+     * The lock tables read by this node, by name of the directory of their wiki.
+     */
+    private final ConcurrentMap<String, LockTable> tables = new ConcurrentHashMap<String, LockTable>();
+
+    /**
+     * Removes the expired locks.
+     */
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * A modification of the locks of a wiki, applied while holding the lock table of the wiki exclusively.
+     *
+     * @param <T> the type of the result of the modification.
+     */
+    private interface Update<T>
+    {
+        /**
+         * @param locks the unexpired locks of the wiki by path, just read from the store, to be modified.
+         * @return the result of the modification.
+         * @throws DavException if the modification is refused, in which case the table is not written.
+         */
+        T apply(Map<String, XWikiDavLock> locks) throws DavException;
+    }
+
+    /**
+     * The locks of a wiki, as read from the store at some point in time.
+     */
+    private static final class LockTable
+    {
+        /**
+         * The version of the table in the store.
+         */
+        private final long version;
+
+        /**
+         * The locks by path, including the expired locks which haven't been dropped yet.
+         */
+        private final Map<String, XWikiDavLock> locks;
+
+        /**
+         * The locks by token.
+         */
+        private final Map<String, XWikiDavLock> tokens;
+
+        /**
+         * The time at which the table has been read or written, in milliseconds.
+         */
+        private final long time;
+
+        /**
+         * @param version the version of the table in the store.
+         * @param locks the locks by path.
+         */
+        LockTable(long version, Map<String, XWikiDavLock> locks)
+        {
+            this.version = version;
+            this.locks = Collections.unmodifiableMap(locks);
+            Map<String, XWikiDavLock> tokenIndex = new HashMap<String, XWikiDavLock>(locks.size() * 2);
+            for (XWikiDavLock lock : locks.values()) {
+                tokenIndex.put(lock.getToken(), lock);
+            }
+            this.tokens = tokenIndex;
+            this.time = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Creates a new lock manager and schedules the removal of the expired locks.
+     *
+     * @param directory the root directory of the locks, shared by the nodes; it must support file locks.
+     * @param maxTimeout the maximum timeout of a lock, in seconds, also used for the infinite timeouts.
+     * @param sweepInterval the number of seconds between two removals of the expired locks.
+     * @param cacheTimeToLive the number of seconds during which a lock table read from the store is used to answer
+     *            the lookups of the read-only requests, 0 to always read the store.
+     */
+    public XWikiDavDirectoryLockManager(File directory, long maxTimeout, long sweepInterval, long cacheTimeToLive)
+    {
+        this.directory = directory;
+        this.maxTimeout = TimeUnit.SECONDS.toMillis(Math.max(maxTimeout, 1));
+        this.cacheTimeToLive = TimeUnit.SECONDS.toMillis(Math.max(cacheTimeToLive, 0));
+        directory.mkdirs();
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "WebDAV expired locks sweeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(sweepInterval, 1);
+        this.sweeper.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                removeExpiredLocks();
+            }
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public ActiveLock createLock(LockInfo lockInfo, DavResource resource) throws DavException
+    {
+        final String path = resource.getResourcePath();
+        final XWikiDavLock lock = new XWikiDavLock(path, lockInfo.getOwner(), lockInfo.isDeep(),
+            getTimeout(lockInfo.getTimeout()));
+        update(getWikiDirectory(resource), new Update<Void>()
+        {
+            @Override
+            public Void apply(Map<String, XWikiDavLock> locks) throws DavException
+            {
+                if (findLock(locks, path) != null) {
+                    throw new DavException(DavServletResponse.SC_LOCKED, "Resource '" + path + "' is already locked.");
+                }
+                if (lock.isDeep() && hasLockedMember(locks, path)) {
+                    throw new DavException(DavServletResponse.SC_LOCKED, "A member of '" + path + "' is locked.");
+                }
+                locks.put(path, lock);
+                return null;
+            }
+        });
+        return lock;
+    }
+
+    @Override
+    public ActiveLock refreshLock(LockInfo lockInfo, final String lockToken, DavResource resource)
+        throws DavException
+    {
+        final String path = resource.getResourcePath();
+        final long timeout = getTimeout(lockInfo.getTimeout());
+        return update(getWikiDirectory(resource), new Update<XWikiDavLock>()
+        {
+            @Override
+            public XWikiDavLock apply(Map<String, XWikiDavLock> locks) throws DavException
+            {
+                XWikiDavLock lock = checkToken(locks, path, lockToken);
+                // The lock is updated in place, there's no time at which the resource isn't locked.
+                lock.setTimeout(timeout);
+                return lock;
+            }
+        });
+    }
+
+    @Override
+    public void releaseLock(final String lockToken, DavResource resource) throws DavException
+    {
+        final String path = resource.getResourcePath();
+        update(getWikiDirectory(resource), new Update<Void>()
+        {
+            @Override
+            public Void apply(Map<String, XWikiDavLock> locks) throws DavException
+            {
+                locks.remove(checkToken(locks, path, lockToken).getPath());
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ActiveLock getLock(Type type, Scope scope, DavResource resource)
+    {
+        if (!(Type.WRITE.equals(type) && Scope.EXCLUSIVE.equals(scope))) {
+            return null;
+        }
+        try {
+            // The requests which may act on the lock (LOCK, UNLOCK, PUT...) must not miss a lock taken on another node.
+            boolean readOnly = ((XWikiDavResource) resource).getContext().isReadOnlyRequest();
+            return findLock(getTable(getWikiDirectory(resource), !readOnly).locks, resource.getResourcePath());
+        } catch (DavException e) {
+            LOGGER.error("Failed to get the lock of [{}]", resource.getResourcePath(), e);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasLock(String lockToken, DavResource resource)
+    {
+        try {
+            File wikiDirectory = getWikiDirectory(resource);
+            XWikiDavLock lock = getTable(wikiDirectory, false).tokens.get(lockToken);
+            if (lock == null || lock.isExpired()) {
+                // The lock may have been created or refreshed by another node since the table has been read.
+                lock = getTable(wikiDirectory, true).tokens.get(lockToken);
+            }
+            return lock != null && !lock.isExpired() && lock.appliesTo(resource.getResourcePath());
+        } catch (DavException e) {
+            LOGGER.error("Failed to get the lock of [{}]", resource.getResourcePath(), e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of locks in the store, including the expired locks which haven't been dropped yet.
+     */
+    @Override
+    public int getLockCount()
+    {
+        int count = 0;
+        File[] wikiDirectories = this.directory.listFiles();
+        for (File wikiDirectory : (wikiDirectories != null) ? wikiDirectories : new File[0]) {
+            try {
+                count += read(wikiDirectory).locks.size();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to read the locks of [{}]: {}", wikiDirectory, e.getMessage());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stops the removal of the expired locks.
+     */
+    @Override
+    public void dispose()
+    {
+        this.sweeper.shutdownNow();
+    }
+
+    /**
+     * Drops the expired locks from the lock tables, and removes the temporary files left by the nodes which crashed.
+     */
+    void removeExpiredLocks()
+    {
+        File[] wikiDirectories = this.directory.listFiles();
+        if (wikiDirectories == null) {
+            return;
+        }
+        int removed = 0;
+        long tempExpiry = System.currentTimeMillis() - TEMP_FILE_MAX_AGE;
+        for (File wikiDirectory : wikiDirectories) {
+            File[] files = wikiDirectory.listFiles();
+            for (File file : (files != null) ? files : new File[0]) {
+                if (file.getName().startsWith(TEMP_PREFIX) && file.lastModified() < tempExpiry) {
+                    file.delete();
+                }
+            }
+            try {
+                int expired = 0;
+                for (XWikiDavLock lock : read(wikiDirectory).locks.values()) {
+                    expired += lock.isExpired() ? 1 : 0;
+                }
+                if (expired > 0) {
+                    // Reading and writing the table again drops the expired locks.
+                    update(wikiDirectory, new Update<Void>()
+                    {
+                        @Override
+                        public Void apply(Map<String, XWikiDavLock> locks)
+                        {
+                            return null;
+                        }
+                    });
+                    removed += expired;
+                }
+            } catch (IOException | DavException e) {
+                LOGGER.warn("Failed to remove the expired locks of [{}]: {}", wikiDirectory, e.getMessage());
+            }
+        }
+        LOGGER.debug("Removed [{}] expired WebDAV locks", removed);
+    }
+
+    /**
+     * @param locks the locks of a wiki by path.
+     * @param path the path of a resource.
+     * @return the unexpired lock applying to the resource (its own lock, or the deep lock of an ancestor), null if
+     *         there's none.
+     */
+    private XWikiDavLock findLock(Map<String, XWikiDavLock> locks, String path)
+    {
+        for (String lockPath = path; lockPath != null; lockPath = getParentPath(lockPath)) {
+            XWikiDavLock lock = locks.get(lockPath);
+            if (lock != null && !lock.isExpired() && (lock.isDeep() || lockPath.equals(path))) {
+                return lock;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param locks the locks of a wiki by path.
+     * @param path the path of a collection.
+     * @return true if a member of the collection, at any depth, has an unexpired lock.
+     */
+    private boolean hasLockedMember(Map<String, XWikiDavLock> locks, String path)
+    {
+        String prefix = path + '/';
+        for (XWikiDavLock lock : locks.values()) {
+            if (!lock.isExpired() && lock.getPath().startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param locks the locks of a wiki by path.
+     * @param path the path of a resource.
+     * @param lockToken the token submitted by the client.
+     * @return the lock applying to the resource.
+     * @throws DavException if the resource isn't locked, or is locked with another token.
+     */
+    private XWikiDavLock checkToken(Map<String, XWikiDavLock> locks, String path, String lockToken)
+        throws DavException
+    {
+        XWikiDavLock lock = findLock(locks, path);
+        if (lock == null) {
+            throw new DavException(DavServletResponse.SC_PRECONDITION_FAILED);
+        } else if (!lock.isLockedByToken(lockToken)) {
+            throw new DavException(DavServletResponse.SC_LOCKED);
+        }
+        return lock;
+    }
+
+    /**
+     * @param wikiDirectory the directory of the locks of a wiki.
+     * @param fresh whether the table must be read from the store, rather than taken from the tables read recently.
+     * @return the lock table of the wiki.
+     * @throws DavException if the table cannot be read.
+     */
+    private LockTable getTable(File wikiDirectory, boolean fresh) throws DavException
+    {
+        if (!fresh) {
+            LockTable cached = this.tables.get(wikiDirectory.getName());
+            if (cached != null && !isStale(cached)) {
+                return cached;
+            }
+        }
+        try {
+            LockTable table = read(wikiDirectory);
+            cache(wikiDirectory, table);
+            return table;
+        } catch (IOException e) {
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, e);
+        }
+    }
+
+    /**
+     * Keeps a table read from the store, unless a more recent version of it is kept already.
+     *
+     * @param wikiDirectory the directory of the locks of the wiki.
+     * @param table the lock table of the wiki.
+     */
+    private void cache(File wikiDirectory, LockTable table)
+    {
+        String key = wikiDirectory.getName();
+        // A read started before a modification may end after it: it mustn't replace the modified table.
+        for (LockTable cached = this.tables.get(key); cached == null || cached.version <= table.version
+            || isStale(cached); cached = this.tables.get(key)) {
+            if ((cached == null) ? this.tables.putIfAbsent(key, table) == null
+                : this.tables.replace(key, cached, table)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param table a lock table read from the store.
+     * @return true if the table has been read too long ago to answer the lookups.
+     */
+    private boolean isStale(LockTable table)
+    {
+        return System.currentTimeMillis() - table.time >= this.cacheTimeToLive;
+    }
+
+    /**
+     * Modifies the lock table of a wiki while holding it exclusively: the file lock excludes the other nodes, and a
+     * monitor the other threads of this JVM.
+     *
+     * @param <T> the type of the result of the modification.
+     * @param wikiDirectory the directory of the locks of the wiki.
+     * @param update the modification.
+     * @return the result of the modification.
+     * @throws DavException if the modification is refused, or if the table cannot be read or written.
+     */
+    private <T> T update(File wikiDirectory, Update<T> update) throws DavException
+    {
+        File mutex = new File(wikiDirectory, MUTEX_FILE);
+        synchronized (getMonitor(mutex)) {
+            try {
+                Files.createDirectories(wikiDirectory.toPath());
+                try (FileChannel channel = FileChannel.open(mutex.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE); FileLock fileLock = channel.lock()) {
+                    LockTable current = read(wikiDirectory);
+                    cache(wikiDirectory, current);
+                    Map<String, XWikiDavLock> locks = new HashMap<String, XWikiDavLock>();
+                    for (XWikiDavLock lock : current.locks.values()) {
+                        if (!lock.isExpired()) {
+                            // Copied, so that the locks of the cached table are never modified.
+                            locks.put(lock.getPath(), new XWikiDavLock(lock.getPath(), lock.getToken(),
+                                lock.getOwner(), lock.isDeep(), lock.getExpirationTime()));
+                        }
+                    }
+                    T result = update.apply(locks);
+                    LockTable updated = new LockTable(current.version + 1, locks);
+                    write(wikiDirectory, updated);
+                    cache(wikiDirectory, updated);
+                    return result;
+                }
+            } catch (IOException e) {
+                throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, e);
+            }
+        }
+    }
+
+    /**
+     * @param file a file to lock.
+     * @return the monitor to hold while locking the file.
+     */
+    private static Object getMonitor(File file)
+    {
+        String key = file.getAbsolutePath();
+        Object monitor = MONITORS.get(key);
+        if (monitor == null) {
+            Object newMonitor = new Object();
+            monitor = MONITORS.putIfAbsent(key, newMonitor);
+            if (monitor == null) {
+                monitor = newMonitor;
+            }
+        }
+        return monitor;
+    }
+
+    /**
+     * @param wikiDirectory the directory of the locks of a wiki.
+     * @return the lock table of the wiki, as currently stored.
+     * @throws IOException if the table cannot be read.
+     */
+    private LockTable read(File wikiDirectory) throws IOException
+    {
+        Properties properties = new Properties();
+        try (Reader reader =
+            Files.newBufferedReader(new File(wikiDirectory, TABLE_FILE).toPath(), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (NoSuchFileException e) {
+            return new LockTable(0, new HashMap<String, XWikiDavLock>());
+        }
+        Map<String, XWikiDavLock> locks = new HashMap<String, XWikiDavLock>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.endsWith(PATH)) {
+                String token = name.substring(0, name.length() - PATH.length());
+                try {
+                    String path = properties.getProperty(name);
+                    locks.put(path, new XWikiDavLock(path, token, properties.getProperty(token + OWNER),
+                        Boolean.parseBoolean(properties.getProperty(token + DEEP)),
+                        Long.parseLong(properties.getProperty(token + EXPIRES))));
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Ignoring the invalid lock [{}] of [{}]", token, wikiDirectory);
+                }
+            }
+        }
+        long version;
+        try {
+            version = Long.parseLong(properties.getProperty(VERSION, "0"));
+        } catch (NumberFormatException e) {
+            version = 0;
+        }
+        return new LockTable(version, locks);
+    }
+
+    /**
+     * Replaces the stored lock table of a wiki. The table is fully written under a temporary name first, so that it
+     * can be read at any time.
+     *
+     * @param wikiDirectory the directory of the locks of the wiki.
+     * @param table the new lock table.
+     * @throws IOException if the table cannot be written.
+     */
+    private void write(File wikiDirectory, LockTable table) throws IOException
+    {
+        Properties properties = new Properties();
+        properties.setProperty(VERSION, String.valueOf(table.version));
+        for (XWikiDavLock lock : table.locks.values()) {
+            properties.setProperty(lock.getToken() + PATH, lock.getPath());
+            if (lock.getOwner() != null) {
+                properties.setProperty(lock.getToken() + OWNER, lock.getOwner());
+            }
+            properties.setProperty(lock.getToken() + DEEP, String.valueOf(lock.isDeep()));
+            properties.setProperty(lock.getToken() + EXPIRES, String.valueOf(lock.getExpirationTime()));
+        }
+        File temp = Files.createTempFile(wikiDirectory.toPath(), TEMP_PREFIX, null).toFile();
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                properties.store(writer, null);
+            }
+            Files.move(temp.toPath(), new File(wikiDirectory, TABLE_FILE).toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * @param requested the timeout requested by the client, in milliseconds.
+     * @return the timeout of the lease, bounded by the maximum timeout.
+     */
+    private long getTimeout(long requested)
+    {
+        if (requested <= 0 || requested == DavConstants.INFINITE_TIMEOUT || requested > this.maxTimeout) {
+            return this.maxTimeout;
+        }
+        return requested;
+    }
+
+    /**
+     * @param resource a WebDAV resource.
+     * @return the directory of the locks of the wiki the resource belongs to.
+     * @throws DavException if the resource is not an XWiki resource.
+     */
+    private File getWikiDirectory(DavResource resource) throws DavException
+    {
+        if (!(resource instanceof XWikiDavResource)) {
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+        String wiki = ((XWikiDavResource) resource).getContext().getWikiReference().getName();
+        return new File(this.directory, hash(wiki));
+    }
+
+    /**
+     * @param path the path of a resource.
+     * @return the path of the parent collection, null for the root.
+     */
+    private String getParentPath(String path)
+    {
+        int index = path.lastIndexOf('/');
+        return (index > 0) ? path.substring(0, index) : null;
+    }
+
+    /**
+     * @param value a wiki name, which may contain characters not allowed in file names.
+     * @return a file name identifying the given value.
+     */
+    private static String hash(String value)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+            return String.format("%040x", new BigInteger(1, bytes));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,619 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the temporary resources in a directory, which may be shared by the nodes of a cluster so that any of them can
+ * serve the requests of a WebDAV session. The directory holds one sub-directory per user, containing the files of the
+ * contents and one sub-directory per modified collection, with one properties file per member. The files are replaced
+ * atomically so that the other nodes never read a partially written member.
+ * <p>
+ * The sub-directory of a user is deleted, with all its members and contents, once the user hasn't accessed it for the
+ * configured time to live. The access times are compared with the clock of the file system, which the nodes share,
+ * and a node never deletes the directory of a user it is serving. The directory is first renamed, so that the other
+ * nodes stop seeing it at once, and then restored if its user came back just before.
+ * <p>
+ * Contents are always stored in files, so the memory budget of the memory store doesn't apply, but the user quota
+ * does: it is checked against the content files of the user, which all the nodes see, before and after a content is
+ * written, so that concurrent writes on several nodes cannot exceed it together.
+ *
+ * @version $Id$
+ */
+public class XWikiDavDirectoryTempResourceStore implements XWikiDavTempResourceStore
+{
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(XWikiDavDirectoryTempResourceStore.class);
+
+    /**
+     * The file whose modification time records the last access of a user.
+     */
+    private static final String ACCESS_FILE = ".access";
+
+    /**
+     * Extension of the files holding the members.
+     */
+    private static final String MEMBER_EXTENSION = ".member";
+
+    /**
+     * The file of the root directory touched to read the clock of the file system.
+     */
+    private static final String CLOCK_FILE = ".clock";
+
+    /**
+     * Prefix of the user directories being deleted, followed by the name of the directory and the time of deletion.
+     */
+    private static final String DELETED_PREFIX = "deleted-";
+
+    /**
+     * Prefix of the files holding the contents.
+     */
+    private static final String CONTENT_PREFIX = "content-";
+
+    /**
+     * Prefix of the files and directories being written.
+     */
+    private static final String TEMP_PREFIX = "tmp-";
+
+    /**
+     * Property of the member files holding the name of the member.
+     */
+    private static final String NAME = "name";
+
+    /**
+     * Property of the member files telling whether the member is a wiki file.
+     */
+    private static final String WIKI_FILE = "wikiFile";
+
+    /**
+     * Property of the member files telling whether the member is a collection.
+     */
+    private static final String COLLECTION = "collection";
+
+    /**
+     * Property of the member files telling whether the member has been written by the client.
+     */
+    private static final String CREATED = "created";
+
+    /**
+     * Property of the member files holding the creation time.
+     */
+    private static final String CREATION_TIME = "creationTime";
+
+    /**
+     * Property of the member files holding the modification time.
+     */
+    private static final String MODIFICATION_TIME = "modificationTime";
+
+    /**
+     * Property of the member files holding the name of the content file, empty for the empty content.
+     */
+    private static final String CONTENT = "content";
+
+    /**
+     * Property of the member files holding the length of the content.
+     */
+    private static final String CONTENT_LENGTH = "contentLength";
+
+    /**
+     * Selects the files holding the members.
+     */
+    private static final FileFilter MEMBER_FILTER = new FileFilter()
+    {
+        @Override
+        public boolean accept(File file)
+        {
+            return file.getName().endsWith(MEMBER_EXTENSION);
+        }
+    };
+
+    /**
+     * The root directory of the store.
+     */
+    private final File directory;
+
+    /**
+     * The time, in milliseconds, after which the resources of an idle user are deleted.
+     */
+    private final long timeToLive;
+
+    /**
+     * The maximum number of bytes of contents stored for each user, 0 for no limit.
+     */
+    private final long userQuota;
+
+    /**
+     * The last time each user's access has been recorded by this node, by name of the user directory, to avoid
+     * touching the access file on every request.
+     */
+    private final ConcurrentMap<String, Long> recordedAccesses = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * The number of contents being stored by this node, by name of the user directory, which may take longer than the
+     * time to live.
+     */
+    private final ConcurrentMap<String, AtomicInteger> pendingContents = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * Deletes the resources of the idle users.
+     */
+    private final ScheduledExecutorService cleaner;
+
+    /**
+     * Creates a new store and schedules the cleanup of the idle users.
+     *
+     * @param directory the root directory of the store, shared by the nodes.
+     * @param timeToLive the time, in seconds, after which the resources of an idle user are deleted.
+     * @param userQuota the maximum number of bytes of contents stored for each user, 0 for no limit.
+     */
+    public XWikiDavDirectoryTempResourceStore(File directory, long timeToLive, long userQuota)
+    {
+        this.directory = directory;
+        this.timeToLive = TimeUnit.SECONDS.toMillis(Math.max(timeToLive, 1));
+        this.userQuota = userQuota;
+        directory.mkdirs();
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "WebDAV temporary resources cleaner");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(this.timeToLive / 10, 1000);
+        this.cleaner.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                removeIdleUsers();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Map<String, XWikiDavVirtualMember> getMembers(String user, String path)
+    {
+        File collection = getCollectionDirectory(user, path);
+        if (!collection.isDirectory()) {
+            return null;
+        }
+        recordAccess(user);
+        return Collections.unmodifiableMap(readMembers(user, collection));
+    }
+
+    @Override
+    public XWikiDavVirtualMember putMember(String user, String path, Collection<XWikiDavVirtualMember> initialMembers,
+        XWikiDavVirtualMember member) throws DavException
+    {
+        File collection = getOrCreateCollectionDirectory(user, path, initialMembers);
+        File file = getMemberFile(collection, member.getName());
+        XWikiDavVirtualMember previous = readMember(user, file);
+        try {
+            writeMember(file, member);
+        } catch (IOException e) {
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, e);
+        }
+        return previous;
+    }
+
+    @Override
+    public XWikiDavVirtualMember removeMember(String user, String path,
+        Collection<XWikiDavVirtualMember> initialMembers, String name) throws DavException
+    {
+        File collection = getOrCreateCollectionDirectory(user, path, initialMembers);
+        File file = getMemberFile(collection, name);
+        XWikiDavVirtualMember removed = readMember(user, file);
+        if (removed != null && !file.delete() && file.exists()) {
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+        return removed;
+    }
+
+    @Override
+    public void removeMembers(String user, String path)
+    {
+        File collection = getCollectionDirectory(user, path);
+        if (collection.isDirectory()) {
+            for (XWikiDavVirtualMember member : readMembers(user, collection).values()) {
+                member.dispose();
+            }
+            FileUtils.deleteQuietly(collection);
+        }
+    }
+
+    @Override
+    public XWikiDavTempContent storeContent(String user, String path, InputStream in) throws DavException
+    {
+        File userDirectory = getUserDirectory(user);
+        AtomicInteger pending = getPendingContents(userDirectory.getName());
+        pending.incrementAndGet();
+        try {
+            Files.createDirectories(userDirectory.toPath());
+            recordAccess(user);
+            long allowed = (this.userQuota > 0) ? this.userQuota - getUserBytes(userDirectory) : Long.MAX_VALUE;
+            File file = File.createTempFile(CONTENT_PREFIX, null, userDirectory);
+            long length = -1;
+            boolean exceeded = false;
+            try (OutputStream out = Files.newOutputStream(file.toPath())) {
+                // Don't copy more than one byte above the quota.
+                length = IOUtils.copyLarge(in, out, 0, (allowed == Long.MAX_VALUE) ? -1 : Math.max(allowed, 0) + 1);
+                // The contents written meanwhile by the other nodes count as well: the first ones to finish win.
+                exceeded = length > allowed || (this.userQuota > 0 && getUserBytes(userDirectory) > this.userQuota);
+            } finally {
+                if (length <= 0 || exceeded) {
+                    file.delete();
+                }
+            }
+            if (length > 0 && exceeded) {
+                throw new DavException(DavServletResponse.SC_INSUFFICIENT_SPACE_ON_RESOURCE);
+            }
+            return (length == 0) ? XWikiDavTempContent.EMPTY : new XWikiDavTempContent(null, user, file, length);
+        } catch (IOException e) {
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, e);
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.cleaner.shutdownNow();
+    }
+
+    /**
+     * Deletes the directories of the users who haven't accessed them for the time to live.
+     */
+    void removeIdleUsers()
+    {
+        File[] userDirectories = this.directory.listFiles();
+        if (userDirectories == null) {
+            return;
+        }
+        long expiry = getFileSystemTime() - this.timeToLive;
+        long localExpiry = System.currentTimeMillis() - this.timeToLive;
+        for (File userDirectory : userDirectories) {
+            String name = userDirectory.getName();
+            if (userDirectory.isDirectory() && name.startsWith(DELETED_PREFIX)) {
+                removeDeletedUser(userDirectory, expiry);
+            } else if (userDirectory.isDirectory() && getLastAccess(userDirectory) < expiry
+                && !isServed(name, localExpiry)) {
+                removeUser(userDirectory, expiry);
+            }
+        }
+    }
+
+    /**
+     * @param name the name of a user directory.
+     * @param localExpiry the time, according to the clock of this node, before which an access is too old.
+     * @return true if this node is storing a content of the user, or recorded an access of the user recently.
+     */
+    private boolean isServed(String name, long localExpiry)
+    {
+        AtomicInteger pending = this.pendingContents.get(name);
+        Long recorded = this.recordedAccesses.get(name);
+        return (pending != null && pending.get() > 0) || (recorded != null && recorded >= localExpiry);
+    }
+
+    /**
+     * Deletes the directory of an idle user. The directory is renamed first, so that the nodes which access it again
+     * meanwhile start a new one, and then restored if an access was recorded just before it was renamed.
+     *
+     * @param userDirectory the directory of the user.
+     * @param expiry the time, according to the clock of the file system, before which an access is too old.
+     */
+    private void removeUser(File userDirectory, long expiry)
+    {
+        File deleted = new File(this.directory,
+            DELETED_PREFIX + userDirectory.getName() + '-' + System.currentTimeMillis());
+        try {
+            Files.move(userDirectory.toPath(), deleted.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete the idle temporary resources [{}]: {}", userDirectory, e.getMessage());
+            return;
+        }
+        if (getLastAccess(deleted) >= expiry) {
+            try {
+                Files.move(deleted.toPath(), userDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                return;
+            } catch (IOException e) {
+                // The user has started over in a new directory.
+                LOGGER.debug("Failed to restore the temporary resources [{}]: {}", userDirectory, e.getMessage());
+            }
+        }
+        LOGGER.debug("Deleting the idle temporary resources [{}]", userDirectory);
+        FileUtils.deleteQuietly(deleted);
+    }
+
+    /**
+     * Deletes a user directory left renamed by a node which stopped while deleting it.
+     *
+     * @param deleted the renamed user directory.
+     * @param expiry the time before which the directory has been renamed long enough ago.
+     */
+    private void removeDeletedUser(File deleted, long expiry)
+    {
+        String name = deleted.getName();
+        try {
+            if (Long.parseLong(name.substring(name.lastIndexOf('-') + 1)) < expiry) {
+                FileUtils.deleteQuietly(deleted);
+            }
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Ignoring the invalid directory [{}]", deleted);
+        }
+    }
+
+    /**
+     * @param userDirectory the directory of a user.
+     * @return the time of the last access of the user, according to the clock of the file system.
+     */
+    private long getLastAccess(File userDirectory)
+    {
+        File accessFile = new File(userDirectory, ACCESS_FILE);
+        // The access file is created with the directory, fall back on the directory for a partial one.
+        return accessFile.exists() ? accessFile.lastModified() : userDirectory.lastModified();
+    }
+
+    /**
+     * @return the current time according to the clock of the file system, which sets the access times read by all the
+     *         nodes, or the clock of this node if it cannot be read.
+     */
+    private long getFileSystemTime()
+    {
+        File clockFile = new File(this.directory, CLOCK_FILE);
+        try {
+            FileUtils.touch(clockFile);
+            long time = clockFile.lastModified();
+            if (time > 0) {
+                return time;
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read the clock of [{}]: {}", this.directory, e.getMessage());
+        }
+        return System.currentTimeMillis();
+    }
+
+    private void recordAccess(String user)
+    {
+        String name = getUserDirectory(user).getName();
+        long now = System.currentTimeMillis();
+        Long recorded = this.recordedAccesses.get(name);
+        if (recorded != null && now - recorded < this.timeToLive / 10) {
+            return;
+        }
+        this.recordedAccesses.put(name, now);
+        File accessFile = new File(getUserDirectory(user), ACCESS_FILE);
+        try {
+            FileUtils.touch(accessFile);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to record the access to [{}]: {}", accessFile, e.getMessage());
+        }
+    }
+
+    private AtomicInteger getPendingContents(String name)
+    {
+        AtomicInteger pending = this.pendingContents.get(name);
+        if (pending == null) {
+            AtomicInteger newPending = new AtomicInteger();
+            pending = this.pendingContents.putIfAbsent(name, newPending);
+            if (pending == null) {
+                pending = newPending;
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * @param userDirectory the directory of a user.
+     * @return the number of bytes of contents currently stored for the user, by all the nodes.
+     */
+    private long getUserBytes(File userDirectory)
+    {
+        long total = 0;
+        File[] files = userDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(CONTENT_PREFIX)) {
+                    total += file.length();
+                }
+            }
+        }
+        return total;
+    }
+
+    private File getOrCreateCollectionDirectory(String user, String path,
+        Collection<XWikiDavVirtualMember> initialMembers) throws DavException
+    {
+        File collection = getCollectionDirectory(user, path);
+        recordAccess(user);
+        if (collection.isDirectory()) {
+            return collection;
+        }
+        // Write the initial members in a directory renamed at once, so that the other nodes never list a collection
+        // missing some of them. Its name is unique so that concurrent requests don't write in the same directory.
+        File temp = null;
+        try {
+            Files.createDirectories(collection.getParentFile().toPath());
+            temp = Files.createTempDirectory(collection.getParentFile().toPath(), TEMP_PREFIX).toFile();
+            for (XWikiDavVirtualMember member : initialMembers) {
+                writeMember(getMemberFile(temp, member.getName()), member);
+            }
+            Files.move(temp.toPath(), collection.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Another request initialized it meanwhile.
+            FileUtils.deleteQuietly(temp);
+        } catch (IOException e) {
+            // Also thrown when another request initialized a collection which is not empty.
+            FileUtils.deleteQuietly(temp);
+            if (!collection.isDirectory()) {
+                throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, e);
+            }
+        }
+        return collection;
+    }
+
+    private Map<String, XWikiDavVirtualMember> readMembers(String user, File collection)
+    {
+        Map<String, XWikiDavVirtualMember> members = new TreeMap<String, XWikiDavVirtualMember>();
+        File[] files = collection.listFiles(MEMBER_FILTER);
+        if (files != null) {
+            for (File file : files) {
+                XWikiDavVirtualMember member = readMember(user, file);
+                if (member != null) {
+                    members.put(member.getName(), member);
+                }
+            }
+        }
+        return members;
+    }
+
+    private XWikiDavVirtualMember readMember(String user, File file)
+    {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            // Deleted by another request meanwhile.
+            return null;
+        }
+        String name = properties.getProperty(NAME);
+        if (name == null) {
+            LOGGER.warn("Ignoring the invalid temporary resource [{}]", file);
+            return null;
+        } else if (Boolean.parseBoolean(properties.getProperty(WIKI_FILE))) {
+            return XWikiDavVirtualMember.wikiFile(name);
+        }
+        try {
+            XWikiDavTempContent content = null;
+            String contentName = properties.getProperty(CONTENT);
+            if (contentName != null) {
+                content = contentName.isEmpty() ? XWikiDavTempContent.EMPTY : new XWikiDavTempContent(null, user,
+                    new File(getUserDirectory(user), contentName),
+                    Long.parseLong(properties.getProperty(CONTENT_LENGTH)));
+            }
+            return new XWikiDavVirtualMember(name, Boolean.parseBoolean(properties.getProperty(COLLECTION)), content,
+                Boolean.parseBoolean(properties.getProperty(CREATED)),
+                Long.parseLong(properties.getProperty(CREATION_TIME)),
+                Long.parseLong(properties.getProperty(MODIFICATION_TIME)));
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Ignoring the invalid temporary resource [{}]: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeMember(File file, XWikiDavVirtualMember member) throws IOException
+    {
+        Properties properties = new Properties();
+        properties.setProperty(NAME, member.getName());
+        properties.setProperty(WIKI_FILE, String.valueOf(member.isWikiFile()));
+        properties.setProperty(COLLECTION, String.valueOf(member.isCollection()));
+        properties.setProperty(CREATED, String.valueOf(member.isCreated()));
+        properties.setProperty(CREATION_TIME, String.valueOf(member.getCreationTime()));
+        properties.setProperty(MODIFICATION_TIME, String.valueOf(member.getModificationTime()));
+        XWikiDavTempContent content = member.getContent();
+        if (content != null) {
+            File contentFile = content.getFile();
+            properties.setProperty(CONTENT, (contentFile != null) ? contentFile.getName() : "");
+            properties.setProperty(CONTENT_LENGTH, String.valueOf(content.getLength()));
+        }
+        File temp = Files.createTempFile(file.getParentFile().toPath(), TEMP_PREFIX, null).toFile();
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                properties.store(writer, null);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private File getUserDirectory(String user)
+    {
+        return new File(this.directory, hash(user));
+    }
+
+    private File getCollectionDirectory(String user, String path)
+    {
+        return new File(getUserDirectory(user), hash(path));
+    }
+
+    private File getMemberFile(File collection, String name)
+    {
+        return new File(collection, hash(name) + MEMBER_EXTENSION);
+    }
+
+    /**
+     * @param value a user name, path or member name, which may contain characters not allowed in file names.
+     * @return a file name identifying the given value.
+     */
+    private static String hash(String value)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+            return String.format("%040x", new BigInteger(1, bytes));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1.
+            throw new IllegalStateException(e);
+        }
+    }
+}
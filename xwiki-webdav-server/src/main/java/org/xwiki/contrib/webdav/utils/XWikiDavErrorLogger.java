@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jackrabbit.webdav.DavException;
+import org.slf4j.Logger;
+
+/**
+ * Logs the errors of the WebDAV requests. The server errors are logged with their stack trace, while the errors caused
+ * by the client (missing resources, locked resources, failed preconditions...) are expected in large numbers from the
+ * mounted drives: they are logged without their stack trace, at most once per interval together with the number of
+ * client errors left out since the previous message. The stack traces of all the client errors are still available
+ * at debug level.
+ *
+ * @version $Id$
+ */
+public class XWikiDavErrorLogger
+{
+    /**
+     * The lowest HTTP status of the server errors.
+     */
+    private static final int SERVER_ERROR = 500;
+
+    /**
+     * Where the errors are logged.
+     */
+    private final Logger logger;
+
+    /**
+     * The minimum number of milliseconds between two messages about client errors.
+     */
+    private final long interval;
+
+    /**
+     * The time from which the next client error may be logged, in milliseconds.
+     */
+    private final AtomicLong nextLogTime = new AtomicLong();
+
+    /**
+     * The number of client errors which haven't been logged since the last message.
+     */
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * Creates a new error logger.
+     *
+     * @param logger where the errors are logged.
+     * @param interval the minimum number of seconds between two messages about client errors, 0 to log all of them.
+     */
+    public XWikiDavErrorLogger(Logger logger, long interval)
+    {
+        this.logger = logger;
+        this.interval = TimeUnit.SECONDS.toMillis(Math.max(interval, 0));
+    }
+
+    /**
+     * Logs the error of a request.
+     *
+     * @param method the method of the request.
+     * @param uri the URI of the request.
+     * @param e the error.
+     */
+    public void log(String method, String uri, DavException e)
+    {
+        if (e.getErrorCode() >= SERVER_ERROR) {
+            this.logger.error("WebDAV Exception Occurred : ", e);
+        } else if (this.logger.isDebugEnabled()) {
+            this.logger.debug("WebDAV client error [{}] for [{} {}]", e.getErrorCode(), method, uri, e);
+        } else if (this.logger.isInfoEnabled()) {
+            long now = System.currentTimeMillis();
+            long next = this.nextLogTime.get();
+            if (now >= next && this.nextLogTime.compareAndSet(next, now + this.interval)) {
+                this.logger.info("WebDAV client error [{}] for [{} {}] ([{}] similar errors not logged)",
+                    e.getErrorCode(), method, uri, this.skipped.getAndSet(0));
+            } else {
+                this.skipped.incrementAndGet();
+            }
+        }
+    }
+}
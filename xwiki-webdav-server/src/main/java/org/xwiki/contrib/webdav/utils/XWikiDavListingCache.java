@@ -0,0 +1,289 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Remembers, across requests and users, the results of the queries listing the members of the WebDAV collections
+ * (spaces, pages, pages with attachments, attachments). Mounted drives list the same folders every few seconds, and
+ * the results are the same until a document of the collection is modified.
+ * <p>
+ * The results are stored before the access rights are checked: the users listing a collection share the same entry,
+ * and the entities they cannot view are removed from it for each request. Since the hidden documents are filtered by
+ * the query according to a user preference, the entries are also keyed by whether the hidden documents are shown.
+ * <p>
+ * The entries are invalidated precisely when a document is created, updated or deleted: only the listings the document
+ * may belong to are removed. The attachments are saved with their document, so adding, updating or removing them is
+ * notified as an update of the document. Each listing also has a generation, incremented when it is invalidated, so
+ * that the result of a query which was running at the same time is not stored; the other listings keep being cached
+ * while documents are modified elsewhere in the wiki. The listings also expire after a while, in case a modification
+ * is not notified.
+ *
+ * @version $Id$
+ */
+public class XWikiDavListingCache implements EventListener
+{
+    /**
+     * The name of this listener.
+     */
+    public static final String NAME = "XWikiDavListingCache";
+
+    /**
+     * The names of the root spaces of a wiki.
+     */
+    public static final String ROOT_SPACES = "rootSpaces";
+
+    /**
+     * The names of the child spaces of a space.
+     */
+    public static final String CHILD_SPACES = "childSpaces";
+
+    /**
+     * The metadata of the pages of a space.
+     */
+    public static final String CHILD_PAGES = "childPages";
+
+    /**
+     * The metadata of the child pages of a page, in the old parent/child relationship.
+     */
+    public static final String CHILD_PAGES_OF_PAGE = "childPagesOfPage";
+
+    /**
+     * The references of the pages having attachments, in a wiki or a space.
+     */
+    public static final String PAGES_WITH_ATTACHMENTS = "pagesWithAttachments";
+
+    /**
+     * The metadata of the pages of a space having attachments.
+     */
+    public static final String PAGES_WITH_ATTACHMENTS_METADATA = "pagesWithAttachmentsMetadata";
+
+    /**
+     * The metadata of the attachments of a page.
+     */
+    public static final String ATTACHMENTS = "attachments";
+
+    /**
+     * The events invalidating the cache.
+     */
+    private static final List<Event> EVENTS = Arrays.<Event>asList(new DocumentCreatedEvent(),
+        new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+
+    /**
+     * The number of generations, shared by the listings whose keys have the same hash. A collision only prevents the
+     * result of a query from being stored once in a while.
+     */
+    private static final int GENERATIONS = 1024;
+
+    /**
+     * Listing key to the result of the query.
+     */
+    private final Cache<List<?>> cache;
+
+    /**
+     * The generations of the listings, by hash of their key. Incremented when a listing is invalidated, so that the
+     * results of the queries which were running at the same time are not stored.
+     */
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATIONS);
+
+    /**
+     * Creates a new listing cache.
+     *
+     * @param cacheManager used to create the underlying cache.
+     * @param size the maximum number of listings kept, 0 to disable the cache.
+     * @param timeToLive the number of seconds after which a listing is queried again, 0 for no limit.
+     * @throws CacheException if the underlying cache cannot be created.
+     */
+    public XWikiDavListingCache(CacheManager cacheManager, int size, int timeToLive) throws CacheException
+    {
+        if (size > 0) {
+            CacheConfiguration conf = new CacheConfiguration();
+            conf.setConfigurationId("webdav.listings");
+            LRUEvictionConfiguration lec = new LRUEvictionConfiguration();
+            lec.setMaxEntries(size);
+            if (timeToLive > 0) {
+                lec.setLifespan(timeToLive);
+            }
+            conf.put(LRUEvictionConfiguration.CONFIGURATIONID, lec);
+            this.cache = cacheManager.createNewCache(conf);
+        } else {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * @param listing the kind of listing, one of the constants of this class.
+     * @param collection the reference of the listed wiki, space or page.
+     * @return the current generation of the listing, to be read before running the query whose result is then stored
+     *         with {@link #put(String, EntityReference, boolean, List, long)}.
+     */
+    public long getGeneration(String listing, EntityReference collection)
+    {
+        return this.generations.get(getGenerationIndex(listing, collection));
+    }
+
+    /**
+     * @param listing the kind of listing, one of the constants of this class.
+     * @param collection the reference of the listed wiki, space or page.
+     * @param showHidden whether the hidden documents are listed.
+     * @param <T> the type of the members.
+     * @return the unmodifiable result of the query, before the access rights are checked, or null if it has to be run.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> get(String listing, EntityReference collection, boolean showHidden)
+    {
+        return (this.cache != null) ? (List<T>) this.cache.get(getKey(listing, collection, showHidden)) : null;
+    }
+
+    /**
+     * Remembers the result of a query, unless the listing has been invalidated since it started.
+     *
+     * @param listing the kind of listing, one of the constants of this class.
+     * @param collection the reference of the listed wiki, space or page.
+     * @param showHidden whether the hidden documents are listed.
+     * @param members the result of the query, before the access rights are checked.
+     * @param queryGeneration the {@link #getGeneration(String, EntityReference) generation} of the listing read before
+     *            running the query.
+     * @param <T> the type of the members.
+     * @return the unmodifiable result of the query.
+     */
+    public <T> List<T> put(String listing, EntityReference collection, boolean showHidden, List<T> members,
+        long queryGeneration)
+    {
+        List<T> result = Collections.unmodifiableList(members);
+        if (this.cache != null && queryGeneration == getGeneration(listing, collection)) {
+            String key = getKey(listing, collection, showHidden);
+            this.cache.set(key, result);
+            if (queryGeneration != getGeneration(listing, collection)) {
+                // Invalidated while being stored: the removal may have run before the result was set.
+                this.cache.remove(key);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Releases the underlying cache.
+     */
+    public void dispose()
+    {
+        if (this.cache != null) {
+            this.cache.dispose();
+        }
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return EVENTS;
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (this.cache == null || !(source instanceof XWikiDocument)) {
+            return;
+        }
+        XWikiDocument document = (XWikiDocument) source;
+        DocumentReference reference = document.getDocumentReference();
+        SpaceReference space = reference.getLastSpaceReference();
+        remove(CHILD_PAGES, space);
+        remove(ATTACHMENTS, reference);
+        remove(PAGES_WITH_ATTACHMENTS, space);
+        remove(PAGES_WITH_ATTACHMENTS_METADATA, space);
+        remove(PAGES_WITH_ATTACHMENTS, reference.getWikiReference());
+        remove(CHILD_PAGES_OF_PAGE, document.getParentReference());
+        XWikiDocument original = document.getOriginalDocument();
+        if (original != null) {
+            // The document may have been moved from another parent.
+            remove(CHILD_PAGES_OF_PAGE, original.getParentReference());
+        }
+        if (changesSpaces(event, document)) {
+            remove(ROOT_SPACES, reference.getWikiReference());
+            for (EntityReference parent = space; parent != null && parent.getType() == EntityType.SPACE;
+                parent = parent.getParent()) {
+                remove(CHILD_SPACES, new SpaceReference(parent));
+            }
+        }
+    }
+
+    /**
+     * @param event the event notifying the modification of the document.
+     * @param document the modified document.
+     * @return true if the modification may change the spaces containing the document: creating or deleting it may
+     *         create or remove them, and hiding or showing it may hide or show them.
+     */
+    private boolean changesSpaces(Event event, XWikiDocument document)
+    {
+        if (!(event instanceof DocumentUpdatedEvent)) {
+            return true;
+        }
+        XWikiDocument original = document.getOriginalDocument();
+        return original == null || original.isHidden() != document.isHidden();
+    }
+
+    private void remove(String listing, EntityReference collection)
+    {
+        if (collection != null) {
+            // Increment the generation first, so that a query running meanwhile doesn't store its result again.
+            this.generations.incrementAndGet(getGenerationIndex(listing, collection));
+            this.cache.remove(getKey(listing, collection, false));
+            this.cache.remove(getKey(listing, collection, true));
+        }
+    }
+
+    private int getGenerationIndex(String listing, EntityReference collection)
+    {
+        // Both variants of a listing (with and without the hidden documents) share the same generation.
+        return Math.floorMod(getKey(listing, collection, false).hashCode(), GENERATIONS);
+    }
+
+    private String getKey(String listing, EntityReference collection, boolean showHidden)
+    {
+        return listing + (showHidden ? ":hidden:" : ':') + collection;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+/**
+ * Thrown by the lazy iterators over the members of a collection when the next members cannot be fetched or built.
+ * The iterators cannot throw checked exceptions, and reporting the end of the collection instead would make the
+ * client take a partial listing for a complete one. The servlet turns it into a {@code 500 Internal Server Error}.
+ *
+ * @version $Id$
+ */
+public class XWikiDavListingException extends RuntimeException
+{
+    /**
+     * Class version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new exception.
+     *
+     * @param message the description of the failure.
+     * @param cause the cause of the failure.
+     */
+    public XWikiDavListingException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.util.UUID;
+
+import org.apache.jackrabbit.webdav.lock.AbstractActiveLock;
+import org.apache.jackrabbit.webdav.lock.Scope;
+import org.apache.jackrabbit.webdav.lock.Type;
+
+/**
+ * An exclusive write lock on a WebDAV resource, which may be stored outside of the memory of the node (unlike the
+ * locks of Jackrabbit, its token can be restored). A lock is a lease: it expires after its timeout unless the client
+ * refreshes it.
+ *
+ * @version $Id$
+ */
+public class XWikiDavLock extends AbstractActiveLock
+{
+    /**
+     * Prefix of the lock tokens, see RFC 4918.
+     */
+    private static final String TOKEN_PREFIX = "opaquelocktoken:";
+
+    /**
+     * The path of the locked resource.
+     */
+    private final String path;
+
+    /**
+     * The token of the lock.
+     */
+    private final String token;
+
+    /**
+     * The owner of the lock, as given by the client.
+     */
+    private volatile String owner;
+
+    /**
+     * Whether the lock applies to the members of the locked collection.
+     */
+    private volatile boolean deep;
+
+    /**
+     * The time at which the lock expires, in milliseconds.
+     */
+    private volatile long expirationTime;
+
+    /**
+     * Creates a new lock, with a new token.
+     *
+     * @param path the path of the locked resource.
+     * @param owner the owner of the lock, as given by the client.
+     * @param deep whether the lock applies to the members of the locked collection.
+     * @param timeout the number of milliseconds after which the lock expires.
+     */
+    public XWikiDavLock(String path, String owner, boolean deep, long timeout)
+    {
+        this(path, TOKEN_PREFIX + UUID.randomUUID(), owner, deep, System.currentTimeMillis() + timeout);
+    }
+
+    /**
+     * Restores a stored lock.
+     *
+     * @param path the path of the locked resource.
+     * @param token the token of the lock.
+     * @param owner the owner of the lock, as given by the client.
+     * @param deep whether the lock applies to the members of the locked collection.
+     * @param expirationTime the time at which the lock expires, in milliseconds.
+     */
+    public XWikiDavLock(String path, String token, String owner, boolean deep, long expirationTime)
+    {
+        this.path = path;
+        this.token = token;
+        this.owner = owner;
+        this.deep = deep;
+        this.expirationTime = expirationTime;
+    }
+
+    /**
+     * @return the path of the locked resource.
+     */
+    public String getPath()
+    {
+        return path;
+    }
+
+    /**
+     * @return the time at which the lock expires, in milliseconds.
+     */
+    public long getExpirationTime()
+    {
+        return expirationTime;
+    }
+
+    /**
+     * @param resourcePath the path of a resource.
+     * @return true if this lock applies to the given resource, i.e. if it locks it or one of its ancestors deeply.
+     */
+    public boolean appliesTo(String resourcePath)
+    {
+        return this.path.equals(resourcePath) || (this.deep && resourcePath.startsWith(this.path + '/'));
+    }
+
+    @Override
+    public boolean isLockedByToken(String lockToken)
+    {
+        return this.token.equals(lockToken);
+    }
+
+    @Override
+    public boolean isExpired()
+    {
+        return System.currentTimeMillis() > this.expirationTime;
+    }
+
+    @Override
+    public String getToken()
+    {
+        return token;
+    }
+
+    @Override
+    public String getOwner()
+    {
+        return owner;
+    }
+
+    @Override
+    public void setOwner(String owner)
+    {
+        this.owner = owner;
+    }
+
+    @Override
+    public long getTimeout()
+    {
+        return this.expirationTime - System.currentTimeMillis();
+    }
+
+    @Override
+    public void setTimeout(long timeout)
+    {
+        if (timeout > 0) {
+            this.expirationTime = System.currentTimeMillis() + timeout;
+        }
+    }
+
+    @Override
+    public boolean isDeep()
+    {
+        return deep;
+    }
+
+    @Override
+    public void setIsDeep(boolean deep)
+    {
+        this.deep = deep;
+    }
+
+    @Override
+    public Type getType()
+    {
+        return Type.WRITE;
+    }
+
+    @Override
+    public Scope getScope()
+    {
+        return Scope.EXCLUSIVE;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import org.apache.jackrabbit.webdav.lock.LockManager;
+
+/**
+ * Manages the WebDAV locks. The implementation is chosen with the {@code webdav.lockManager} configuration property:
+ * {@link XWikiDavMemoryLockManager} keeps the locks in the memory of the node, {@link XWikiDavDirectoryLockManager} in
+ * a directory which may be shared by several nodes.
+ *
+ * @version $Id$
+ */
+public interface XWikiDavLockManager extends LockManager, XWikiDavDisposable
+{
+    /**
+     * @return the number of locks held, including the expired locks which haven't been removed yet.
+     */
+    int getLockCount();
+}
@@ -0,0 +1,440 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavResource;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.apache.jackrabbit.webdav.lock.ActiveLock;
+import org.apache.jackrabbit.webdav.lock.LockInfo;
+import org.apache.jackrabbit.webdav.lock.LockManager;
+import org.apache.jackrabbit.webdav.lock.Scope;
+import org.apache.jackrabbit.webdav.lock.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the WebDAV locks in the memory of the node, indexed for the checks made on each request: the locks are stored
+ * in a tree following the segments of the resource paths, so that finding the lock of a resource or of one of its
+ * ancestors only visits the path of the resource, and in a map of the tokens, so that checking a token submitted in
+ * the {@code If} header is a single lookup. Each node of the tree counts the locks below it, which tells without
+ * visiting the members whether a collection can be locked deeply.
+ * <p>
+ * Unlike {@link org.apache.jackrabbit.webdav.lock.SimpleLockManager}, which only forgets an expired lock when its
+ * resource is looked up, the expired locks are removed in the background: the clients which open many documents and
+ * never unlock them (or crash) don't make the table grow. The number of locks is published through JMX by
+ * {@link XWikiDavStatistics}.
+ *
+ * @version $Id$
+ */
+public class XWikiDavMemoryLockManager implements XWikiDavLockManager
+{
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(XWikiDavMemoryLockManager.class);
+
+    /**
+     * Separator of the segments of the resource paths.
+     */
+    private static final String SEPARATOR = "/";
+
+    /**
+     * The root of the tree of the locks, which stands for the empty path.
+     */
+    private final Node root = new Node();
+
+    /**
+     * Guards the tree of the locks: the lookups share it, the modifications are exclusive.
+     */
+    private final ReadWriteLock treeLock = new ReentrantReadWriteLock();
+
+    /**
+     * Token to lock.
+     */
+    private final ConcurrentMap<String, XWikiDavLock> tokens = new ConcurrentHashMap<String, XWikiDavLock>();
+
+    /**
+     * The maximum timeout of a lock, in milliseconds.
+     */
+    private final long maxTimeout;
+
+    /**
+     * Removes the expired locks.
+     */
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * A node of the tree of the locks, for a segment of the resource paths.
+     */
+    private static final class Node
+    {
+        /**
+         * The child nodes, by segment.
+         */
+        private final Map<String, Node> children = new HashMap<String, Node>();
+
+        /**
+         * The lock of the resource of this node, null if there's none.
+         */
+        private XWikiDavLock lock;
+
+        /**
+         * The number of locks held by this node and its descendants.
+         */
+        private int count;
+    }
+
+    /**
+     * Creates a new lock manager and schedules the removal of the expired locks.
+     *
+     * @param maxTimeout the maximum timeout of a lock, in seconds, also used for the infinite timeouts.
+     * @param sweepInterval the number of seconds between two removals of the expired locks.
+     */
+    public XWikiDavMemoryLockManager(long maxTimeout, long sweepInterval)
+    {
+        this.maxTimeout = TimeUnit.SECONDS.toMillis(Math.max(maxTimeout, 1));
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "WebDAV expired locks sweeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(sweepInterval, 1);
+        this.sweeper.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                removeExpiredLocks();
+            }
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public ActiveLock createLock(LockInfo lockInfo, DavResource resource) throws DavException
+    {
+        String path = resource.getResourcePath();
+        List<String> segments = getSegments(path);
+        this.treeLock.writeLock().lock();
+        try {
+            if (findLock(segments) != null) {
+                throw new DavException(DavServletResponse.SC_LOCKED, "Resource '" + path + "' is already locked.");
+            }
+            Node node = findNode(segments);
+            if (node != null && node.count > 0 && lockInfo.isDeep()) {
+                // The counts include the expired locks which haven't been swept yet.
+                removeExpiredLocks(node);
+                node = findNode(segments);
+                if (node != null && node.count > 0) {
+                    throw new DavException(DavServletResponse.SC_LOCKED, "A member of '" + path + "' is locked.");
+                }
+            }
+            XWikiDavLock lock = new XWikiDavLock(path, lockInfo.getOwner(), lockInfo.isDeep(),
+                getTimeout(lockInfo.getTimeout()));
+            add(segments, lock);
+            return lock;
+        } finally {
+            this.treeLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public ActiveLock refreshLock(LockInfo lockInfo, String lockToken, DavResource resource) throws DavException
+    {
+        XWikiDavLock lock = getLock(resource.getResourcePath());
+        if (lock == null) {
+            throw new DavException(DavServletResponse.SC_PRECONDITION_FAILED);
+        } else if (!lock.isLockedByToken(lockToken)) {
+            throw new DavException(DavServletResponse.SC_LOCKED);
+        }
+        lock.setTimeout(getTimeout(lockInfo.getTimeout()));
+        return lock;
+    }
+
+    @Override
+    public void releaseLock(String lockToken, DavResource resource) throws DavException
+    {
+        String path = resource.getResourcePath();
+        XWikiDavLock lock = getLockByToken(lockToken, path);
+        if (lock == null) {
+            throw new DavException((getLock(path) == null) ? DavServletResponse.SC_PRECONDITION_FAILED
+                : DavServletResponse.SC_LOCKED);
+        }
+        this.treeLock.writeLock().lock();
+        try {
+            remove(getSegments(lock.getPath()), lock);
+        } finally {
+            this.treeLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public ActiveLock getLock(Type type, Scope scope, DavResource resource)
+    {
+        if (!(Type.WRITE.equals(type) && Scope.EXCLUSIVE.equals(scope))) {
+            return null;
+        }
+        return getLock(resource.getResourcePath());
+    }
+
+    @Override
+    public boolean hasLock(String lockToken, DavResource resource)
+    {
+        return getLockByToken(lockToken, resource.getResourcePath()) != null;
+    }
+
+    @Override
+    public int getLockCount()
+    {
+        return this.tokens.size();
+    }
+
+    /**
+     * Stops the removal of the expired locks.
+     */
+    @Override
+    public void dispose()
+    {
+        this.sweeper.shutdownNow();
+    }
+
+    /**
+     * @param path the path of a resource.
+     * @return the unexpired lock applying to the resource (its own lock, or the deep lock of an ancestor), null if
+     *         there's none.
+     */
+    private XWikiDavLock getLock(String path)
+    {
+        List<String> segments = getSegments(path);
+        this.treeLock.readLock().lock();
+        try {
+            return findLock(segments);
+        } finally {
+            this.treeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param lockToken a lock token.
+     * @param path the path of the resource the token is submitted for.
+     * @return the unexpired lock of the given token, if it applies to the given resource, null otherwise.
+     */
+    private XWikiDavLock getLockByToken(String lockToken, String path)
+    {
+        XWikiDavLock lock = (lockToken != null) ? this.tokens.get(lockToken) : null;
+        return (lock != null && !lock.isExpired() && lock.appliesTo(path)) ? lock : null;
+    }
+
+    /**
+     * Must be called while holding the tree lock.
+     *
+     * @param segments the segments of the path of a resource.
+     * @return the unexpired lock applying to the resource, null if there's none.
+     */
+    private XWikiDavLock findLock(List<String> segments)
+    {
+        Node node = this.root;
+        for (int i = 0; node != null; i++) {
+            XWikiDavLock lock = node.lock;
+            if (lock != null && !lock.isExpired() && (lock.isDeep() || i == segments.size())) {
+                return lock;
+            }
+            if (node.count == 0 || i == segments.size()) {
+                break;
+            }
+            node = node.children.get(segments.get(i));
+        }
+        return null;
+    }
+
+    /**
+     * Must be called while holding the tree lock.
+     *
+     * @param segments the segments of the path of a resource.
+     * @return the node of the resource, null if neither the resource nor its members are locked.
+     */
+    private Node findNode(List<String> segments)
+    {
+        Node node = this.root;
+        for (int i = 0; node != null && i < segments.size(); i++) {
+            node = node.children.get(segments.get(i));
+        }
+        return node;
+    }
+
+    /**
+     * Adds a lock to the tree and to the tokens, replacing the expired lock of the same resource if any. Must be
+     * called while holding the write lock of the tree.
+     *
+     * @param segments the segments of the path of the locked resource.
+     * @param lock the lock to add.
+     */
+    private void add(List<String> segments, XWikiDavLock lock)
+    {
+        Node node = findNode(segments);
+        if (node != null && node.lock != null) {
+            remove(segments, node.lock);
+        }
+        node = this.root;
+        node.count++;
+        for (String segment : segments) {
+            Node child = node.children.get(segment);
+            if (child == null) {
+                child = new Node();
+                node.children.put(segment, child);
+            }
+            node = child;
+            node.count++;
+        }
+        node.lock = lock;
+        this.tokens.put(lock.getToken(), lock);
+    }
+
+    /**
+     * Removes a lock from the tree and from the tokens, and the nodes which no longer hold any lock. Must be called
+     * while holding the write lock of the tree.
+     *
+     * @param segments the segments of the path of the locked resource.
+     * @param lock the lock to remove.
+     */
+    private void remove(List<String> segments, XWikiDavLock lock)
+    {
+        Node node = findNode(segments);
+        if (node == null || node.lock != lock) {
+            // Already removed, e.g. by the sweeper.
+            return;
+        }
+        node.lock = null;
+        node = this.root;
+        node.count--;
+        for (String segment : segments) {
+            Node child = node.children.get(segment);
+            if (--child.count == 0) {
+                node.children.remove(segment);
+                break;
+            }
+            node = child;
+        }
+        this.tokens.remove(lock.getToken());
+    }
+
+    /**
+     * Removes all the expired locks. Called periodically by the sweeper.
+     */
+    void removeExpiredLocks()
+    {
+        List<XWikiDavLock> expired = new ArrayList<XWikiDavLock>();
+        for (XWikiDavLock lock : this.tokens.values()) {
+            if (lock.isExpired()) {
+                expired.add(lock);
+            }
+        }
+        if (expired.isEmpty()) {
+            return;
+        }
+        this.treeLock.writeLock().lock();
+        try {
+            for (XWikiDavLock lock : expired) {
+                // The lock may have been refreshed in the meantime.
+                if (lock.isExpired()) {
+                    remove(getSegments(lock.getPath()), lock);
+                }
+            }
+        } finally {
+            this.treeLock.writeLock().unlock();
+        }
+        LOGGER.debug("Removed [{}] expired WebDAV locks, [{}] left", expired.size(), getLockCount());
+    }
+
+    /**
+     * Removes the expired locks of a resource and its members. Must be called while holding the write lock of the
+     * tree.
+     *
+     * @param node the node of the resource.
+     */
+    private void removeExpiredLocks(Node node)
+    {
+        List<XWikiDavLock> expired = new ArrayList<XWikiDavLock>();
+        collectExpiredLocks(node, expired);
+        for (XWikiDavLock lock : expired) {
+            remove(getSegments(lock.getPath()), lock);
+        }
+    }
+
+    /**
+     * @param node a node of the tree.
+     * @param expired receives the expired locks of the node and its descendants.
+     */
+    private void collectExpiredLocks(Node node, List<XWikiDavLock> expired)
+    {
+        if (node.lock != null && node.lock.isExpired()) {
+            expired.add(node.lock);
+        }
+        for (Node child : node.children.values()) {
+            collectExpiredLocks(child, expired);
+        }
+    }
+
+    /**
+     * @param requested the timeout requested by the client, in milliseconds.
+     * @return the timeout of the lock, bounded by the maximum timeout.
+     */
+    private long getTimeout(long requested)
+    {
+        if (requested <= 0 || requested == DavConstants.INFINITE_TIMEOUT || requested > this.maxTimeout) {
+            return this.maxTimeout;
+        }
+        return requested;
+    }
+
+    /**
+     * @param path the path of a resource.
+     * @return the non empty segments of the path.
+     */
+    private static List<String> getSegments(String path)
+    {
+        List<String> segments = new ArrayList<String>();
+        for (String segment : path.split(SEPARATOR)) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.jackrabbit.webdav.DavException;
+
+/**
+ * Keeps the temporary resources in the memory of the node: the members in the {@link XWikiDavUserStorage} of each user
+ * and the contents in a {@link XWikiDavTempStore}. The members of a user are forgotten when the user's storage is
+ * evicted after being idle, which also releases their contents.
+ *
+ * @version $Id$
+ */
+public class XWikiDavMemoryTempResourceStore implements XWikiDavTempResourceStore
+{
+    /**
+     * The storages of the users, holding the members.
+     */
+    private final XWikiDavUserStorageCache storages;
+
+    /**
+     * The store of the contents.
+     */
+    private final XWikiDavTempStore contents;
+
+    /**
+     * @param storages the storages of the users, holding the members.
+     * @param contents the store of the contents.
+     */
+    public XWikiDavMemoryTempResourceStore(XWikiDavUserStorageCache storages, XWikiDavTempStore contents)
+    {
+        this.storages = storages;
+        this.contents = contents;
+    }
+
+    @Override
+    public Map<String, XWikiDavVirtualMember> getMembers(String user, String path)
+    {
+        Map<String, XWikiDavVirtualMember> members = getResourcesMap(user).get(path);
+        return (members != null) ? Collections.unmodifiableMap(members) : null;
+    }
+
+    @Override
+    public XWikiDavVirtualMember putMember(String user, String path, Collection<XWikiDavVirtualMember> initialMembers,
+        XWikiDavVirtualMember member)
+    {
+        return getOrCreateMembers(user, path, initialMembers).put(member.getName(), member);
+    }
+
+    @Override
+    public XWikiDavVirtualMember removeMember(String user, String path,
+        Collection<XWikiDavVirtualMember> initialMembers, String name)
+    {
+        return getOrCreateMembers(user, path, initialMembers).remove(name);
+    }
+
+    @Override
+    public void removeMembers(String user, String path)
+    {
+        // The storage releases the contents of the removed members.
+        getResourcesMap(user).remove(path);
+    }
+
+    @Override
+    public XWikiDavTempContent storeContent(String user, String path, InputStream in) throws DavException
+    {
+        return this.contents.store(in, user);
+    }
+
+    @Override
+    public void dispose()
+    {
+        // The storages and the contents are released with the caches holding them.
+    }
+
+    private Map<String, Map<String, XWikiDavVirtualMember>> getResourcesMap(String user)
+    {
+        return this.storages.get(user).getResourcesMap();
+    }
+
+    private Map<String, XWikiDavVirtualMember> getOrCreateMembers(String user, String path,
+        Collection<XWikiDavVirtualMember> initialMembers)
+    {
+        Map<String, Map<String, XWikiDavVirtualMember>> resourcesMap = getResourcesMap(user);
+        // The storage is shared by the parallel requests of the user, the members are listed by some of them while
+        // being modified by others.
+        synchronized (resourcesMap) {
+            Map<String, XWikiDavVirtualMember> members = resourcesMap.get(path);
+            if (members == null) {
+                members = new ConcurrentSkipListMap<String, XWikiDavVirtualMember>();
+                for (XWikiDavVirtualMember member : initialMembers) {
+                    members.put(member.getName(), member);
+                }
+                resourcesMap.put(path, members);
+            }
+            return members;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Remembers, for a short time, the paths which didn't resolve to any resource. The file managers keep probing for
+ * files which don't exist ({@code desktop.ini}, {@code folder.jpg}, {@code AutoRun.inf}...) in every folder they show,
+ * and resolving such a path queries the store for each candidate page, space or attachment before failing.
+ * <p>
+ * A path may only start to resolve when a document is created or an attachment is added to a document, so the whole
+ * cache is emptied on these events; the other updates and the deletions keep it. The entries also expire after a few
+ * seconds, which bounds the staleness of the modifications which are not notified.
+ *
+ * @version $Id$
+ */
+public class XWikiDavMissingPathCache implements EventListener
+{
+    /**
+     * The name of this listener.
+     */
+    public static final String NAME = "XWikiDavMissingPathCache";
+
+    /**
+     * The events invalidating the cache.
+     */
+    private static final List<Event> EVENTS = Arrays.<Event>asList(new DocumentCreatedEvent(),
+        new DocumentUpdatedEvent());
+
+    /**
+     * The paths which didn't resolve, prefixed with their wiki.
+     */
+    private final Cache<Boolean> cache;
+
+    /**
+     * Creates a new missing path cache.
+     *
+     * @param cacheManager used to create the underlying cache.
+     * @param timeToLive the number of seconds during which a path is known as missing, 0 to disable the cache.
+     * @param size the maximum number of paths kept.
+     * @throws CacheException if the underlying cache cannot be created.
+     */
+    public XWikiDavMissingPathCache(CacheManager cacheManager, int timeToLive, int size) throws CacheException
+    {
+        if (timeToLive > 0 && size > 0) {
+            CacheConfiguration conf = new CacheConfiguration();
+            conf.setConfigurationId("webdav.missingPaths");
+            LRUEvictionConfiguration lec = new LRUEvictionConfiguration();
+            lec.setMaxEntries(size);
+            lec.setLifespan(timeToLive);
+            conf.put(LRUEvictionConfiguration.CONFIGURATIONID, lec);
+            this.cache = cacheManager.createNewCache(conf);
+        } else {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * @param wiki the wiki the path belongs to.
+     * @param path the path of a resource.
+     * @return true if the path recently failed to resolve.
+     */
+    public boolean isMissing(String wiki, String path)
+    {
+        return this.cache != null && this.cache.get(getKey(wiki, path)) != null;
+    }
+
+    /**
+     * Remembers that the given path doesn't resolve.
+     *
+     * @param wiki the wiki the path belongs to.
+     * @param path the path of a resource.
+     */
+    public void setMissing(String wiki, String path)
+    {
+        if (this.cache != null) {
+            this.cache.set(getKey(wiki, path), Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Releases the underlying cache.
+     */
+    public void dispose()
+    {
+        if (this.cache != null) {
+            this.cache.dispose();
+        }
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return EVENTS;
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (this.cache != null && (!(event instanceof DocumentUpdatedEvent) || addsAttachment(source))) {
+            this.cache.removeAll();
+        }
+    }
+
+    /**
+     * @param source the updated document.
+     * @return true if the update adds an attachment to the document (or renames one).
+     */
+    private boolean addsAttachment(Object source)
+    {
+        if (!(source instanceof XWikiDocument)) {
+            return true;
+        }
+        XWikiDocument original = ((XWikiDocument) source).getOriginalDocument();
+        if (original == null) {
+            return true;
+        }
+        for (XWikiAttachment attachment : ((XWikiDocument) source).getAttachmentList()) {
+            if (original.getAttachment(attachment.getFilename()) == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String getKey(String wiki, String path)
+    {
+        return wiki + ':' + path;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.DavResource;
+import org.apache.jackrabbit.webdav.DavResourceIterator;
+import org.apache.jackrabbit.webdav.MultiStatusResponse;
+import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Writes a PROPFIND multistatus response incrementally: each {@code <response>} element is serialized as soon as its
+ * resource has been produced, instead of building the whole {@code MultiStatus} DOM before writing the first byte.
+ * The memory used by a listing is thus bounded by the size of a single response and the client starts receiving
+ * data right away.
+ * <p>
+ * The closing {@code </multistatus>} tag is only written by {@link #finish()}, once the whole listing has been
+ * produced: a listing which fails halfway is left unterminated, so that the client sees an invalid response instead of
+ * a complete but shorter one.
+ * <p>
+ * Like {@code MultiStatus}, which keys its responses by href, a resource is written once even if it is listed several
+ * times (e.g. a child page and an attachment with the same name): only the first response is written, the later ones
+ * are dropped. The hrefs written so far are the only state kept for the whole listing.
+ *
+ * @version $Id$
+ */
+public class XWikiDavMultiStatusWriter
+{
+    /**
+     * The prefix of the namespace declaration attributes.
+     */
+    private static final String XMLNS = "xmlns";
+
+    /**
+     * Where the XML is written.
+     */
+    private final Writer writer;
+
+    /**
+     * Used to create the documents holding each response element.
+     */
+    private final DocumentBuilder documentBuilder;
+
+    /**
+     * The namespaces declared by the enclosing elements, innermost first.
+     */
+    private final Deque<Map<String, String>> namespaces = new ArrayDeque<Map<String, String>>();
+
+    /**
+     * The hrefs of the responses written so far.
+     */
+    private final Set<String> hrefs = new HashSet<String>();
+
+    /**
+     * Whether at least one response has been written (and flushed) already.
+     */
+    private boolean started;
+
+    /**
+     * Starts a multistatus response on the given stream.
+     *
+     * @param out where the multistatus response is written.
+     * @throws IOException if the beginning of the response cannot be written.
+     */
+    public XWikiDavMultiStatusWriter(OutputStream out) throws IOException
+    {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            this.documentBuilder = factory.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IOException("Failed to create the XML document builder", e);
+        }
+        Map<String, String> rootNamespaces = new HashMap<String, String>();
+        rootNamespaces.put(DavConstants.NAMESPACE.getPrefix(), DavConstants.NAMESPACE.getURI());
+        this.namespaces.push(rootNamespaces);
+
+        this.writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        this.writer.write('<');
+        this.writer.write(getMultiStatusName());
+        writeNamespace(DavConstants.NAMESPACE.getPrefix(), DavConstants.NAMESPACE.getURI());
+        this.writer.write('>');
+    }
+
+    /**
+     * Writes the properties of the given resource and, depending on the depth, the ones of its members. This is the
+     * streaming counterpart of {@code MultiStatus#addResourceProperties}. A resource whose href has been written
+     * already is skipped, with its members.
+     *
+     * @param resource the resource.
+     * @param propNameSet the requested properties.
+     * @param propFindType the type of PROPFIND request.
+     * @param depth the depth of the request.
+     * @throws IOException if an error occurs while writing.
+     */
+    public void writeResourceProperties(DavResource resource, DavPropertyNameSet propNameSet, int propFindType,
+        int depth) throws IOException
+    {
+        if (!this.hrefs.add(resource.getHref())) {
+            return;
+        }
+        writeResponse(new MultiStatusResponse(resource, propNameSet, propFindType));
+        if (depth > 0 && resource.isCollection()) {
+            DavResourceIterator members = resource.getMembers();
+            while (members != null && members.hasNext()) {
+                writeResourceProperties(members.nextResource(), propNameSet, propFindType, depth - 1);
+            }
+        }
+    }
+
+    /**
+     * Writes a single response element, unless a response with the same href has been written already.
+     *
+     * @param response the response to write.
+     * @throws IOException if an error occurs while writing.
+     */
+    public void write(MultiStatusResponse response) throws IOException
+    {
+        if (this.hrefs.add(response.getHref())) {
+            writeResponse(response);
+        }
+    }
+
+    /**
+     * Ends the multistatus response and flushes it. Must only be called once all the responses have been written.
+     *
+     * @throws IOException if an error occurs while writing.
+     */
+    public void finish() throws IOException
+    {
+        this.writer.write("</");
+        this.writer.write(getMultiStatusName());
+        this.writer.write('>');
+        this.writer.flush();
+    }
+
+    private void writeResponse(MultiStatusResponse response) throws IOException
+    {
+        writeElement(response.toXml(this.documentBuilder.newDocument()));
+        if (!this.started) {
+            // Let the client start processing the response as soon as possible.
+            this.writer.flush();
+            this.started = true;
+        }
+    }
+
+    private String getMultiStatusName()
+    {
+        return DavConstants.NAMESPACE.getPrefix() + ':' + DavConstants.XML_MULTISTATUS;
+    }
+
+    private void writeElement(Element element) throws IOException
+    {
+        Map<String, String> declared = new HashMap<String, String>();
+        this.namespaces.push(declared);
+
+        this.writer.write('<');
+        this.writer.write(element.getNodeName());
+        declareIfNeeded(element.getPrefix(), element.getNamespaceURI(), declared);
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            String name = attribute.getNodeName();
+            if (XMLNS.equals(name) || XMLNS.equals(attribute.getPrefix())) {
+                String prefix = XMLNS.equals(name) ? "" : attribute.getLocalName();
+                if (!attribute.getValue().equals(lookupNamespace(prefix))) {
+                    declared.put(prefix, attribute.getValue());
+                    writeNamespace(prefix, attribute.getValue());
+                }
+            } else {
+                if (attribute.getPrefix() != null) {
+                    declareIfNeeded(attribute.getPrefix(), attribute.getNamespaceURI(), declared);
+                }
+                this.writer.write(' ');
+                this.writer.write(name);
+                this.writer.write("=\"");
+                writeEscaped(attribute.getValue(), true);
+                this.writer.write('"');
+            }
+        }
+
+        NodeList children = element.getChildNodes();
+        if (children.getLength() == 0) {
+            this.writer.write("/>");
+        } else {
+            this.writer.write('>');
+            for (int i = 0; i < children.getLength(); i++) {
+                Node child = children.item(i);
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    writeElement((Element) child);
+                } else if (child.getNodeType() == Node.TEXT_NODE
+                    || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                    writeEscaped(child.getNodeValue(), false);
+                }
+            }
+            this.writer.write("</");
+            this.writer.write(element.getNodeName());
+            this.writer.write('>');
+        }
+
+        this.namespaces.pop();
+    }
+
+    private void declareIfNeeded(String prefix, String uri, Map<String, String> declared) throws IOException
+    {
+        String actualPrefix = (prefix != null) ? prefix : "";
+        String actualUri = (uri != null) ? uri : "";
+        String current = lookupNamespace(actualPrefix);
+        if (!actualUri.equals(current != null ? current : "")) {
+            declared.put(actualPrefix, actualUri);
+            writeNamespace(actualPrefix, actualUri);
+        }
+    }
+
+    private String lookupNamespace(String prefix)
+    {
+        for (Map<String, String> scope : this.namespaces) {
+            String uri = scope.get(prefix);
+            if (uri != null) {
+                return uri;
+            }
+        }
+        return null;
+    }
+
+    private void writeNamespace(String prefix, String uri) throws IOException
+    {
+        this.writer.write(' ');
+        this.writer.write(XMLNS);
+        if (!prefix.isEmpty()) {
+            this.writer.write(':');
+            this.writer.write(prefix);
+        }
+        this.writer.write("=\"");
+        writeEscaped(uri, true);
+        this.writer.write('"');
+    }
+
+    private void writeEscaped(String text, boolean attribute) throws IOException
+    {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    this.writer.write("&lt;");
+                    break;
+                case '>':
+                    this.writer.write("&gt;");
+                    break;
+                case '&':
+                    this.writer.write("&amp;");
+                    break;
+                case '"':
+                    this.writer.write(attribute ? "&quot;" : "\"");
+                    break;
+                default:
+                    this.writer.write(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.util.Date;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The few columns of a document needed to list it as a WebDAV collection, read with a projection query instead of
+ * loading the whole document.
+ *
+ * @version $Id$
+ */
+public class XWikiDavPageMetadata
+{
+    /**
+     * The reference of the document.
+     */
+    private final DocumentReference reference;
+
+    /**
+     * The creation date of the document.
+     */
+    private final Date creationDate;
+
+    /**
+     * The date of the last update of the document content.
+     */
+    private final Date contentUpdateDate;
+
+    /**
+     * The language of the document, empty for the default one.
+     */
+    private final String language;
+
+    /**
+     * The version of the document.
+     */
+    private final String version;
+
+    /**
+     * @param reference the reference of the document.
+     * @param creationDate the creation date of the document.
+     * @param contentUpdateDate the date of the last update of the document content.
+     * @param language the language of the document, empty for the default one.
+     * @param version the version of the document.
+     */
+    public XWikiDavPageMetadata(DocumentReference reference, Date creationDate, Date contentUpdateDate,
+        String language, String version)
+    {
+        this.reference = reference;
+        this.creationDate = creationDate;
+        this.contentUpdateDate = contentUpdateDate;
+        this.language = (language != null) ? language : "";
+        this.version = version;
+    }
+
+    /**
+     * @return the reference of the document.
+     */
+    public DocumentReference getReference()
+    {
+        return reference;
+    }
+
+    /**
+     * @return the creation date of the document.
+     */
+    public Date getCreationDate()
+    {
+        return creationDate;
+    }
+
+    /**
+     * @return the date of the last update of the document content.
+     */
+    public Date getContentUpdateDate()
+    {
+        return contentUpdateDate;
+    }
+
+    /**
+     * @return the language of the document, empty for the default one.
+     */
+    public String getLanguage()
+    {
+        return language;
+    }
+
+    /**
+     * @return the version of the document.
+     */
+    public String getVersion()
+    {
+        return version;
+    }
+}
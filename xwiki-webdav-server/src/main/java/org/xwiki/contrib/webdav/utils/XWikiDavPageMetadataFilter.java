@@ -0,0 +1,72 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.query.QueryFilter;
+
+/**
+ * Query filter transforming the rows of a {@link #COLUMNS} projection into {@link XWikiDavPageMetadata}.
+ *
+ * @version $Id$
+ */
+public class XWikiDavPageMetadataFilter implements QueryFilter
+{
+    /**
+     * The columns the query must select, in this order.
+     */
+    public static final String COLUMNS =
+        "doc.fullName, doc.creationDate, doc.contentUpdateDate, doc.language, doc.version";
+
+    /**
+     * Resolver for the document names.
+     */
+    private final DocumentReferenceResolver<String> resolver;
+
+    /**
+     * @param resolver the resolver used for the document names.
+     */
+    public XWikiDavPageMetadataFilter(DocumentReferenceResolver<String> resolver)
+    {
+        this.resolver = resolver;
+    }
+
+    @Override
+    public String filterStatement(String statement, String language)
+    {
+        return statement;
+    }
+
+    @Override
+    public List filterResults(List results)
+    {
+        List<XWikiDavPageMetadata> metadata = new ArrayList<XWikiDavPageMetadata>(results.size());
+        for (Object result : results) {
+            Object[] row = (Object[]) result;
+            metadata.add(new XWikiDavPageMetadata(this.resolver.resolve((String) row[0]), (Date) row[1],
+                (Date) row[2], (String) row[3], (String) row[4]));
+        }
+        return metadata;
+    }
+}
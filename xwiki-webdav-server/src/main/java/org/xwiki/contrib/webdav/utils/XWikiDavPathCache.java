@@ -0,0 +1,274 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Remembers, across requests, what the path segments of the WebDAV URLs resolve to. Resolving a segment means asking
+ * the store whether it names a page or a space; once this is known, the type of the cached reference (document or
+ * space) tells it directly and the deep paths used by mounted drives are resolved without any query.
+ * <p>
+ * Only the segments that resolved to an existing entity are cached, and the paths are indexed by the entity they
+ * resolve to so that an event only removes the paths of the entities it affects:
+ * <ul>
+ * <li>creating a document makes its page take precedence over the space of the same name, next to it;</li>
+ * <li>deleting a document removes its page, and may remove its spaces if it was their last document.</li>
+ * </ul>
+ * There's no event for the spaces themselves: they only exist through their documents, so they are invalidated from
+ * the events of these documents. The whole cache is only emptied for an event without a document.
+ * <p>
+ * The cache has a generation, incremented by each event, so that a path resolved before an event is not stored after
+ * it. The paths also expire after a while, in case an entry evicted while being stored again lost its index.
+ *
+ * @version $Id$
+ */
+public class XWikiDavPathCache implements EventListener, CacheEntryListener<EntityReference>
+{
+    /**
+     * The name of this listener.
+     */
+    public static final String NAME = "XWikiDavPathCache";
+
+    /**
+     * The events invalidating the cache.
+     */
+    private static final List<Event> EVENTS = Arrays.<Event>asList(new DocumentCreatedEvent(),
+        new DocumentDeletedEvent());
+
+    /**
+     * The number of seconds after which a path is resolved again.
+     */
+    private static final int LIFESPAN = 3600;
+
+    /**
+     * Resource path to the reference of the entity it resolves to.
+     */
+    private final Cache<EntityReference> cache;
+
+    /**
+     * Reference of a cached entity to the keys of the paths resolving to it.
+     */
+    private final ConcurrentMap<EntityReference, Set<String>> keys =
+        new ConcurrentHashMap<EntityReference, Set<String>>();
+
+    /**
+     * Incremented by each event, before the paths are removed.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Creates a new path cache.
+     *
+     * @param cacheManager used to create the underlying cache.
+     * @param size the maximum number of paths kept, 0 to disable the cache.
+     * @throws CacheException if the underlying cache cannot be created.
+     */
+    public XWikiDavPathCache(CacheManager cacheManager, int size) throws CacheException
+    {
+        if (size > 0) {
+            CacheConfiguration conf = new CacheConfiguration();
+            conf.setConfigurationId("webdav.paths");
+            LRUEvictionConfiguration lec = new LRUEvictionConfiguration();
+            lec.setMaxEntries(size);
+            lec.setLifespan(LIFESPAN);
+            conf.put(LRUEvictionConfiguration.CONFIGURATIONID, lec);
+            this.cache = cacheManager.createNewCache(conf);
+            this.cache.addCacheEntryListener(this);
+        } else {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * @param wiki the wiki the path belongs to.
+     * @param path the path of a resource.
+     * @return the reference of the entity the path resolves to, or null if it has to be resolved.
+     */
+    public EntityReference get(String wiki, String path)
+    {
+        return (this.cache != null) ? this.cache.get(getKey(wiki, path)) : null;
+    }
+
+    /**
+     * @return the current generation of the cache, to be read before checking whether the entities exist, and then
+     *         given to {@link #put(String, String, EntityReference, long)}.
+     */
+    public long getGeneration()
+    {
+        return this.generation.get();
+    }
+
+    /**
+     * Remembers what the given path resolves to, unless an entity has been created or deleted since the given
+     * generation.
+     *
+     * @param wiki the wiki the path belongs to.
+     * @param path the path of a resource.
+     * @param reference the reference of the existing entity the path resolves to.
+     * @param resolutionGeneration the {@link #getGeneration() generation} of the cache read before checking whether
+     *            the entity exists.
+     */
+    public void put(String wiki, String path, EntityReference reference, long resolutionGeneration)
+    {
+        if (this.cache != null && resolutionGeneration == getGeneration()) {
+            final String key = getKey(wiki, path);
+            // Indexed first, so that the entry is never in the cache without being known from its reference. The
+            // index of a reference is updated atomically, it cannot be dropped by a concurrent removal meanwhile.
+            this.keys.compute(reference, new BiFunction<EntityReference, Set<String>, Set<String>>()
+            {
+                @Override
+                public Set<String> apply(EntityReference entity, Set<String> referenceKeys)
+                {
+                    Set<String> newKeys = (referenceKeys != null) ? referenceKeys : ConcurrentHashMap.newKeySet();
+                    newKeys.add(key);
+                    return newKeys;
+                }
+            });
+            this.cache.set(key, reference);
+            if (resolutionGeneration != getGeneration()) {
+                // An event may have removed the paths of the entity before this one was stored.
+                this.cache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Releases the underlying cache.
+     */
+    public void dispose()
+    {
+        if (this.cache != null) {
+            this.cache.dispose();
+        }
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return EVENTS;
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (this.cache == null) {
+            return;
+        }
+        // Incremented first, so that a path being resolved meanwhile isn't stored.
+        this.generation.incrementAndGet();
+        if (!(source instanceof XWikiDocument)) {
+            this.cache.removeAll();
+            this.keys.clear();
+            return;
+        }
+        DocumentReference documentReference = ((XWikiDocument) source).getDocumentReference();
+        remove(documentReference);
+        // The space of the same name, which the page now hides (or doesn't hide anymore).
+        remove(new SpaceReference(documentReference.getName(), documentReference.getParent()));
+        if (event instanceof DocumentDeletedEvent) {
+            // The spaces of the document may have been removed with their last document.
+            for (EntityReference space = documentReference.getParent(); space != null
+                && space.getType() == EntityType.SPACE; space = space.getParent()) {
+                remove(space);
+            }
+        }
+    }
+
+    @Override
+    public void cacheEntryAdded(CacheEntryEvent<EntityReference> event)
+    {
+        // Nothing to do.
+    }
+
+    @Override
+    public void cacheEntryModified(CacheEntryEvent<EntityReference> event)
+    {
+        // Nothing to do: a path which now resolves to another entity stays indexed under the previous one too, whose
+        // invalidation only costs a new resolution.
+    }
+
+    @Override
+    public void cacheEntryRemoved(CacheEntryEvent<EntityReference> event)
+    {
+        final String key = event.getEntry().getKey();
+        this.keys.computeIfPresent(event.getEntry().getValue(),
+            new BiFunction<EntityReference, Set<String>, Set<String>>()
+            {
+                @Override
+                public Set<String> apply(EntityReference entity, Set<String> referenceKeys)
+                {
+                    referenceKeys.remove(key);
+                    // Dropped only while no path is being added to it.
+                    return referenceKeys.isEmpty() ? null : referenceKeys;
+                }
+            });
+    }
+
+    /**
+     * Removes the paths resolving to the given entity.
+     *
+     * @param reference the reference of the entity.
+     */
+    private void remove(EntityReference reference)
+    {
+        Set<String> referenceKeys = this.keys.remove(reference);
+        if (referenceKeys != null) {
+            for (String key : referenceKeys) {
+                this.cache.remove(key);
+            }
+        }
+    }
+
+    private String getKey(String wiki, String path)
+    {
+        return wiki + ':' + path;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.util.Date;
+
+import org.apache.jackrabbit.webdav.property.DavPropertySet;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.model.reference.EntityReference;
+
+/**
+ * Remembers, across requests and users, the live properties of the pages, attachments and wiki files (dates, ETag,
+ * content type, language and length). They only depend on the entity, so the users listing the same collection share
+ * them instead of formatting the dates, detecting the content type or serializing the document again.
+ * <p>
+ * The entries are keyed by the version of the document or attachment they are computed from, which changes with each
+ * modification, so they never need to be invalidated. The creation date is part of the key too, since a document
+ * deleted and created again starts over from the same version. The cached sets must not be modified: they are copied
+ * into the properties of each resource.
+ *
+ * @version $Id$
+ */
+public class XWikiDavPropertyCache
+{
+    /**
+     * The live properties, by entity and version.
+     */
+    private final Cache<DavPropertySet> cache;
+
+    /**
+     * Creates a new property cache.
+     *
+     * @param cacheManager used to create the underlying cache.
+     * @param size the maximum number of property sets kept, 0 to disable the cache.
+     * @throws CacheException if the underlying cache cannot be created.
+     */
+    public XWikiDavPropertyCache(CacheManager cacheManager, int size) throws CacheException
+    {
+        if (size > 0) {
+            CacheConfiguration conf = new CacheConfiguration();
+            conf.setConfigurationId("webdav.properties");
+            LRUEvictionConfiguration lec = new LRUEvictionConfiguration();
+            lec.setMaxEntries(size);
+            conf.put(LRUEvictionConfiguration.CONFIGURATIONID, lec);
+            this.cache = cacheManager.createNewCache(conf);
+        } else {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * @param kind the kind of resource the properties are computed for, e.g. the name of a wiki file.
+     * @param reference the reference of the entity.
+     * @param version the version of the document or attachment.
+     * @param creationDate the creation date of the document or attachment.
+     * @return the key of the properties of the given entity.
+     */
+    public String getKey(String kind, EntityReference reference, String version, Date creationDate)
+    {
+        return kind + ':' + reference + '@' + version + '/' + ((creationDate != null) ? creationDate.getTime() : 0);
+    }
+
+    /**
+     * @param key the key of the properties, see {@link #getKey(String, EntityReference, String, Date)}.
+     * @return the properties, which must not be modified, or null if they have to be computed.
+     */
+    public DavPropertySet get(String key)
+    {
+        return (this.cache != null) ? this.cache.get(key) : null;
+    }
+
+    /**
+     * Remembers the properties of an entity.
+     *
+     * @param key the key of the properties, see {@link #getKey(String, EntityReference, String, Date)}.
+     * @param properties the properties, which must not be modified afterwards.
+     */
+    public void put(String key, DavPropertySet properties)
+    {
+        if (this.cache != null) {
+            this.cache.set(key, properties);
+        }
+    }
+
+    /**
+     * Releases the underlying cache.
+     */
+    public void dispose()
+    {
+        if (this.cache != null) {
+            this.cache.dispose();
+        }
+    }
+}
@@ -19,6 +19,9 @@
  */
 package org.xwiki.contrib.webdav.utils;
 
+import java.net.URI;
+import java.net.URISyntaxException;
+
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 
@@ -41,6 +44,17 @@ import org.xwiki.contrib.webdav.resources.views.RootView;
  */
 public class XWikiDavResourceFactory implements DavResourceFactory
 {
+    /**
+     * Name of the request attribute holding the context of the current request, shared by all the resources created
+     * for the request (e.g. the destination of a MOVE or a COPY).
+     */
+    public static final String CONTEXT_ATTRIBUTE = XWikiDavContext.class.getName();
+
+    /**
+     * Name of the header holding the destination of MOVE and COPY requests.
+     */
+    private static final String DESTINATION_HEADER = "Destination";
+
     /**
      * The servlet context.
      */
@@ -51,13 +65,34 @@ public class XWikiDavResourceFactory implements DavResourceFactory
      */
     private final LockManager lockManager;
 
+    /**
+     * The components shared by all the webdav requests.
+     */
+    private final XWikiDavComponents components;
+
     /**
      * Create a new {@link XWikiDavResourceFactory}.
+     * 
+     * @deprecated use {@link #XWikiDavResourceFactory(ServletContext, XWikiDavComponents)} instead.
      */
+    @Deprecated
     public XWikiDavResourceFactory(ServletContext servletContext) throws ServletException
     {
-        this.lockManager = new SimpleLockManager();
+        this(servletContext, null);
+    }
+
+    /**
+     * Create a new {@link XWikiDavResourceFactory}.
+     * 
+     * @param servletContext the servlet context.
+     * @param components the components shared by all the webdav requests, looked up once by the servlet.
+     */
+    public XWikiDavResourceFactory(ServletContext servletContext, XWikiDavComponents components)
+        throws ServletException
+    {
+        this.lockManager = (components != null) ? components.getLockManager() : new SimpleLockManager();
         this.servletContext = servletContext;
+        this.components = components;
     }
 
     @Override
@@ -79,24 +114,64 @@ public class XWikiDavResourceFactory implements DavResourceFactory
         String baseURI = XWikiDavResource.BASE_URI;
         DavResourceLocator rootLocator =
             locator.getFactory().createResourceLocator(locator.getPrefix(), baseURI, baseURI);
-        XWikiDavContext context = new XWikiDavContext(request, response, servletContext, this, session, lockManager);
-        XWikiDavResource root = new RootView();
-        root.init("webdav", rootLocator, context);
+        XWikiDavContext context = (request != null) ? (XWikiDavContext) request.getAttribute(CONTEXT_ATTRIBUTE) : null;
+        if (context == null) {
+            context = (components != null)
+                ? new XWikiDavContext(request, response, servletContext, this, session, lockManager, components)
+                : new XWikiDavContext(request, response, servletContext, this, session, lockManager);
+            if (request != null) {
+                request.setAttribute(CONTEXT_ATTRIBUTE, context);
+            }
+        }
         String workspacePath = locator.getWorkspacePath();
         // we cannot use the locator.getResourcePath() as this returns the path already url decoded
         // instead we have to use the raw request URI - see WEBDAV-18
-        String[] tokens = extractTokens(request);
+        String[] tokens = extractTokens(locator, request);
         if (workspacePath != null && workspacePath.equals(baseURI) && (tokens.length >= 2)) {
-            return (tokens.length == 2) ? root : root.decode(tokens, 2);
+            String resourcePath = String.join(XWikiDavUtils.URL_SEPARATOR, tokens);
+            XWikiDavResource resource = context.getResolvedResource(resourcePath);
+            if (resource == null) {
+                // The misses are only remembered for the requests which cannot create the resource.
+                boolean readOnly = context.isReadOnlyRequest();
+                if (readOnly && context.isMissingPath(resourcePath)) {
+                    throw new XWikiDavClientException(DavServletResponse.SC_NOT_FOUND);
+                }
+                XWikiDavResource root = new RootView();
+                root.init("webdav", rootLocator, context);
+                resource = (tokens.length == 2) ? root : root.decode(tokens, 2);
+                if (resource == null) {
+                    if (readOnly) {
+                        context.setMissingPath(resourcePath);
+                    } else if (context.isCreateResourceRequest()) {
+                        // The parent collection of the resource to create doesn't exist.
+                        throw new XWikiDavClientException(DavServletResponse.SC_CONFLICT);
+                    }
+                    throw new XWikiDavClientException(DavServletResponse.SC_NOT_FOUND);
+                }
+                context.setResolvedResource(resourcePath, resource);
+            }
+            return resource;
         } else {
             throw new DavException(DavServletResponse.SC_BAD_REQUEST);
         }
     }
 
-    private String[] extractTokens(DavServletRequest request)
+    private String[] extractTokens(DavResourceLocator locator, DavServletRequest request) throws DavException
     {
         String webAppContext = request.getContextPath();
         String requestUri = request.getRequestURI();
+        String destination = request.getHeader(DESTINATION_HEADER);
+        if (destination != null && !locator.equals(request.getRequestLocator())) {
+            // the raw destination path is given by the header
+            try {
+                requestUri = new URI(destination).getRawPath();
+            } catch (URISyntaxException e) {
+                throw new DavException(DavServletResponse.SC_BAD_REQUEST, e);
+            }
+            if (requestUri == null || !requestUri.startsWith(webAppContext)) {
+                throw new DavException(DavServletResponse.SC_BAD_GATEWAY);
+            }
+        }
         requestUri = requestUri.substring(webAppContext.length(), requestUri.length());
         // strip trailing slashes
         requestUri = requestUri.replace("/+$", "");
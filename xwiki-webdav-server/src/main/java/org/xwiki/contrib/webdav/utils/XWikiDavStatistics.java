@@ -0,0 +1,169 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the statistics of the shared WebDAV services (temporary store, locks, user storages) as a standard MBean of
+ * the platform MBean server, where they can be read with any JMX client or collected by a monitoring agent.
+ *
+ * @version $Id$
+ */
+public class XWikiDavStatistics implements XWikiDavStatisticsMBean
+{
+    /**
+     * The name under which the statistics are registered.
+     */
+    public static final String OBJECT_NAME = "org.xwiki.contrib.webdav:type=Statistics";
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(XWikiDavStatistics.class);
+
+    /**
+     * The store of the temporary file contents.
+     */
+    private final XWikiDavTempStore tempStore;
+
+    /**
+     * The manager of the WebDAV locks.
+     */
+    private final XWikiDavLockManager lockManager;
+
+    /**
+     * The session storages of the users.
+     */
+    private final XWikiDavUserStorageCache userStorageCache;
+
+    /**
+     * The name under which this instance has been registered, null if it isn't registered.
+     */
+    private ObjectName registeredName;
+
+    /**
+     * @param tempStore the store of the temporary file contents.
+     * @param lockManager the manager of the WebDAV locks.
+     * @param userStorageCache the session storages of the users.
+     */
+    public XWikiDavStatistics(XWikiDavTempStore tempStore, XWikiDavLockManager lockManager,
+        XWikiDavUserStorageCache userStorageCache)
+    {
+        this.tempStore = tempStore;
+        this.lockManager = lockManager;
+        this.userStorageCache = userStorageCache;
+    }
+
+    @Override
+    public long getTempMemoryBytes()
+    {
+        return this.tempStore.getMemoryBytes();
+    }
+
+    @Override
+    public long getTempDiskBytes()
+    {
+        return this.tempStore.getDiskBytes();
+    }
+
+    @Override
+    public long getTempEvictions()
+    {
+        return this.tempStore.getEvictions();
+    }
+
+    @Override
+    public long getTempRejections()
+    {
+        return this.tempStore.getRejections();
+    }
+
+    @Override
+    public int getLockCount()
+    {
+        return this.lockManager.getLockCount();
+    }
+
+    @Override
+    public long getUserStorageEntries()
+    {
+        return this.userStorageCache.getEntries();
+    }
+
+    @Override
+    public long getUserStorageUserEvictions()
+    {
+        return this.userStorageCache.getUserEvictions();
+    }
+
+    @Override
+    public long getUserStorageGlobalEvictions()
+    {
+        return this.userStorageCache.getGlobalEvictions();
+    }
+
+    @Override
+    public long getUserStorageEvictions()
+    {
+        return this.userStorageCache.getStorageEvictions();
+    }
+
+    /**
+     * Registers the statistics in the platform MBean server. Failing to do so (e.g. because another web application of
+     * the same JVM registered its own) is only logged, since the statistics are not needed to serve the requests.
+     */
+    public void register()
+    {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            this.registeredName = name;
+        } catch (InstanceAlreadyExistsException e) {
+            LOGGER.warn("The WebDAV statistics are already registered under [{}]", OBJECT_NAME);
+        } catch (JMException e) {
+            LOGGER.warn("Failed to register the WebDAV statistics: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the statistics from the platform MBean server, if they have been registered.
+     */
+    public void unregister()
+    {
+        if (this.registeredName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(this.registeredName);
+            } catch (JMException e) {
+                LOGGER.warn("Failed to unregister the WebDAV statistics: {}", e.getMessage());
+            }
+            this.registeredName = null;
+        }
+    }
+}
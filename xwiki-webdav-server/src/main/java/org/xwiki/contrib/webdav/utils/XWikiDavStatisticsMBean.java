@@ -0,0 +1,73 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+/**
+ * The statistics of the WebDAV module published through JMX, under the {@link XWikiDavStatistics#OBJECT_NAME} name.
+ *
+ * @version $Id$
+ */
+public interface XWikiDavStatisticsMBean
+{
+    /**
+     * @return the number of bytes of temporary files kept in memory by all the users together.
+     */
+    long getTempMemoryBytes();
+
+    /**
+     * @return the number of bytes of temporary files stored on disk by all the users together.
+     */
+    long getTempDiskBytes();
+
+    /**
+     * @return the number of temporary files evicted from memory to stay within the memory budget.
+     */
+    long getTempEvictions();
+
+    /**
+     * @return the number of uploads rejected because they exceeded the quota of their user.
+     */
+    long getTempRejections();
+
+    /**
+     * @return the number of WebDAV locks held, including the expired locks which haven't been removed yet.
+     */
+    int getLockCount();
+
+    /**
+     * @return the number of entries held by the session storages of all the users together.
+     */
+    long getUserStorageEntries();
+
+    /**
+     * @return the number of session storage entries evicted because the storage of their user was full.
+     */
+    long getUserStorageUserEvictions();
+
+    /**
+     * @return the number of session storage entries evicted because all the storages together were full.
+     */
+    long getUserStorageGlobalEvictions();
+
+    /**
+     * @return the number of session storages evicted, because they were idle or there were too many of them.
+     */
+    long getUserStorageEvictions();
+}
@@ -0,0 +1,269 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The content of a temporary file, created by {@link XWikiDavTempStore}. Small contents are kept in memory, larger
+ * ones in a file of the work directory. The content never changes: writing a temporary file again creates a new
+ * content, and renaming it keeps the same one.
+ * <p>
+ * A content kept in memory may be evicted by the store when the memory budget is exceeded; the temporary file it
+ * belongs to then ceases to exist.
+ *
+ * @version $Id$
+ */
+public final class XWikiDavTempContent
+{
+    /**
+     * The empty content.
+     */
+    public static final XWikiDavTempContent EMPTY = new XWikiDavTempContent(null, null, new byte[0]);
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(XWikiDavTempContent.class);
+
+    /**
+     * The store accounting for this content, null for the empty content.
+     */
+    private final XWikiDavTempStore store;
+
+    /**
+     * The user who has written this content.
+     */
+    private final String user;
+
+    /**
+     * The content, when it is kept in memory. Set to null when the content is evicted.
+     */
+    private volatile byte[] data;
+
+    /**
+     * The file holding the content, when it is not kept in memory.
+     */
+    private final File file;
+
+    /**
+     * The length of the content, in bytes.
+     */
+    private final long length;
+
+    /**
+     * Whether the content has been released, i.e. disposed or evicted.
+     */
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * Whether the content has been evicted.
+     */
+    private volatile boolean evicted;
+
+    /**
+     * The number of times the content has been written or read.
+     */
+    private final AtomicInteger accessCount = new AtomicInteger(1);
+
+    /**
+     * The time of the last access to the content.
+     */
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    /**
+     * @param store the store accounting for this content.
+     * @param user the user who has written this content.
+     * @param data the content, kept in memory. It is not copied and must not be modified afterwards.
+     */
+    XWikiDavTempContent(XWikiDavTempStore store, String user, byte[] data)
+    {
+        this.store = store;
+        this.user = user;
+        this.data = data;
+        this.file = null;
+        this.length = data.length;
+    }
+
+    /**
+     * @param store the store accounting for this content, null if it isn't accounted.
+     * @param user the user who has written this content.
+     * @param file the file holding the content, which becomes owned by this instance.
+     * @param length the length of the content, in bytes.
+     */
+    XWikiDavTempContent(XWikiDavTempStore store, String user, File file, long length)
+    {
+        this.store = store;
+        this.user = user;
+        this.data = null;
+        this.file = file;
+        this.length = length;
+    }
+
+    /**
+     * @return the length of the content, in bytes.
+     */
+    public long getLength()
+    {
+        return length;
+    }
+
+    /**
+     * @return true if the content is kept in memory, false if it is stored in a file.
+     */
+    public boolean isInMemory()
+    {
+        return file == null;
+    }
+
+    /**
+     * @return true if the content has been evicted by the store to stay within its memory budget.
+     */
+    public boolean isEvicted()
+    {
+        return evicted;
+    }
+
+    /**
+     * Writes the content to the given stream. File contents are transferred by the file channel, without going
+     * through an intermediate buffer of this class.
+     *
+     * @param out the stream to write to.
+     * @throws IOException if the content cannot be read or written, or has been evicted.
+     */
+    public void writeTo(OutputStream out) throws IOException
+    {
+        this.accessCount.incrementAndGet();
+        this.lastAccess = System.currentTimeMillis();
+        if (this.file == null) {
+            byte[] bytes = this.data;
+            if (bytes == null) {
+                throw new IOException("The content of the temporary file has been evicted.");
+            }
+            out.write(bytes);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = 0;
+            while (position < this.length) {
+                position += channel.transferTo(position, this.length - position, target);
+            }
+        }
+    }
+
+    /**
+     * Two contents are equal when they are the same instance or are held by the same file, which happens when a store
+     * shared by several nodes reads the members again for each request.
+     */
+    @Override
+    public boolean equals(Object object)
+    {
+        if (object == this) {
+            return true;
+        }
+        return object instanceof XWikiDavTempContent && this.file != null
+            && this.file.equals(((XWikiDavTempContent) object).file);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return (this.file != null) ? this.file.hashCode() : System.identityHashCode(this);
+    }
+
+    /**
+     * Releases the file holding the content, if any. Called when the temporary file is deleted or overwritten.
+     */
+    public void dispose()
+    {
+        if (this.released.compareAndSet(false, true)) {
+            if (this.store != null) {
+                this.store.released(this);
+            }
+            if (this.file != null) {
+                try {
+                    Files.deleteIfExists(this.file.toPath());
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to delete the temporary file [{}]: {}", this.file, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the content kept in memory.
+     *
+     * @return true if the content has been evicted, false if it had already been released.
+     */
+    boolean evict()
+    {
+        if (this.released.compareAndSet(false, true)) {
+            this.evicted = true;
+            this.data = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the file holding the content, null if it is kept in memory.
+     */
+    File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return the user who has written this content.
+     */
+    String getUser()
+    {
+        return user;
+    }
+
+    /**
+     * @return the number of times the content has been written or read.
+     */
+    int getAccessCount()
+    {
+        return accessCount.get();
+    }
+
+    /**
+     * @return the time of the last access to the content.
+     */
+    long getLastAccess()
+    {
+        return lastAccess;
+    }
+}
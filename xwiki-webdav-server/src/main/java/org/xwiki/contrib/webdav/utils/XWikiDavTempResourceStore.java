@@ -0,0 +1,95 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.jackrabbit.webdav.DavException;
+
+/**
+ * Stores the temporary resources of the WebDAV sessions: the snapshots of the virtual members of each collection
+ * (temporary files and the wiki files of the pages), by user and collection path, and the content of the temporary
+ * files. The implementation is chosen with the {@code webdav.tempStore} configuration property: {@code memory} (the
+ * default) keeps them in the memory of the node, {@code directory} in a directory which may be shared by several
+ * nodes.
+ * <p>
+ * The members of a collection are stored only once they are modified. Their list is then initialized with the
+ * initial members of the collection, which are passed to the modifying methods.
+ *
+ * @version $Id$
+ */
+public interface XWikiDavTempResourceStore extends XWikiDavDisposable
+{
+    /**
+     * @param user the name of the user.
+     * @param path the path of the collection.
+     * @return the members stored for the given collection, by name, or null if they have never been modified. The
+     *         returned map must not be modified.
+     */
+    Map<String, XWikiDavVirtualMember> getMembers(String user, String path);
+
+    /**
+     * Stores a member, replacing the member of the same name if any. The content of the replaced member is not
+     * released.
+     *
+     * @param user the name of the user.
+     * @param path the path of the collection.
+     * @param initialMembers the initial members of the collection, stored first if its members are not stored yet.
+     * @param member the member to store.
+     * @return the replaced member, null if there was none.
+     * @throws DavException if the member cannot be stored.
+     */
+    XWikiDavVirtualMember putMember(String user, String path, Collection<XWikiDavVirtualMember> initialMembers,
+        XWikiDavVirtualMember member) throws DavException;
+
+    /**
+     * Removes a member. Its content is not released.
+     *
+     * @param user the name of the user.
+     * @param path the path of the collection.
+     * @param initialMembers the initial members of the collection, stored first if its members are not stored yet.
+     * @param name the name of the member to remove.
+     * @return the removed member, null if there was none.
+     * @throws DavException if the member cannot be removed.
+     */
+    XWikiDavVirtualMember removeMember(String user, String path, Collection<XWikiDavVirtualMember> initialMembers,
+        String name) throws DavException;
+
+    /**
+     * Forgets all the members of a collection, releasing their contents.
+     *
+     * @param user the name of the user.
+     * @param path the path of the collection.
+     */
+    void removeMembers(String user, String path);
+
+    /**
+     * Reads the given stream until its end and stores its content.
+     *
+     * @param user the name of the user writing the content.
+     * @param path the path of the collection the temporary file belongs to.
+     * @param in the stream to read.
+     * @return the stored content.
+     * @throws DavException if the content cannot be stored, or exceeds the quota of the user.
+     */
+    XWikiDavTempContent storeContent(String user, String path, InputStream in) throws DavException;
+}
@@ -0,0 +1,348 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+
+/**
+ * Stores the content of the temporary files written by the clients (lock files, backups, resource forks...). The
+ * contents up to a given size are kept in memory, the larger ones are streamed to files of a work directory so that
+ * big uploads don't end up in the heap.
+ * <p>
+ * The contents kept in memory by all the users together are limited by a memory budget: when it is exceeded, the
+ * least valuable contents are evicted, together with the temporary files they belong to. The value of a content is the
+ * number of times it has been accessed, halved every minute since its last access, so that both frequently and
+ * recently used files are kept. Each user is also limited to a quota of bytes (in memory and on disk): the uploads
+ * exceeding it are rejected with {@code 507 Insufficient Storage}. The counters of the store are published through JMX
+ * by {@link XWikiDavStatistics}.
+ *
+ * @version $Id$
+ */
+public class XWikiDavTempStore
+{
+    /**
+     * Prefix of the files created by this store.
+     */
+    private static final String FILE_PREFIX = "webdav-";
+
+    /**
+     * The time, in milliseconds, after which the value of a content which isn't accessed is halved.
+     */
+    private static final double VALUE_HALF_LIFE = 60 * 1000;
+
+    /**
+     * The directory holding the files.
+     */
+    private final File directory;
+
+    /**
+     * The maximum size of the contents kept in memory, in bytes.
+     */
+    private final int memoryThreshold;
+
+    /**
+     * The maximum number of bytes kept in memory by all the users together, 0 for no limit.
+     */
+    private final long memoryBudget;
+
+    /**
+     * The maximum number of bytes stored for each user, 0 for no limit.
+     */
+    private final long userQuota;
+
+    /**
+     * The contents currently kept in memory.
+     */
+    private final Set<XWikiDavTempContent> memoryContents =
+        Collections.newSetFromMap(new ConcurrentHashMap<XWikiDavTempContent, Boolean>());
+
+    /**
+     * The number of bytes stored for each user.
+     */
+    private final ConcurrentMap<String, AtomicLong> userBytes = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * The number of bytes kept in memory.
+     */
+    private final AtomicLong memoryBytes = new AtomicLong();
+
+    /**
+     * The number of bytes stored in files.
+     */
+    private final AtomicLong diskBytes = new AtomicLong();
+
+    /**
+     * The number of contents evicted.
+     */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * The number of uploads rejected because of the user quota.
+     */
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * Creates a new store.
+     *
+     * @param directory the directory holding the files, usually the work directory of the servlet, null to use the
+     *            default temporary directory.
+     * @param memoryThreshold the maximum size of the contents kept in memory, in bytes.
+     * @param memoryBudget the maximum number of bytes kept in memory by all the users together, 0 for no limit.
+     * @param userQuota the maximum number of bytes stored for each user, 0 for no limit.
+     */
+    public XWikiDavTempStore(File directory, int memoryThreshold, long memoryBudget, long userQuota)
+    {
+        this.directory = directory;
+        this.memoryThreshold = Math.max(memoryThreshold, 0);
+        this.memoryBudget = memoryBudget;
+        this.userQuota = userQuota;
+    }
+
+    /**
+     * Reads the given stream until its end and stores its content.
+     *
+     * @param in the stream to read.
+     * @param user the user writing the content, whose quota is checked.
+     * @return the stored content.
+     * @throws DavException if the quota of the user is exceeded ({@code 507}), or if the stream cannot be read or the
+     *             content cannot be stored.
+     */
+    public XWikiDavTempContent store(InputStream in, String user) throws DavException
+    {
+        try {
+            // Read one more byte than the threshold to know if the content fits in memory.
+            byte[] buffer = new byte[this.memoryThreshold + 1];
+            int read = IOUtils.read(in, buffer);
+            if (read == 0) {
+                return XWikiDavTempContent.EMPTY;
+            } else if (read <= this.memoryThreshold) {
+                reserve(user, read);
+                XWikiDavTempContent content = new XWikiDavTempContent(this, user, Arrays.copyOf(buffer, read));
+                this.memoryContents.add(content);
+                this.memoryBytes.addAndGet(read);
+                evictIfNeeded(content);
+                return content;
+            } else {
+                return storeInFile(in, user, buffer, read);
+            }
+        } catch (IOException e) {
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, e);
+        }
+    }
+
+    /**
+     * @return the number of bytes kept in memory by all the users together.
+     */
+    public long getMemoryBytes()
+    {
+        return this.memoryBytes.get();
+    }
+
+    /**
+     * @return the number of bytes stored in files by all the users together.
+     */
+    public long getDiskBytes()
+    {
+        return this.diskBytes.get();
+    }
+
+    /**
+     * @param user the name of a user.
+     * @return the number of bytes stored for the given user.
+     */
+    public long getUserBytes(String user)
+    {
+        AtomicLong bytes = this.userBytes.get(user);
+        return (bytes != null) ? bytes.get() : 0;
+    }
+
+    /**
+     * @return the number of contents evicted to stay within the memory budget.
+     */
+    public long getEvictions()
+    {
+        return this.evictions.get();
+    }
+
+    /**
+     * @return the number of uploads rejected because they exceeded the quota of their user.
+     */
+    public long getRejections()
+    {
+        return this.rejections.get();
+    }
+
+    /**
+     * Called when a content is disposed.
+     *
+     * @param content the disposed content.
+     */
+    void released(XWikiDavTempContent content)
+    {
+        if (content.isInMemory()) {
+            if (this.memoryContents.remove(content)) {
+                this.memoryBytes.addAndGet(-content.getLength());
+            }
+        } else {
+            this.diskBytes.addAndGet(-content.getLength());
+        }
+        getUserCounter(content.getUser()).addAndGet(-content.getLength());
+    }
+
+    private XWikiDavTempContent storeInFile(InputStream in, String user, byte[] buffer, int read)
+        throws IOException, DavException
+    {
+        long allowed = (this.userQuota > 0) ? this.userQuota - getUserBytes(user) : Long.MAX_VALUE;
+        if (read > allowed) {
+            throw reject();
+        }
+        File file = File.createTempFile(FILE_PREFIX, null, this.directory);
+        boolean stored = false;
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(buffer, 0, read);
+            // Don't copy more than one byte above the quota.
+            long copied = IOUtils.copyLarge(in, out, 0, (allowed == Long.MAX_VALUE) ? -1 : allowed - read + 1);
+            long length = read + copied;
+            reserve(user, length);
+            this.diskBytes.addAndGet(length);
+            stored = true;
+            return new XWikiDavTempContent(this, user, file, length);
+        } finally {
+            if (!stored) {
+                file.delete();
+            }
+        }
+    }
+
+    private void reserve(String user, long length) throws DavException
+    {
+        AtomicLong counter = getUserCounter(user);
+        long total = counter.addAndGet(length);
+        if (this.userQuota > 0 && total > this.userQuota) {
+            counter.addAndGet(-length);
+            throw reject();
+        }
+    }
+
+    private DavException reject()
+    {
+        this.rejections.incrementAndGet();
+        return new DavException(DavServletResponse.SC_INSUFFICIENT_SPACE_ON_RESOURCE);
+    }
+
+    private AtomicLong getUserCounter(String user)
+    {
+        AtomicLong counter = this.userBytes.get(user);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = this.userBytes.putIfAbsent(user, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Evicts the least valuable contents until the memory budget is respected.
+     *
+     * @param added the content just added, which is not evicted.
+     */
+    private void evictIfNeeded(XWikiDavTempContent added)
+    {
+        if (this.memoryBudget <= 0 || this.memoryBytes.get() <= this.memoryBudget) {
+            return;
+        }
+        synchronized (this.memoryContents) {
+            if (this.memoryBytes.get() <= this.memoryBudget) {
+                return;
+            }
+            // Compute the values once, they change as the contents are accessed.
+            long now = System.currentTimeMillis();
+            List<Candidate> candidates = new ArrayList<Candidate>(this.memoryContents.size());
+            for (XWikiDavTempContent content : this.memoryContents) {
+                if (content != added) {
+                    candidates.add(new Candidate(content, now));
+                }
+            }
+            Collections.sort(candidates);
+            for (Candidate candidate : candidates) {
+                if (this.memoryBytes.get() <= this.memoryBudget) {
+                    break;
+                }
+                XWikiDavTempContent content = candidate.content;
+                if (content.evict()) {
+                    this.memoryContents.remove(content);
+                    this.memoryBytes.addAndGet(-content.getLength());
+                    getUserCounter(content.getUser()).addAndGet(-content.getLength());
+                    this.evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * A content which may be evicted, with its value at the time the eviction started.
+     */
+    private static final class Candidate implements Comparable<Candidate>
+    {
+        /**
+         * The content.
+         */
+        private final XWikiDavTempContent content;
+
+        /**
+         * The value of the content.
+         */
+        private final double value;
+
+        /**
+         * @param content the content.
+         * @param now the current time.
+         */
+        Candidate(XWikiDavTempContent content, long now)
+        {
+            this.content = content;
+            this.value = content.getAccessCount() * Math.pow(0.5, (now - content.getLastAccess()) / VALUE_HALF_LIFE);
+        }
+
+        @Override
+        public int compareTo(Candidate other)
+        {
+            return Double.compare(this.value, other.value);
+        }
+    }
+}
@@ -19,39 +19,84 @@
  */
 package org.xwiki.contrib.webdav.utils;
 
-import java.util.HashMap;
-import java.util.List;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.apache.jackrabbit.webdav.property.DavPropertySet;
-import org.xwiki.contrib.webdav.resources.XWikiDavResource;
 
+/**
+ * Holds the state of a user's WebDAV session which is not stored in the wiki: the snapshots of the virtual members
+ * (temporary files, wiki.txt / wiki.xml) and the virtual properties of the resources, by resource path.
+ * <p>
+ * The maps can be used by the parallel requests of the same user. Each one is bounded: when it is full, or when all
+ * the storages together hold more entries than allowed, the least recently used entry is evicted.
+ *
+ * @version $Id$
+ */
 public class XWikiDavUserStorage
 {
     /**
      * Class version
      */
     private static final long serialVersionUID = -2125494700535339990L;
-    
+
     /**
      * In-memory resources map for this particular user cache.
      */
-    private Map<String, List<XWikiDavResource>> resourcesMap;
-    
+    private final Map<String, Map<String, XWikiDavVirtualMember>> resourcesMap;
+
     /**
      * In-memory properties map for this particular user cache.
      */
-    private Map<String, DavPropertySet> propertiesMap;
-    
+    private final Map<String, DavPropertySet> propertiesMap;
+
+    /**
+     * The maximum number of entries of each map.
+     */
+    private final int maxEntries;
+
+    /**
+     * The cache holding this storage, which enforces the global limit and keeps the statistics. May be null.
+     */
+    private final XWikiDavUserStorageCache owner;
+
+    /**
+     * Default constructor, creating a storage without limits.
+     */
+    public XWikiDavUserStorage()
+    {
+        this(Integer.MAX_VALUE, null);
+    }
+
     /**
-     * Default constructor.
+     * Creates a bounded storage.
+     *
+     * @param maxEntries the maximum number of entries of each map.
+     * @param owner the cache holding this storage, which enforces the global limit and keeps the statistics, may be
+     *            null.
      */
-    public XWikiDavUserStorage(){
-        resourcesMap = new HashMap<String, List<XWikiDavResource>>();
-        propertiesMap = new HashMap<String, DavPropertySet>();
+    public XWikiDavUserStorage(int maxEntries, XWikiDavUserStorageCache owner)
+    {
+        this.maxEntries = maxEntries;
+        this.owner = owner;
+        this.resourcesMap = Collections.synchronizedMap(new BoundedMap<Map<String, XWikiDavVirtualMember>>()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void release(Map<String, XWikiDavVirtualMember> members)
+            {
+                // Delete the files holding the contents of the temporary files which are forgotten.
+                for (XWikiDavVirtualMember member : members.values()) {
+                    member.dispose();
+                }
+            }
+        });
+        this.propertiesMap = Collections.synchronizedMap(new BoundedMap<DavPropertySet>());
     }
 
-    public Map<String, List<XWikiDavResource>> getResourcesMap()
+    public Map<String, Map<String, XWikiDavVirtualMember>> getResourcesMap()
     {
         return resourcesMap;
     }
@@ -59,5 +104,105 @@ public class XWikiDavUserStorage
     public Map<String, DavPropertySet> getPropertiesMap()
     {
         return propertiesMap;
-    }    
+    }
+
+    /**
+     * @return the number of entries held by this storage.
+     */
+    public int size()
+    {
+        return this.resourcesMap.size() + this.propertiesMap.size();
+    }
+
+    /**
+     * Empties this storage, called when it is evicted.
+     */
+    public void dispose()
+    {
+        this.resourcesMap.clear();
+        this.propertiesMap.clear();
+    }
+
+    /**
+     * A map evicting its least recently used entry when it is full, reporting its size changes to the owner.
+     *
+     * @param <V> the type of the values.
+     */
+    private class BoundedMap<V> extends LinkedHashMap<String, V>
+    {
+        /**
+         * Class version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Creates an access-ordered map.
+         */
+        BoundedMap()
+        {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        public V put(String key, V value)
+        {
+            V previous = super.put(key, value);
+            if (previous == null && owner != null) {
+                owner.entryAdded();
+            } else if (previous != null && previous != value) {
+                release(previous);
+            }
+            return previous;
+        }
+
+        @Override
+        public V remove(Object key)
+        {
+            V previous = super.remove(key);
+            if (previous != null) {
+                release(previous);
+                if (owner != null) {
+                    owner.entriesRemoved(1);
+                }
+            }
+            return previous;
+        }
+
+        @Override
+        public void clear()
+        {
+            int size = size();
+            for (V value : values()) {
+                release(value);
+            }
+            super.clear();
+            if (owner != null) {
+                owner.entriesRemoved(size);
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest)
+        {
+            boolean evict = size() > maxEntries;
+            if (evict || (owner != null && size() > 1 && owner.isFull())) {
+                if (owner != null) {
+                    owner.entryEvicted(!evict);
+                }
+                release(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Called when a value is removed from the map, evicted or replaced.
+         *
+         * @param value the value which is no longer in the map.
+         */
+        protected void release(V value)
+        {
+            // Nothing to release by default.
+        }
+    }
 }
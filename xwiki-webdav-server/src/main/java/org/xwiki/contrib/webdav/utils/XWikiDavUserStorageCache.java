@@ -0,0 +1,221 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+
+/**
+ * Holds the {@link XWikiDavUserStorage} of the users having used WebDAV recently. The storages are evicted when they
+ * haven't been used for a while or when there are too many of them, and the total number of entries they hold is
+ * bounded. The number of evictions is recorded, and published through JMX by {@link XWikiDavStatistics}, so that the
+ * limits can be tuned.
+ *
+ * @version $Id$
+ */
+public class XWikiDavUserStorageCache implements CacheEntryListener<XWikiDavUserStorage>
+{
+    /**
+     * User name to storage.
+     */
+    private final Cache<XWikiDavUserStorage> cache;
+
+    /**
+     * The maximum number of entries of each map of a storage.
+     */
+    private final int maxEntriesPerUser;
+
+    /**
+     * The maximum number of entries held by all the storages together.
+     */
+    private final long maxEntries;
+
+    /**
+     * The number of entries held by all the storages together.
+     */
+    private final AtomicLong entries = new AtomicLong();
+
+    /**
+     * The number of entries evicted because a storage was full.
+     */
+    private final AtomicLong userEvictions = new AtomicLong();
+
+    /**
+     * The number of entries evicted because all the storages together were full.
+     */
+    private final AtomicLong globalEvictions = new AtomicLong();
+
+    /**
+     * The number of storages evicted.
+     */
+    private final AtomicLong storageEvictions = new AtomicLong();
+
+    /**
+     * Creates a new storage cache.
+     *
+     * @param cacheManager used to create the underlying cache.
+     * @param configuration the configuration of the WebDAV module, holding the limits.
+     * @throws CacheException if the underlying cache cannot be created.
+     */
+    public XWikiDavUserStorageCache(CacheManager cacheManager, XWikiDavConfiguration configuration)
+        throws CacheException
+    {
+        this.maxEntriesPerUser = configuration.getUserStorageMaxEntriesPerUser();
+        this.maxEntries = configuration.getUserStorageMaxEntries();
+        CacheConfiguration conf = new CacheConfiguration();
+        conf.setConfigurationId("webdav.userStorage");
+        LRUEvictionConfiguration lec = new LRUEvictionConfiguration();
+        lec.setMaxEntries(configuration.getUserStorageSize());
+        lec.setMaxIdle(configuration.getUserStorageMaxIdle());
+        conf.put(LRUEvictionConfiguration.CONFIGURATIONID, lec);
+        this.cache = cacheManager.createNewCache(conf);
+        this.cache.addCacheEntryListener(this);
+    }
+
+    /**
+     * Returns the storage of the given user, creating it if needed. Parallel requests of the same user always get the
+     * same storage.
+     *
+     * @param user the name of the user.
+     * @return the storage of the user.
+     */
+    public XWikiDavUserStorage get(String user)
+    {
+        XWikiDavUserStorage storage = this.cache.get(user);
+        if (storage == null) {
+            synchronized (this) {
+                storage = this.cache.get(user);
+                if (storage == null) {
+                    storage = new XWikiDavUserStorage(this.maxEntriesPerUser, this);
+                    this.cache.set(user, storage);
+                }
+            }
+        }
+        return storage;
+    }
+
+    /**
+     * Releases the underlying cache.
+     */
+    public void dispose()
+    {
+        this.cache.dispose();
+    }
+
+    /**
+     * @return the number of entries held by all the storages together.
+     */
+    public long getEntries()
+    {
+        return this.entries.get();
+    }
+
+    /**
+     * @return the number of entries evicted because the storage of their user was full.
+     */
+    public long getUserEvictions()
+    {
+        return this.userEvictions.get();
+    }
+
+    /**
+     * @return the number of entries evicted because all the storages together were full.
+     */
+    public long getGlobalEvictions()
+    {
+        return this.globalEvictions.get();
+    }
+
+    /**
+     * @return the number of storages evicted, because they were idle or there were too many of them.
+     */
+    public long getStorageEvictions()
+    {
+        return this.storageEvictions.get();
+    }
+
+    @Override
+    public void cacheEntryAdded(CacheEntryEvent<XWikiDavUserStorage> event)
+    {
+        // Nothing to do.
+    }
+
+    @Override
+    public void cacheEntryModified(CacheEntryEvent<XWikiDavUserStorage> event)
+    {
+        // Nothing to do.
+    }
+
+    @Override
+    public void cacheEntryRemoved(CacheEntryEvent<XWikiDavUserStorage> event)
+    {
+        this.storageEvictions.incrementAndGet();
+        event.getEntry().getValue().dispose();
+    }
+
+    /**
+     * @return true if all the storages together hold more entries than allowed.
+     */
+    boolean isFull()
+    {
+        return this.entries.get() > this.maxEntries;
+    }
+
+    /**
+     * Called when an entry is added to a storage.
+     */
+    void entryAdded()
+    {
+        this.entries.incrementAndGet();
+    }
+
+    /**
+     * Called when entries are removed from a storage.
+     *
+     * @param count the number of entries removed.
+     */
+    void entriesRemoved(int count)
+    {
+        this.entries.addAndGet(-count);
+    }
+
+    /**
+     * Called when an entry is evicted from a storage.
+     *
+     * @param global true if the entry is evicted because all the storages together are full, false if its storage is
+     *            full.
+     */
+    void entryEvicted(boolean global)
+    {
+        this.entries.decrementAndGet();
+        if (global) {
+            this.globalEvictions.incrementAndGet();
+        } else {
+            this.userEvictions.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+/**
+ * What the user's session remembers about a virtual member (a temporary file or collection, or one of the wiki files
+ * of a page). It doesn't reference any request, context or document: the resource is rebuilt from it against the
+ * context of each request.
+ *
+ * @version $Id$
+ */
+public final class XWikiDavVirtualMember
+{
+    /**
+     * The name of the member.
+     */
+    private final String name;
+
+    /**
+     * Whether the member is one of the wiki files of a page, whose content is read from the page.
+     */
+    private final boolean wikiFile;
+
+    /**
+     * Whether the member is a temporary collection.
+     */
+    private final boolean collection;
+
+    /**
+     * The content of the temporary file, null if none has been written.
+     */
+    private final XWikiDavTempContent content;
+
+    /**
+     * Whether the temporary resource has actually been written (PUT / MKCOL) by the client.
+     */
+    private final boolean created;
+
+    /**
+     * The time of creation of the temporary resource.
+     */
+    private final long creationTime;
+
+    /**
+     * The time of the last modification of the temporary resource.
+     */
+    private final long modificationTime;
+
+    /**
+     * Creates the snapshot of a temporary resource.
+     *
+     * @param name the name of the resource.
+     * @param collection whether the resource is a collection.
+     * @param content the content of the file, null if none has been written.
+     * @param created whether the resource has actually been written by the client.
+     * @param creationTime the time of creation of the resource.
+     * @param modificationTime the time of the last modification of the resource.
+     */
+    public XWikiDavVirtualMember(String name, boolean collection, XWikiDavTempContent content, boolean created,
+        long creationTime, long modificationTime)
+    {
+        this(name, false, collection, content, created, creationTime, modificationTime);
+    }
+
+    private XWikiDavVirtualMember(String name, boolean wikiFile, boolean collection, XWikiDavTempContent content,
+        boolean created, long creationTime, long modificationTime)
+    {
+        this.name = name;
+        this.wikiFile = wikiFile;
+        this.collection = collection;
+        this.content = content;
+        this.created = created;
+        this.creationTime = creationTime;
+        this.modificationTime = modificationTime;
+    }
+
+    /**
+     * @param name the name of the wiki file.
+     * @return the snapshot of a wiki file of a page.
+     */
+    public static XWikiDavVirtualMember wikiFile(String name)
+    {
+        return new XWikiDavVirtualMember(name, true, false, null, true, 0, 0);
+    }
+
+    /**
+     * @return the name of the member.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return true if the member is one of the wiki files of a page, false if it is a temporary resource.
+     */
+    public boolean isWikiFile()
+    {
+        return wikiFile;
+    }
+
+    /**
+     * @return true if the member is a temporary collection.
+     */
+    public boolean isCollection()
+    {
+        return collection;
+    }
+
+    /**
+     * @return the content of the temporary file, null if none has been written.
+     */
+    public XWikiDavTempContent getContent()
+    {
+        return content;
+    }
+
+    /**
+     * @return true if the content of the temporary file has been evicted, in which case the member no longer exists.
+     */
+    public boolean isEvicted()
+    {
+        return content != null && content.isEvicted();
+    }
+
+    /**
+     * @return true if the temporary resource has actually been written by the client.
+     */
+    public boolean isCreated()
+    {
+        return created;
+    }
+
+    /**
+     * @return the time of creation of the temporary resource.
+     */
+    public long getCreationTime()
+    {
+        return creationTime;
+    }
+
+    /**
+     * @return the time of the last modification of the temporary resource.
+     */
+    public long getModificationTime()
+    {
+        return modificationTime;
+    }
+
+    /**
+     * Releases the content of the temporary file, called when the member is deleted or overwritten.
+     */
+    public void dispose()
+    {
+        if (content != null) {
+            content.dispose();
+        }
+    }
+}
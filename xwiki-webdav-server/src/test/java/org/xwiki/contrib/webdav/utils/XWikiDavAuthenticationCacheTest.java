@@ -0,0 +1,200 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.model.reference.EntityReference;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for {@link XWikiDavAuthenticationCache}.
+ *
+ * @version $Id$
+ */
+public class XWikiDavAuthenticationCacheTest
+{
+    private static final String CREDENTIALS = "Basic YWxpY2U6c2VjcmV0";
+
+    private static final String USER = "XWiki.Alice";
+
+    private static final int TIME_TO_LIVE = 300;
+
+    /**
+     * The entries of the mocked cache.
+     */
+    private final Map<String, String> entries = new HashMap<String, String>();
+
+    private CacheManager cacheManager;
+
+    private XWikiDavAuthenticationCache authenticationCache;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        Cache<String> cache = mock(Cache.class);
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return entries.get(invocation.getArguments()[0]);
+            }
+        }).when(cache).get(anyString());
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                entries.put((String) invocation.getArguments()[0], (String) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(cache).set(anyString(), anyString());
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                entries.clear();
+                return null;
+            }
+        }).when(cache).removeAll();
+        this.cacheManager = mock(CacheManager.class);
+        doReturn(cache).when(this.cacheManager).createNewCache(any(CacheConfiguration.class));
+
+        this.authenticationCache = new XWikiDavAuthenticationCache(this.cacheManager, TIME_TO_LIVE, 100);
+    }
+
+    @Test
+    public void putAndGet()
+    {
+        this.authenticationCache.put(CREDENTIALS, USER);
+
+        assertEquals(USER, this.authenticationCache.get(CREDENTIALS));
+        // The name of the scheme is case-insensitive.
+        this.authenticationCache.put("basic Ym9iOnNlY3JldA==", "XWiki.Bob");
+        assertEquals("XWiki.Bob", this.authenticationCache.get("basic Ym9iOnNlY3JldA=="));
+    }
+
+    @Test
+    public void miss()
+    {
+        this.authenticationCache.put(CREDENTIALS, USER);
+
+        assertNull(this.authenticationCache.get("Basic YWxpY2U6d3Jvbmc="));
+        assertNull(this.authenticationCache.get(null));
+        // The other schemes are never cached.
+        this.authenticationCache.put("Bearer token", USER);
+        assertNull(this.authenticationCache.get("Bearer token"));
+        assertEquals(1, this.entries.size());
+    }
+
+    @Test
+    public void credentialsAreNotStored()
+    {
+        this.authenticationCache.put(CREDENTIALS, USER);
+
+        for (String key : this.entries.keySet()) {
+            assertEquals(-1, key.indexOf(CREDENTIALS.substring(6)));
+        }
+    }
+
+    @Test
+    public void entriesExpire() throws Exception
+    {
+        ArgumentCaptor<CacheConfiguration> configuration = ArgumentCaptor.forClass(CacheConfiguration.class);
+        verify(this.cacheManager).createNewCache(configuration.capture());
+
+        LRUEvictionConfiguration eviction =
+            (LRUEvictionConfiguration) configuration.getValue().get(LRUEvictionConfiguration.CONFIGURATIONID);
+        assertEquals(TIME_TO_LIVE, eviction.getLifespan());
+        assertEquals(100, eviction.getMaxEntries());
+    }
+
+    @Test
+    public void disabled() throws Exception
+    {
+        CacheManager otherCacheManager = mock(CacheManager.class);
+        XWikiDavAuthenticationCache disabled = new XWikiDavAuthenticationCache(otherCacheManager, 0, 100);
+
+        disabled.put(CREDENTIALS, USER);
+
+        assertNull(disabled.get(CREDENTIALS));
+        verify(otherCacheManager, never()).createNewCache(any(CacheConfiguration.class));
+    }
+
+    @Test
+    public void profileChangeEmptiesTheCache()
+    {
+        this.authenticationCache.put(CREDENTIALS, USER);
+
+        this.authenticationCache.onEvent(new DocumentUpdatedEvent(), mock(XWikiDocument.class), null);
+        assertEquals(USER, this.authenticationCache.get(CREDENTIALS));
+
+        this.authenticationCache.onEvent(new DocumentUpdatedEvent(), getProfile(), null);
+        assertNull(this.authenticationCache.get(CREDENTIALS));
+    }
+
+    @Test
+    public void profileDeletionEmptiesTheCache()
+    {
+        this.authenticationCache.put(CREDENTIALS, USER);
+        // A deleted document is empty, the profile is its original document.
+        XWikiDocument deleted = mock(XWikiDocument.class);
+        XWikiDocument profile = getProfile();
+        doReturn(profile).when(deleted).getOriginalDocument();
+
+        this.authenticationCache.onEvent(new DocumentDeletedEvent(), deleted, null);
+
+        assertNull(this.authenticationCache.get(CREDENTIALS));
+    }
+
+    private XWikiDocument getProfile()
+    {
+        XWikiDocument profile = mock(XWikiDocument.class);
+        doReturn(mock(BaseObject.class)).when(profile).getXObject(any(EntityReference.class));
+        return profile;
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavResource;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.apache.jackrabbit.webdav.lock.ActiveLock;
+import org.apache.jackrabbit.webdav.lock.LockInfo;
+import org.apache.jackrabbit.webdav.lock.Scope;
+import org.apache.jackrabbit.webdav.lock.Type;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xwiki.contrib.webdav.resources.XWikiDavResource;
+import org.xwiki.model.reference.WikiReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link XWikiDavDirectoryLockManager}, with two managers sharing the same directory like two nodes of a
+ * cluster.
+ *
+ * @version $Id$
+ */
+public class XWikiDavDirectoryLockManagerTest
+{
+    /**
+     * The timeout, in milliseconds, of the locks which are expected to expire during a test.
+     */
+    private static final long SHORT_TIMEOUT = 1;
+
+    private static final String MAIN = "/spaces/Main";
+
+    private static final String WEB_HOME = "/spaces/Main/WebHome";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private XWikiDavDirectoryLockManager node;
+
+    private XWikiDavDirectoryLockManager otherNode;
+
+    @Before
+    public void setUp()
+    {
+        // The sweeper never runs during the tests, and the read-only lookups always use the cached locks.
+        this.node = new XWikiDavDirectoryLockManager(this.folder.getRoot(), 3600, 3600, 3600);
+        this.otherNode = new XWikiDavDirectoryLockManager(this.folder.getRoot(), 3600, 3600, 3600);
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.node.dispose();
+        this.otherNode.dispose();
+    }
+
+    @Test
+    public void lockAndRelease() throws Exception
+    {
+        DavResource resource = getResource(WEB_HOME, false);
+        ActiveLock lock = this.node.createLock(getLockInfo(false, 0), resource);
+
+        assertLockToken(lock, this.otherNode.getLock(Type.WRITE, Scope.EXCLUSIVE, resource));
+        assertTrue(this.otherNode.hasLock(lock.getToken(), resource));
+        assertEquals(1, this.otherNode.getLockCount());
+
+        this.otherNode.releaseLock(lock.getToken(), resource);
+
+        assertNull(this.node.getLock(Type.WRITE, Scope.EXCLUSIVE, resource));
+        assertFalse(this.node.hasLock(lock.getToken(), resource));
+        assertEquals(0, this.node.getLockCount());
+    }
+
+    @Test
+    public void locksSurviveRestart() throws Exception
+    {
+        DavResource resource = getResource(WEB_HOME, true);
+        ActiveLock lock = this.node.createLock(getLockInfo(false, 0), resource);
+        this.node.dispose();
+
+        this.node = new XWikiDavDirectoryLockManager(this.folder.getRoot(), 3600, 3600, 3600);
+
+        ActiveLock restored = this.node.getLock(Type.WRITE, Scope.EXCLUSIVE, resource);
+        assertLockToken(lock, restored);
+        assertEquals("owner", restored.getOwner());
+    }
+
+    @Test
+    public void hierarchyIsCheckedAcrossNodes() throws Exception
+    {
+        DavResource collection = getResource(MAIN, false);
+        DavResource member = getResource("/spaces/Main/Sub/WebHome", false);
+        ActiveLock memberLock = this.node.createLock(getLockInfo(false, 0), member);
+
+        assertLocked(this.otherNode, collection, true);
+        // The collection itself isn't locked.
+        ActiveLock collectionLock = this.otherNode.createLock(getLockInfo(false, 0), collection);
+        this.node.releaseLock(collectionLock.getToken(), collection);
+        this.otherNode.releaseLock(memberLock.getToken(), member);
+
+        ActiveLock deepLock = this.otherNode.createLock(getLockInfo(true, 0), collection);
+        assertLockToken(deepLock, this.node.getLock(Type.WRITE, Scope.EXCLUSIVE, member));
+        assertTrue(this.node.hasLock(deepLock.getToken(), member));
+        assertLocked(this.node, member, false);
+        // A resource whose name starts with the name of the collection is not a member.
+        assertNull(this.node.getLock(Type.WRITE, Scope.EXCLUSIVE, getResource("/spaces/MainPage", false)));
+    }
+
+    @Test
+    public void releaseWithWrongToken() throws Exception
+    {
+        DavResource resource = getResource(WEB_HOME, false);
+        ActiveLock lock = this.node.createLock(getLockInfo(false, 0), resource);
+
+        try {
+            this.otherNode.releaseLock("opaquelocktoken:wrong", resource);
+            fail();
+        } catch (DavException e) {
+            assertEquals(DavServletResponse.SC_LOCKED, e.getErrorCode());
+        }
+        try {
+            this.otherNode.releaseLock(lock.getToken(), getResource("/spaces/Main/Other", false));
+            fail();
+        } catch (DavException e) {
+            assertEquals(DavServletResponse.SC_PRECONDITION_FAILED, e.getErrorCode());
+        }
+        assertLockToken(lock, this.node.getLock(Type.WRITE, Scope.EXCLUSIVE, resource));
+    }
+
+    @Test
+    public void concurrentLocksOfCollectionAndMember() throws Exception
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Callable<Boolean>> attempts = new ArrayList<Callable<Boolean>>();
+        for (int i = 0; i < 16; i++) {
+            final XWikiDavDirectoryLockManager lockManager = (i % 2 == 0) ? this.node : this.otherNode;
+            final boolean deep = i % 4 < 2;
+            final DavResource resource = getResource(deep ? MAIN : WEB_HOME, false);
+            attempts.add(new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call() throws Exception
+                {
+                    start.await();
+                    try {
+                        lockManager.createLock(getLockInfo(deep, 0), resource);
+                        return true;
+                    } catch (DavException e) {
+                        assertEquals(DavServletResponse.SC_LOCKED, e.getErrorCode());
+                        return false;
+                    }
+                }
+            });
+        }
+
+        int granted = 0;
+        for (Future<Boolean> result : run(attempts, start)) {
+            granted += result.get() ? 1 : 0;
+        }
+
+        // Either the collection or its member is locked, once.
+        assertEquals(1, granted);
+        assertEquals(1, this.node.getLockCount());
+    }
+
+    @Test
+    public void refreshKeepsTheResourceLocked() throws Exception
+    {
+        final DavResource resource = getResource(WEB_HOME, false);
+        final ActiveLock lock = this.node.createLock(getLockInfo(false, 0), resource);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Callable<Boolean>> attempts = new ArrayList<Callable<Boolean>>();
+        for (int i = 0; i < 8; i++) {
+            final boolean refresh = i % 2 == 0;
+            attempts.add(new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call() throws Exception
+                {
+                    start.await();
+                    for (int j = 0; j < 10; j++) {
+                        if (refresh) {
+                            // Never fails with 412: the lock is not removed while being refreshed.
+                            node.refreshLock(getLockInfo(false, 0), lock.getToken(), resource);
+                        } else {
+                            assertLocked(otherNode, resource, false);
+                        }
+                    }
+                    return true;
+                }
+            });
+        }
+
+        for (Future<Boolean> result : run(attempts, start)) {
+            assertTrue(result.get());
+        }
+        assertLockToken(lock, this.otherNode.getLock(Type.WRITE, Scope.EXCLUSIVE, resource));
+        assertEquals(1, this.otherNode.getLockCount());
+    }
+
+    @Test
+    public void expiredLockIsIgnoredAndReplaced() throws Exception
+    {
+        DavResource resource = getResource(WEB_HOME, false);
+        ActiveLock expired = this.node.createLock(getLockInfo(false, SHORT_TIMEOUT), resource);
+        waitForExpiration();
+
+        assertNull(this.otherNode.getLock(Type.WRITE, Scope.EXCLUSIVE, resource));
+        assertFalse(this.otherNode.hasLock(expired.getToken(), resource));
+
+        ActiveLock lock = this.otherNode.createLock(getLockInfo(false, 0), resource);
+        assertLockToken(lock, this.node.getLock(Type.WRITE, Scope.EXCLUSIVE, resource));
+        // The expired lock has been replaced, not kept next to the new one.
+        assertEquals(1, this.node.getLockCount());
+    }
+
+    @Test
+    public void deepLockWithExpiredMember() throws Exception
+    {
+        this.node.createLock(getLockInfo(false, SHORT_TIMEOUT), getResource("/spaces/Main/Sub/WebHome", false));
+        waitForExpiration();
+
+        assertNotNull(this.otherNode.createLock(getLockInfo(true, 0), getResource(MAIN, false)));
+        assertEquals(1, this.otherNode.getLockCount());
+    }
+
+    @Test
+    public void removeExpiredLocks() throws Exception
+    {
+        DavResource kept = getResource("/spaces/Main/Kept", false);
+        ActiveLock keptLock = this.node.createLock(getLockInfo(false, 0), kept);
+        this.node.createLock(getLockInfo(false, SHORT_TIMEOUT), getResource("/spaces/Main/Sub/Expired", false));
+        this.otherNode.createLock(getLockInfo(true, SHORT_TIMEOUT), getResource("/spaces/Other", false));
+        assertEquals(3, this.node.getLockCount());
+        waitForExpiration();
+
+        this.otherNode.removeExpiredLocks();
+
+        assertEquals(1, this.node.getLockCount());
+        assertLockToken(keptLock, this.node.getLock(Type.WRITE, Scope.EXCLUSIVE, kept));
+        assertNotNull(this.node.createLock(getLockInfo(true, 0), getResource("/spaces/Main/Sub", false)));
+    }
+
+    @Test
+    public void refreshExtendsTheLock() throws Exception
+    {
+        DavResource resource = getResource(WEB_HOME, false);
+        // Long enough not to expire before being refreshed.
+        ActiveLock lock = this.node.createLock(getLockInfo(false, 200), resource);
+
+        this.otherNode.refreshLock(getLockInfo(false, 0), lock.getToken(), resource);
+        Thread.sleep(250);
+        this.node.removeExpiredLocks();
+
+        assertLockToken(lock, this.node.getLock(Type.WRITE, Scope.EXCLUSIVE, resource));
+        assertEquals(1, this.node.getLockCount());
+    }
+
+    @Test
+    public void readOnlyRequestsUseTheCachedLocks() throws Exception
+    {
+        DavResource readResource = getResource(WEB_HOME, true);
+        DavResource writeResource = getResource(WEB_HOME, false);
+        // Caches the lock table of the wiki, without any lock.
+        assertNull(this.node.getLock(Type.WRITE, Scope.EXCLUSIVE, readResource));
+
+        ActiveLock lock = this.otherNode.createLock(getLockInfo(false, 0), writeResource);
+
+        // The lock taken on the other node is missed by the read-only requests until the cached table expires...
+        assertNull(this.node.getLock(Type.WRITE, Scope.EXCLUSIVE, readResource));
+        // ...but not by the requests which may modify the resource.
+        assertLockToken(lock, this.node.getLock(Type.WRITE, Scope.EXCLUSIVE, writeResource));
+        assertLockToken(lock, this.node.getLock(Type.WRITE, Scope.EXCLUSIVE, readResource));
+
+        // A token unknown to the cached table is looked up in the directory.
+        ActiveLock otherLock = this.otherNode.createLock(getLockInfo(false, 0), getResource(MAIN, false));
+        assertTrue(this.node.hasLock(otherLock.getToken(), getResource(MAIN, true)));
+        assertFalse(this.node.hasLock("opaquelocktoken:unknown", readResource));
+    }
+
+    @Test
+    public void noCache() throws Exception
+    {
+        XWikiDavDirectoryLockManager uncached = new XWikiDavDirectoryLockManager(this.folder.getRoot(), 3600, 3600, 0);
+        try {
+            DavResource resource = getResource(WEB_HOME, true);
+            assertNull(uncached.getLock(Type.WRITE, Scope.EXCLUSIVE, resource));
+
+            ActiveLock lock = this.node.createLock(getLockInfo(false, 0), getResource(WEB_HOME, false));
+
+            assertLockToken(lock, uncached.getLock(Type.WRITE, Scope.EXCLUSIVE, resource));
+        } finally {
+            uncached.dispose();
+        }
+    }
+
+    private List<Future<Boolean>> run(List<Callable<Boolean>> tasks, CountDownLatch start) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (Callable<Boolean> task : tasks) {
+                results.add(executor.submit(task));
+            }
+            start.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void assertLockToken(ActiveLock expected, ActiveLock actual)
+    {
+        assertNotNull(actual);
+        assertEquals(expected.getToken(), actual.getToken());
+    }
+
+    private void assertLocked(XWikiDavDirectoryLockManager lockManager, DavResource resource, boolean deep)
+    {
+        try {
+            lockManager.createLock(getLockInfo(deep, 0), resource);
+            fail("The resource [" + resource.getResourcePath() + "] should be locked");
+        } catch (DavException e) {
+            assertEquals(DavServletResponse.SC_LOCKED, e.getErrorCode());
+        }
+    }
+
+    /**
+     * @param path the path of the resource.
+     * @param readOnly whether the resource is accessed by a read-only request.
+     * @return the resource.
+     */
+    private DavResource getResource(String path, boolean readOnly)
+    {
+        XWikiDavContext context = mock(XWikiDavContext.class);
+        when(context.getWikiReference()).thenReturn(new WikiReference("xwiki"));
+        when(context.isReadOnlyRequest()).thenReturn(readOnly);
+        XWikiDavResource resource = mock(XWikiDavResource.class, path);
+        when(resource.getResourcePath()).thenReturn(path);
+        when(resource.getContext()).thenReturn(context);
+        return resource;
+    }
+
+    /**
+     * @param deep whether the lock applies to the members.
+     * @param timeout the timeout in milliseconds, 0 for the maximum timeout.
+     * @return the lock request.
+     */
+    private LockInfo getLockInfo(boolean deep, long timeout)
+    {
+        return new LockInfo(Scope.EXCLUSIVE, Type.WRITE, "owner", timeout, deep);
+    }
+
+    private void waitForExpiration() throws InterruptedException
+    {
+        Thread.sleep(SHORT_TIMEOUT + 20);
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link XWikiDavDirectoryTempResourceStore}, with two stores sharing the same directory like two nodes
+ * of a cluster.
+ *
+ * @version $Id$
+ */
+public class XWikiDavDirectoryTempResourceStoreTest
+{
+    private static final String USER = "XWiki.Alice";
+
+    private static final String OTHER_USER = "XWiki.Bob";
+
+    private static final String PATH = "/spaces/Main/WebHome";
+
+    private static final int QUOTA = 100;
+
+    /**
+     * The time to live of the temporary resources, in seconds.
+     */
+    private static final long TIME_TO_LIVE = 3600;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private XWikiDavDirectoryTempResourceStore store;
+
+    private XWikiDavDirectoryTempResourceStore otherStore;
+
+    @Before
+    public void setUp()
+    {
+        // The cleaner never runs during the tests, they remove the idle users themselves.
+        this.store = new XWikiDavDirectoryTempResourceStore(this.folder.getRoot(), TIME_TO_LIVE, QUOTA);
+        this.otherStore = new XWikiDavDirectoryTempResourceStore(this.folder.getRoot(), TIME_TO_LIVE, QUOTA);
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.store.dispose();
+        this.otherStore.dispose();
+    }
+
+    @Test
+    public void storeEmptyContent() throws Exception
+    {
+        assertSame(XWikiDavTempContent.EMPTY, this.store.storeContent(USER, PATH, getStream(0)));
+        assertEquals(0, countContentFiles());
+    }
+
+    @Test
+    public void storeContent() throws Exception
+    {
+        XWikiDavTempContent content = this.store.storeContent(USER, PATH, getStream(QUOTA));
+
+        assertFalse(content.isInMemory());
+        assertEquals(QUOTA, content.getLength());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        content.writeTo(out);
+        assertArrayEquals(getBytes(QUOTA), out.toByteArray());
+        assertEquals(1, countContentFiles());
+
+        content.dispose();
+        assertEquals(0, countContentFiles());
+    }
+
+    @Test
+    public void rejectContentAboveQuota() throws Exception
+    {
+        assertRejected(this.store, USER, QUOTA + 1);
+        assertEquals(0, countContentFiles());
+    }
+
+    @Test
+    public void quotaCountsTheContentsOfAllTheNodes() throws Exception
+    {
+        this.store.storeContent(USER, PATH, getStream(QUOTA / 2));
+
+        assertRejected(this.otherStore, USER, QUOTA / 2 + 1);
+        assertEquals(1, countContentFiles());
+        // The quota is per user.
+        assertNotNull(this.otherStore.storeContent(OTHER_USER, PATH, getStream(QUOTA)));
+        assertNotNull(this.otherStore.storeContent(USER, PATH, getStream(QUOTA / 2)));
+    }
+
+    @Test
+    public void membersAreSharedByTheNodes() throws Exception
+    {
+        XWikiDavTempContent content = this.store.storeContent(USER, PATH, getStream(10));
+        List<XWikiDavVirtualMember> initialMembers =
+            Collections.singletonList(XWikiDavVirtualMember.wikiFile("wiki.txt"));
+        assertNull(this.store.putMember(USER, PATH, initialMembers, getMember("file.txt", content)));
+
+        Map<String, XWikiDavVirtualMember> members = this.otherStore.getMembers(USER, PATH);
+        assertEquals(Arrays.asList("file.txt", "wiki.txt"), Arrays.asList(members.keySet().toArray()));
+        assertEquals(10, members.get("file.txt").getContent().getLength());
+        assertTrue(members.get("wiki.txt").isWikiFile());
+        assertNull(this.otherStore.getMembers(OTHER_USER, PATH));
+
+        assertNotNull(this.otherStore.removeMember(USER, PATH, initialMembers, "file.txt"));
+        assertEquals(Collections.singleton("wiki.txt"), this.store.getMembers(USER, PATH).keySet());
+
+        this.store.removeMembers(USER, PATH);
+        assertNull(this.otherStore.getMembers(USER, PATH));
+    }
+
+    @Test
+    public void removeIdleUsers() throws Exception
+    {
+        putMember(this.store, USER);
+        putMember(this.otherStore, OTHER_USER);
+        makeIdle();
+        // A recent access, from any node, keeps the resources.
+        this.store = restart(this.store);
+        this.store.getMembers(OTHER_USER, PATH);
+
+        this.store.removeIdleUsers();
+
+        assertNull(this.otherStore.getMembers(USER, PATH));
+        assertNotNull(this.otherStore.getMembers(OTHER_USER, PATH));
+        assertEquals(1, this.folder.getRoot().listFiles(new FileFilter()
+        {
+            @Override
+            public boolean accept(File file)
+            {
+                return file.isDirectory();
+            }
+        }).length);
+    }
+
+    @Test
+    public void keepUsersServedByThisNode() throws Exception
+    {
+        putMember(this.store, USER);
+        makeIdle();
+
+        // This node accessed the resources recently, even if the access file says otherwise.
+        this.store.removeIdleUsers();
+        assertNotNull(this.otherStore.getMembers(USER, PATH));
+
+        this.otherStore = restart(this.otherStore);
+        makeIdle();
+        this.otherStore.removeIdleUsers();
+        assertNull(this.store.getMembers(USER, PATH));
+    }
+
+    @Test
+    public void removeDirectoriesLeftByStoppedNodes() throws Exception
+    {
+        File left = new File(this.folder.getRoot(), "deleted-user-1");
+        File deleting = new File(this.folder.getRoot(), "deleted-user-" + System.currentTimeMillis());
+        assertTrue(left.mkdir());
+        assertTrue(deleting.mkdir());
+
+        this.store.removeIdleUsers();
+
+        assertFalse(left.exists());
+        // Possibly still being deleted, or restored, by another node.
+        assertTrue(deleting.exists());
+    }
+
+    private void assertRejected(XWikiDavDirectoryTempResourceStore target, String user, int length)
+    {
+        try {
+            target.storeContent(user, PATH, getStream(length));
+            fail();
+        } catch (DavException e) {
+            assertEquals(DavServletResponse.SC_INSUFFICIENT_SPACE_ON_RESOURCE, e.getErrorCode());
+        }
+    }
+
+    private void putMember(XWikiDavDirectoryTempResourceStore target, String user) throws Exception
+    {
+        target.putMember(user, PATH, Collections.<XWikiDavVirtualMember>emptyList(),
+            getMember("file.txt", target.storeContent(user, PATH, getStream(10))));
+    }
+
+    private XWikiDavVirtualMember getMember(String name, XWikiDavTempContent content)
+    {
+        long now = System.currentTimeMillis();
+        return new XWikiDavVirtualMember(name, false, content, true, now, now);
+    }
+
+    /**
+     * Sets the last access of all the users before the time to live.
+     */
+    private void makeIdle()
+    {
+        long idle = System.currentTimeMillis() - (TIME_TO_LIVE + 60) * 1000;
+        for (File userDirectory : this.folder.getRoot().listFiles()) {
+            new File(userDirectory, ".access").setLastModified(idle);
+            userDirectory.setLastModified(idle);
+        }
+    }
+
+    /**
+     * @return a new store on the same directory, which hasn't recorded any access yet.
+     */
+    private XWikiDavDirectoryTempResourceStore restart(XWikiDavDirectoryTempResourceStore previous)
+    {
+        previous.dispose();
+        return new XWikiDavDirectoryTempResourceStore(this.folder.getRoot(), TIME_TO_LIVE, QUOTA);
+    }
+
+    private int countContentFiles()
+    {
+        int count = 0;
+        for (File userDirectory : this.folder.getRoot().listFiles()) {
+            String[] names = userDirectory.list();
+            for (String name : (names != null) ? names : new String[0]) {
+                count += name.startsWith("content-") ? 1 : 0;
+            }
+        }
+        return count;
+    }
+
+    private ByteArrayInputStream getStream(int length)
+    {
+        return new ByteArrayInputStream(getBytes(length));
+    }
+
+    private byte[] getBytes(int length)
+    {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the invalidation of {@link XWikiDavListingCache}.
+ *
+ * @version $Id$
+ */
+public class XWikiDavListingCacheTest
+{
+    private static final DocumentReference PAGE =
+        new DocumentReference("wiki", Arrays.asList("Parent", "Space"), "Page");
+
+    private static final SpaceReference SPACE = PAGE.getLastSpaceReference();
+
+    private static final SpaceReference PARENT_SPACE = new SpaceReference("Parent", new WikiReference("wiki"));
+
+    private static final SpaceReference OTHER_SPACE = new SpaceReference("Other", new WikiReference("wiki"));
+
+    private static final DocumentReference PARENT_PAGE = new DocumentReference("wiki", "Other", "ParentPage");
+
+    private static final List<String> MEMBERS = Arrays.asList("first", "second");
+
+    /**
+     * The entries of the mocked cache.
+     */
+    private final Map<String, Object> entries = new HashMap<String, Object>();
+
+    /**
+     * Run while a listing is being stored, to simulate a concurrent event.
+     */
+    private Runnable onSet;
+
+    private CacheManager cacheManager;
+
+    private XWikiDavListingCache listingCache;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        Cache<List<?>> cache = mock(Cache.class);
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return entries.get(invocation.getArguments()[0]);
+            }
+        }).when(cache).get(anyString());
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                entries.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+                if (onSet != null) {
+                    onSet.run();
+                }
+                return null;
+            }
+        }).when(cache).set(anyString(), any(List.class));
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                entries.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(cache).remove(anyString());
+        this.cacheManager = mock(CacheManager.class);
+        doReturn(cache).when(this.cacheManager).createNewCache(any(CacheConfiguration.class));
+
+        this.listingCache = new XWikiDavListingCache(this.cacheManager, 100, 600);
+    }
+
+    @Test
+    public void putAndGet()
+    {
+        store(XWikiDavListingCache.CHILD_PAGES, SPACE, false);
+
+        assertEquals(MEMBERS, this.listingCache.get(XWikiDavListingCache.CHILD_PAGES, SPACE, false));
+        // The listings showing the hidden documents are distinct.
+        assertNull(this.listingCache.get(XWikiDavListingCache.CHILD_PAGES, SPACE, true));
+        assertNull(this.listingCache.get(XWikiDavListingCache.CHILD_PAGES, OTHER_SPACE, false));
+    }
+
+    @Test
+    public void updateRemovesTheListingsOfTheDocument()
+    {
+        store(XWikiDavListingCache.CHILD_PAGES, SPACE, false);
+        store(XWikiDavListingCache.CHILD_PAGES, SPACE, true);
+        store(XWikiDavListingCache.ATTACHMENTS, PAGE, false);
+        store(XWikiDavListingCache.PAGES_WITH_ATTACHMENTS, SPACE, false);
+        store(XWikiDavListingCache.PAGES_WITH_ATTACHMENTS_METADATA, SPACE, false);
+        store(XWikiDavListingCache.PAGES_WITH_ATTACHMENTS, PAGE.getWikiReference(), false);
+        store(XWikiDavListingCache.CHILD_PAGES_OF_PAGE, PARENT_PAGE, false);
+        store(XWikiDavListingCache.CHILD_PAGES, OTHER_SPACE, false);
+        store(XWikiDavListingCache.CHILD_SPACES, PARENT_SPACE, false);
+
+        this.listingCache.onEvent(new DocumentUpdatedEvent(), getDocument(PARENT_PAGE, false, false), null);
+
+        assertNull(this.listingCache.get(XWikiDavListingCache.CHILD_PAGES, SPACE, false));
+        assertNull(this.listingCache.get(XWikiDavListingCache.CHILD_PAGES, SPACE, true));
+        assertNull(this.listingCache.get(XWikiDavListingCache.ATTACHMENTS, PAGE, false));
+        assertNull(this.listingCache.get(XWikiDavListingCache.PAGES_WITH_ATTACHMENTS, SPACE, false));
+        assertNull(this.listingCache.get(XWikiDavListingCache.PAGES_WITH_ATTACHMENTS_METADATA, SPACE, false));
+        assertNull(this.listingCache.get(XWikiDavListingCache.PAGES_WITH_ATTACHMENTS, PAGE.getWikiReference(),
+            false));
+        assertNull(this.listingCache.get(XWikiDavListingCache.CHILD_PAGES_OF_PAGE, PARENT_PAGE, false));
+        // The listings the document doesn't belong to are kept, and so are the spaces for a plain update.
+        assertNotNull(this.listingCache.get(XWikiDavListingCache.CHILD_PAGES, OTHER_SPACE, false));
+        assertNotNull(this.listingCache.get(XWikiDavListingCache.CHILD_SPACES, PARENT_SPACE, false));
+    }
+
+    @Test
+    public void updateRemovesTheChildrenOfTheFormerParent()
+    {
+        DocumentReference formerParent = new DocumentReference("wiki", "Other", "FormerParent");
+        store(XWikiDavListingCache.CHILD_PAGES_OF_PAGE, formerParent, false);
+        XWikiDocument document = getDocument(PARENT_PAGE, false, false);
+        XWikiDocument original = getDocument(formerParent, false, false);
+        when(document.getOriginalDocument()).thenReturn(original);
+
+        this.listingCache.onEvent(new DocumentUpdatedEvent(), document, null);
+
+        assertNull(this.listingCache.get(XWikiDavListingCache.CHILD_PAGES_OF_PAGE, formerParent, false));
+    }
+
+    @Test
+    public void creationAndDeletionRemoveTheSpaces()
+    {
+        store(XWikiDavListingCache.ROOT_SPACES, PAGE.getWikiReference(), false);
+        store(XWikiDavListingCache.CHILD_SPACES, PARENT_SPACE, false);
+        store(XWikiDavListingCache.CHILD_SPACES, OTHER_SPACE, false);
+
+        this.listingCache.onEvent(new DocumentCreatedEvent(), getDocument(null, false, false), null);
+
+        assertNull(this.listingCache.get(XWikiDavListingCache.ROOT_SPACES, PAGE.getWikiReference(), false));
+        assertNull(this.listingCache.get(XWikiDavListingCache.CHILD_SPACES, PARENT_SPACE, false));
+        assertNotNull(this.listingCache.get(XWikiDavListingCache.CHILD_SPACES, OTHER_SPACE, false));
+
+        store(XWikiDavListingCache.CHILD_SPACES, PARENT_SPACE, false);
+        this.listingCache.onEvent(new DocumentDeletedEvent(), getDocument(null, false, false), null);
+        assertNull(this.listingCache.get(XWikiDavListingCache.CHILD_SPACES, PARENT_SPACE, false));
+    }
+
+    @Test
+    public void hidingRemovesTheSpaces()
+    {
+        store(XWikiDavListingCache.CHILD_SPACES, PARENT_SPACE, false);
+
+        this.listingCache.onEvent(new DocumentUpdatedEvent(), getDocument(null, true, false), null);
+
+        assertNull(this.listingCache.get(XWikiDavListingCache.CHILD_SPACES, PARENT_SPACE, false));
+    }
+
+    @Test
+    public void resultOfQueryRunningDuringInvalidationIsNotStored()
+    {
+        long generation = this.listingCache.getGeneration(XWikiDavListingCache.CHILD_PAGES, SPACE);
+
+        this.listingCache.onEvent(new DocumentUpdatedEvent(), getDocument(null, false, false), null);
+
+        assertEquals(MEMBERS, this.listingCache.put(XWikiDavListingCache.CHILD_PAGES, SPACE, false, MEMBERS,
+            generation));
+        assertNull(this.listingCache.get(XWikiDavListingCache.CHILD_PAGES, SPACE, false));
+    }
+
+    @Test
+    public void resultStoredDuringInvalidationIsRemoved()
+    {
+        this.onSet = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                onSet = null;
+                listingCache.onEvent(new DocumentUpdatedEvent(), getDocument(null, false, false), null);
+            }
+        };
+
+        store(XWikiDavListingCache.CHILD_PAGES, SPACE, false);
+
+        assertNull(this.listingCache.get(XWikiDavListingCache.CHILD_PAGES, SPACE, false));
+    }
+
+    @Test
+    public void listingsExpire()
+    {
+        ArgumentCaptor<CacheConfiguration> configuration = ArgumentCaptor.forClass(CacheConfiguration.class);
+        verify(this.cacheManager).createNewCache(configuration.capture());
+
+        LRUEvictionConfiguration eviction =
+            (LRUEvictionConfiguration) configuration.getValue().get(LRUEvictionConfiguration.CONFIGURATIONID);
+        assertEquals(600, eviction.getLifespan());
+    }
+
+    @Test
+    public void invalidationElsewhereDoesntPreventCaching()
+    {
+        long generation = this.listingCache.getGeneration(XWikiDavListingCache.CHILD_PAGES, OTHER_SPACE);
+
+        this.listingCache.onEvent(new DocumentUpdatedEvent(), getDocument(null, false, false), null);
+
+        this.listingCache.put(XWikiDavListingCache.CHILD_PAGES, OTHER_SPACE, false, MEMBERS, generation);
+        assertEquals(MEMBERS, this.listingCache.get(XWikiDavListingCache.CHILD_PAGES, OTHER_SPACE, false));
+    }
+
+    private void store(String listing, EntityReference collection, boolean showHidden)
+    {
+        long generation = this.listingCache.getGeneration(listing, collection);
+        this.listingCache.put(listing, collection, showHidden, MEMBERS, generation);
+    }
+
+    /**
+     * @param parent the parent of the document, may be null.
+     * @param hidden whether the document is hidden.
+     * @param originalHidden whether the document was hidden before the modification.
+     * @return the modified document {@link #PAGE}.
+     */
+    private XWikiDocument getDocument(DocumentReference parent, boolean hidden, boolean originalHidden)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference()).thenReturn(PAGE);
+        when(document.getParentReference()).thenReturn(parent);
+        when(document.isHidden()).thenReturn(hidden);
+        XWikiDocument original = mock(XWikiDocument.class);
+        when(original.isHidden()).thenReturn(originalHidden);
+        when(document.getOriginalDocument()).thenReturn(original);
+        return document;
+    }
+}
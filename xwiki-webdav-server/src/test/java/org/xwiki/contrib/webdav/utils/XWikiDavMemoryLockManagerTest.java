@@ -0,0 +1,272 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavResource;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.apache.jackrabbit.webdav.lock.ActiveLock;
+import org.apache.jackrabbit.webdav.lock.LockInfo;
+import org.apache.jackrabbit.webdav.lock.Scope;
+import org.apache.jackrabbit.webdav.lock.Type;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link XWikiDavMemoryLockManager}.
+ *
+ * @version $Id$
+ */
+public class XWikiDavMemoryLockManagerTest
+{
+    /**
+     * The timeout, in milliseconds, of the locks which are expected to expire during a test.
+     */
+    private static final long SHORT_TIMEOUT = 1;
+
+    private XWikiDavMemoryLockManager lockManager;
+
+    @Before
+    public void setUp()
+    {
+        // The sweeper never runs during the tests, they remove the expired locks themselves.
+        this.lockManager = new XWikiDavMemoryLockManager(3600, 3600);
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.lockManager.dispose();
+    }
+
+    @Test
+    public void lockAndRelease() throws Exception
+    {
+        DavResource resource = getResource("/spaces/Main/WebHome");
+        ActiveLock lock = this.lockManager.createLock(getLockInfo(false, 0), resource);
+
+        assertSame(lock, this.lockManager.getLock(Type.WRITE, Scope.EXCLUSIVE, resource));
+        assertTrue(this.lockManager.hasLock(lock.getToken(), resource));
+        assertEquals(1, this.lockManager.getLockCount());
+
+        this.lockManager.releaseLock(lock.getToken(), resource);
+
+        assertNull(this.lockManager.getLock(Type.WRITE, Scope.EXCLUSIVE, resource));
+        assertFalse(this.lockManager.hasLock(lock.getToken(), resource));
+        assertEquals(0, this.lockManager.getLockCount());
+    }
+
+    @Test
+    public void lockLockedResource() throws Exception
+    {
+        DavResource resource = getResource("/spaces/Main/WebHome");
+        this.lockManager.createLock(getLockInfo(false, 0), resource);
+
+        assertLocked(resource, false);
+    }
+
+    @Test
+    public void deepLockAppliesToMembers() throws Exception
+    {
+        DavResource collection = getResource("/spaces/Main");
+        DavResource member = getResource("/spaces/Main/WebHome");
+        ActiveLock lock = this.lockManager.createLock(getLockInfo(true, 0), collection);
+
+        assertSame(lock, this.lockManager.getLock(Type.WRITE, Scope.EXCLUSIVE, member));
+        assertTrue(this.lockManager.hasLock(lock.getToken(), member));
+        assertLocked(member, false);
+        // A resource whose name starts with the name of the collection is not a member.
+        assertNull(this.lockManager.getLock(Type.WRITE, Scope.EXCLUSIVE, getResource("/spaces/MainPage")));
+    }
+
+    @Test
+    public void shallowLockDoesntApplyToMembers() throws Exception
+    {
+        this.lockManager.createLock(getLockInfo(false, 0), getResource("/spaces/Main"));
+
+        DavResource member = getResource("/spaces/Main/WebHome");
+        assertNull(this.lockManager.getLock(Type.WRITE, Scope.EXCLUSIVE, member));
+        assertNotNull(this.lockManager.createLock(getLockInfo(false, 0), member));
+    }
+
+    @Test
+    public void deepLockWithLockedMember() throws Exception
+    {
+        DavResource collection = getResource("/spaces/Main");
+        DavResource member = getResource("/spaces/Main/Sub/WebHome");
+        ActiveLock memberLock = this.lockManager.createLock(getLockInfo(false, 0), member);
+
+        assertLocked(collection, true);
+        // The collection itself isn't locked.
+        assertNotNull(this.lockManager.createLock(getLockInfo(false, 0), collection));
+        this.lockManager.releaseLock(this.lockManager.getLock(Type.WRITE, Scope.EXCLUSIVE, collection).getToken(),
+            collection);
+
+        // Releasing the member lock must update the counts of all the ancestors.
+        this.lockManager.releaseLock(memberLock.getToken(), member);
+        assertNotNull(this.lockManager.createLock(getLockInfo(true, 0), collection));
+        assertEquals(1, this.lockManager.getLockCount());
+    }
+
+    @Test
+    public void countsWithSiblingLocks() throws Exception
+    {
+        DavResource collection = getResource("/spaces/Main");
+        DavResource first = getResource("/spaces/Main/First");
+        DavResource second = getResource("/spaces/Main/Second");
+        ActiveLock firstLock = this.lockManager.createLock(getLockInfo(false, 0), first);
+        ActiveLock secondLock = this.lockManager.createLock(getLockInfo(false, 0), second);
+        assertEquals(2, this.lockManager.getLockCount());
+
+        // Removing one of the locks must neither prune the node of the other one nor forget it in the counts.
+        this.lockManager.releaseLock(firstLock.getToken(), first);
+        assertSame(secondLock, this.lockManager.getLock(Type.WRITE, Scope.EXCLUSIVE, second));
+        assertLocked(collection, true);
+
+        this.lockManager.releaseLock(secondLock.getToken(), second);
+        assertNotNull(this.lockManager.createLock(getLockInfo(true, 0), collection));
+    }
+
+    @Test
+    public void releaseWithWrongToken() throws Exception
+    {
+        DavResource resource = getResource("/spaces/Main/WebHome");
+        ActiveLock lock = this.lockManager.createLock(getLockInfo(false, 0), resource);
+
+        try {
+            this.lockManager.releaseLock("opaquelocktoken:wrong", resource);
+            fail();
+        } catch (DavException e) {
+            assertEquals(DavServletResponse.SC_LOCKED, e.getErrorCode());
+        }
+        try {
+            this.lockManager.releaseLock(lock.getToken(), getResource("/spaces/Main/Other"));
+            fail();
+        } catch (DavException e) {
+            assertEquals(DavServletResponse.SC_PRECONDITION_FAILED, e.getErrorCode());
+        }
+        assertSame(lock, this.lockManager.getLock(Type.WRITE, Scope.EXCLUSIVE, resource));
+    }
+
+    @Test
+    public void expiredLockIsIgnoredAndReplaced() throws Exception
+    {
+        DavResource resource = getResource("/spaces/Main/WebHome");
+        ActiveLock expired = this.lockManager.createLock(getLockInfo(false, SHORT_TIMEOUT), resource);
+        waitForExpiration();
+
+        assertNull(this.lockManager.getLock(Type.WRITE, Scope.EXCLUSIVE, resource));
+        assertFalse(this.lockManager.hasLock(expired.getToken(), resource));
+
+        ActiveLock lock = this.lockManager.createLock(getLockInfo(false, 0), resource);
+        assertSame(lock, this.lockManager.getLock(Type.WRITE, Scope.EXCLUSIVE, resource));
+        // The expired lock has been replaced, not kept next to the new one.
+        assertEquals(1, this.lockManager.getLockCount());
+    }
+
+    @Test
+    public void deepLockWithExpiredMember() throws Exception
+    {
+        this.lockManager.createLock(getLockInfo(false, SHORT_TIMEOUT), getResource("/spaces/Main/Sub/WebHome"));
+        waitForExpiration();
+
+        // The expired lock is still counted until it is swept, it mustn't prevent the deep lock.
+        assertNotNull(this.lockManager.createLock(getLockInfo(true, 0), getResource("/spaces/Main")));
+        assertEquals(1, this.lockManager.getLockCount());
+    }
+
+    @Test
+    public void removeExpiredLocks() throws Exception
+    {
+        DavResource kept = getResource("/spaces/Main/Kept");
+        DavResource expired = getResource("/spaces/Main/Sub/Expired");
+        ActiveLock keptLock = this.lockManager.createLock(getLockInfo(false, 0), kept);
+        this.lockManager.createLock(getLockInfo(false, SHORT_TIMEOUT), expired);
+        this.lockManager.createLock(getLockInfo(true, SHORT_TIMEOUT), getResource("/spaces/Other"));
+        assertEquals(3, this.lockManager.getLockCount());
+        waitForExpiration();
+
+        this.lockManager.removeExpiredLocks();
+
+        assertEquals(1, this.lockManager.getLockCount());
+        assertSame(keptLock, this.lockManager.getLock(Type.WRITE, Scope.EXCLUSIVE, kept));
+        // The counts of the ancestors of the swept locks have been updated.
+        assertLocked(getResource("/spaces/Main"), true);
+        assertNotNull(this.lockManager.createLock(getLockInfo(true, 0), getResource("/spaces/Main/Sub")));
+    }
+
+    @Test
+    public void refreshExtendsTheLock() throws Exception
+    {
+        DavResource resource = getResource("/spaces/Main/WebHome");
+        // Long enough not to expire before being refreshed.
+        ActiveLock lock = this.lockManager.createLock(getLockInfo(false, 200), resource);
+
+        this.lockManager.refreshLock(getLockInfo(false, 0), lock.getToken(), resource);
+        Thread.sleep(250);
+        this.lockManager.removeExpiredLocks();
+
+        assertSame(lock, this.lockManager.getLock(Type.WRITE, Scope.EXCLUSIVE, resource));
+        assertEquals(1, this.lockManager.getLockCount());
+    }
+
+    private void assertLocked(DavResource resource, boolean deep)
+    {
+        try {
+            this.lockManager.createLock(getLockInfo(deep, 0), resource);
+            fail("The resource [" + resource.getResourcePath() + "] should be locked");
+        } catch (DavException e) {
+            assertEquals(DavServletResponse.SC_LOCKED, e.getErrorCode());
+        }
+    }
+
+    private DavResource getResource(String path)
+    {
+        DavResource resource = mock(DavResource.class, path);
+        when(resource.getResourcePath()).thenReturn(path);
+        return resource;
+    }
+
+    /**
+     * @param deep whether the lock applies to the members.
+     * @param timeout the timeout in milliseconds, 0 for the maximum timeout.
+     * @return the lock request.
+     */
+    private LockInfo getLockInfo(boolean deep, long timeout)
+    {
+        return new LockInfo(Scope.EXCLUSIVE, Type.WRITE, "owner", timeout, deep);
+    }
+
+    private void waitForExpiration() throws InterruptedException
+    {
+        Thread.sleep(SHORT_TIMEOUT + 20);
+    }
+}
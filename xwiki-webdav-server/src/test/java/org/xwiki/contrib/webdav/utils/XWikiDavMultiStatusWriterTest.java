@@ -0,0 +1,208 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.DavResource;
+import org.apache.jackrabbit.webdav.DavResourceIterator;
+import org.apache.jackrabbit.webdav.DavResourceIteratorImpl;
+import org.apache.jackrabbit.webdav.MultiStatus;
+import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
+import org.apache.jackrabbit.webdav.property.DavPropertySet;
+import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link XWikiDavMultiStatusWriter}, checking that it writes the same responses as {@code MultiStatus}.
+ *
+ * @version $Id$
+ */
+public class XWikiDavMultiStatusWriterTest
+{
+    private static final String SPACE_HREF = "/xwiki/webdav/spaces/Main";
+
+    private static final String PAGE_HREF = "/xwiki/webdav/spaces/Main/Page";
+
+    private DocumentBuilder documentBuilder;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        this.documentBuilder = factory.newDocumentBuilder();
+    }
+
+    @Test
+    public void sameResponsesAsMultiStatus() throws Exception
+    {
+        DavResource page = getResource(PAGE_HREF, "Page & <co>", false);
+        DavResource attachment = getResource("/xwiki/webdav/spaces/Main/file.txt", "file.txt", false);
+        DavResource space = getResource(SPACE_HREF, "Main", true, page, attachment);
+
+        assertSameResponses(space, new DavPropertyNameSet(), DavConstants.PROPFIND_ALL_PROP, 1);
+        DavPropertyNameSet names = new DavPropertyNameSet();
+        names.add(DavPropertyName.DISPLAYNAME);
+        names.add(DavPropertyName.GETCONTENTLENGTH);
+        assertSameResponses(space, names, DavConstants.PROPFIND_BY_PROPERTY, 1);
+        assertSameResponses(space, new DavPropertyNameSet(), DavConstants.PROPFIND_PROPERTY_NAMES, 0);
+    }
+
+    @Test
+    public void duplicateHrefsAreWrittenOnce() throws Exception
+    {
+        // A child page and a virtual member with the same name.
+        DavResource page = getResource(PAGE_HREF, "Page", true);
+        DavResource member = getResource(PAGE_HREF, "Page", true, getResource(PAGE_HREF + "/x", "x", false));
+        DavResource space = getResource(SPACE_HREF, "Main", true, page, member);
+
+        Map<String, String> responses = assertSameResponses(space, new DavPropertyNameSet(),
+            DavConstants.PROPFIND_ALL_PROP, 1);
+
+        assertEquals(2, responses.size());
+        // The members of the dropped duplicate are not listed either.
+        assertEquals(2, write(space, new DavPropertyNameSet(), DavConstants.PROPFIND_ALL_PROP, 2).size());
+    }
+
+    /**
+     * @return the responses written, by href.
+     */
+    private Map<String, String> assertSameResponses(DavResource resource, DavPropertyNameSet names, int type,
+        int depth) throws Exception
+    {
+        MultiStatus multiStatus = new MultiStatus();
+        multiStatus.addResourceProperties(resource, names, type, depth);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        TransformerFactory.newInstance().newTransformer().transform(
+            new DOMSource(multiStatus.toXml(this.documentBuilder.newDocument())), new StreamResult(expected));
+
+        Map<String, String> responses = write(resource, names, type, depth);
+        assertEquals(getResponses(expected.toByteArray()), responses);
+        return responses;
+    }
+
+    private Map<String, String> write(DavResource resource, DavPropertyNameSet names, int type, int depth)
+        throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XWikiDavMultiStatusWriter writer = new XWikiDavMultiStatusWriter(out);
+        writer.writeResourceProperties(resource, names, type, depth);
+        writer.finish();
+        return getResponses(out.toByteArray());
+    }
+
+    /**
+     * @param xml a serialized multistatus element.
+     * @return the canonical form of its responses, by href.
+     */
+    private Map<String, String> getResponses(byte[] xml) throws Exception
+    {
+        Document document = this.documentBuilder.parse(new ByteArrayInputStream(xml));
+        Element root = document.getDocumentElement();
+        assertEquals(DavConstants.NAMESPACE.getURI(), root.getNamespaceURI());
+        assertEquals(DavConstants.XML_MULTISTATUS, root.getLocalName());
+        Map<String, String> responses = new HashMap<String, String>();
+        NodeList children = root.getElementsByTagNameNS(DavConstants.NAMESPACE.getURI(), DavConstants.XML_RESPONSE);
+        for (int i = 0; i < children.getLength(); i++) {
+            Element response = (Element) children.item(i);
+            String href = response.getElementsByTagNameNS(DavConstants.NAMESPACE.getURI(), DavConstants.XML_HREF)
+                .item(0).getTextContent();
+            assertEquals("Duplicate response for [" + href + "]", null, responses.put(href, canonicalize(response)));
+        }
+        return responses;
+    }
+
+    /**
+     * @return the namespaces, names, non-namespace attributes and text of the element and its descendants.
+     */
+    private String canonicalize(Element element)
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append('{').append(element.getNamespaceURI()).append('}').append(element.getLocalName());
+        for (int i = 0; i < element.getAttributes().getLength(); i++) {
+            Node attribute = element.getAttributes().item(i);
+            if (!"http://www.w3.org/2000/xmlns/".equals(attribute.getNamespaceURI())) {
+                builder.append(" @").append(attribute.getLocalName()).append('=').append(attribute.getNodeValue());
+            }
+        }
+        builder.append('(');
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                builder.append(canonicalize((Element) child));
+            } else if (child.getNodeType() == Node.TEXT_NODE) {
+                builder.append(child.getNodeValue());
+            }
+        }
+        return builder.append(')').toString();
+    }
+
+    private DavResource getResource(String href, String name, boolean collection, DavResource... members)
+    {
+        DavPropertySet properties = new DavPropertySet();
+        properties.add(new DefaultDavProperty(DavPropertyName.DISPLAYNAME, name));
+        properties.add(new DefaultDavProperty(DavPropertyName.GETCONTENTLENGTH, String.valueOf(name.length())));
+        DavResource resource = mock(DavResource.class, href);
+        when(resource.getHref()).thenReturn(href);
+        when(resource.isCollection()).thenReturn(collection);
+        when(resource.getProperties()).thenReturn(properties);
+        when(resource.getPropertyNames()).thenReturn(properties.getPropertyNames());
+        when(resource.getProperty(DavPropertyName.DISPLAYNAME)).thenReturn(properties.get(DavPropertyName.DISPLAYNAME));
+        when(resource.getProperty(DavPropertyName.GETCONTENTLENGTH))
+            .thenReturn(properties.get(DavPropertyName.GETCONTENTLENGTH));
+        final List<DavResource> memberList = Arrays.asList(members);
+        when(resource.getMembers()).thenAnswer(new Answer<DavResourceIterator>()
+        {
+            @Override
+            public DavResourceIterator answer(InvocationOnMock invocation)
+            {
+                // A new iterator each time the members are listed.
+                return new DavResourceIteratorImpl(memberList);
+            }
+        });
+        return resource;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheEntry;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.SpaceReference;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the invalidation of {@link XWikiDavPathCache}.
+ *
+ * @version $Id$
+ */
+public class XWikiDavPathCacheTest
+{
+    private static final String WIKI = "wiki";
+
+    private static final DocumentReference PAGE = new DocumentReference(WIKI, Arrays.asList("Parent", "Space"), "Page");
+
+    private static final SpaceReference SPACE = PAGE.getLastSpaceReference();
+
+    private static final SpaceReference PAGE_SPACE = new SpaceReference("Page", SPACE);
+
+    private static final DocumentReference OTHER_PAGE = new DocumentReference(WIKI, "Other", "Page");
+
+    private static final String PAGE_PATH = "/spaces/Parent/Space/Page";
+
+    private static final String SPACE_PATH = "/spaces/Parent/Space";
+
+    private static final String OTHER_PATH = "/spaces/Other/Page";
+
+    private static final String ORPHAN_PATH = "/orphans/Page";
+
+    /**
+     * The entries of the mocked cache.
+     */
+    private final Map<String, EntityReference> entries = new HashMap<String, EntityReference>();
+
+    /**
+     * Run while an entry is being stored, to simulate a concurrent event.
+     */
+    private Runnable onSet;
+
+    private Cache<EntityReference> cache;
+
+    private CacheManager cacheManager;
+
+    private XWikiDavPathCache pathCache;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        this.cache = mock(Cache.class);
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return entries.get(invocation.getArguments()[0]);
+            }
+        }).when(this.cache).get(anyString());
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                entries.put((String) invocation.getArguments()[0], (EntityReference) invocation.getArguments()[1]);
+                if (onSet != null) {
+                    onSet.run();
+                }
+                return null;
+            }
+        }).when(this.cache).set(anyString(), any(EntityReference.class));
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                entries.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(this.cache).remove(anyString());
+        this.cacheManager = mock(CacheManager.class);
+        doReturn(this.cache).when(this.cacheManager).createNewCache(any(CacheConfiguration.class));
+
+        this.pathCache = new XWikiDavPathCache(this.cacheManager, 100);
+    }
+
+    @Test
+    public void putAndGet()
+    {
+        put(PAGE_PATH, PAGE);
+
+        assertEquals(PAGE, this.pathCache.get(WIKI, PAGE_PATH));
+        assertNull(this.pathCache.get("other", PAGE_PATH));
+        assertNull(this.pathCache.get(WIKI, SPACE_PATH));
+    }
+
+    @Test
+    public void pathsExpire()
+    {
+        ArgumentCaptor<CacheConfiguration> configuration = ArgumentCaptor.forClass(CacheConfiguration.class);
+        verify(this.cacheManager).createNewCache(configuration.capture());
+
+        LRUEvictionConfiguration eviction =
+            (LRUEvictionConfiguration) configuration.getValue().get(LRUEvictionConfiguration.CONFIGURATIONID);
+        assertTrue(eviction.getLifespan() > 0);
+    }
+
+    @Test
+    public void creationRemovesTheSpaceOfTheSameName()
+    {
+        put(PAGE_PATH, PAGE_SPACE);
+        put(SPACE_PATH, SPACE);
+        put(OTHER_PATH, OTHER_PAGE);
+
+        this.pathCache.onEvent(new DocumentCreatedEvent(), getDocument(PAGE), null);
+
+        assertNull(this.pathCache.get(WIKI, PAGE_PATH));
+        // The paths of the other entities are kept.
+        assertEquals(SPACE, this.pathCache.get(WIKI, SPACE_PATH));
+        assertEquals(OTHER_PAGE, this.pathCache.get(WIKI, OTHER_PATH));
+    }
+
+    @Test
+    public void deletionRemovesTheDocumentAndItsSpaces()
+    {
+        put(PAGE_PATH, PAGE);
+        put(SPACE_PATH, SPACE);
+        put("/spaces/Parent", SPACE.getParent());
+        put(OTHER_PATH, OTHER_PAGE);
+
+        this.pathCache.onEvent(new DocumentDeletedEvent(), getDocument(PAGE), null);
+
+        assertNull(this.pathCache.get(WIKI, PAGE_PATH));
+        assertNull(this.pathCache.get(WIKI, SPACE_PATH));
+        assertNull(this.pathCache.get(WIKI, "/spaces/Parent"));
+        assertEquals(OTHER_PAGE, this.pathCache.get(WIKI, OTHER_PATH));
+    }
+
+    @Test
+    public void eventWithoutDocumentEmptiesTheCache()
+    {
+        put(OTHER_PATH, OTHER_PAGE);
+
+        this.pathCache.onEvent(new DocumentDeletedEvent(), null, null);
+
+        verify(this.cache).removeAll();
+    }
+
+    @Test
+    public void pathResolvedBeforeAnEventIsNotStored()
+    {
+        long generation = this.pathCache.getGeneration();
+        this.pathCache.onEvent(new DocumentCreatedEvent(), getDocument(PAGE), null);
+
+        this.pathCache.put(WIKI, PAGE_PATH, PAGE_SPACE, generation);
+
+        assertNull(this.pathCache.get(WIKI, PAGE_PATH));
+    }
+
+    @Test
+    public void pathStoredDuringAnEventIsRemoved()
+    {
+        this.onSet = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                onSet = null;
+                pathCache.onEvent(new DocumentCreatedEvent(), getDocument(OTHER_PAGE), null);
+            }
+        };
+
+        put(PAGE_PATH, PAGE_SPACE);
+
+        assertNull(this.pathCache.get(WIKI, PAGE_PATH));
+    }
+
+    @Test
+    public void evictionKeepsTheOtherPathsIndexed()
+    {
+        put(PAGE_PATH, PAGE);
+        put(ORPHAN_PATH, PAGE);
+        this.entries.remove(WIKI + ':' + PAGE_PATH);
+        this.pathCache.cacheEntryRemoved(getRemovalEvent(WIKI + ':' + PAGE_PATH, PAGE));
+
+        this.pathCache.onEvent(new DocumentDeletedEvent(), getDocument(PAGE), null);
+
+        assertNull(this.pathCache.get(WIKI, ORPHAN_PATH));
+    }
+
+    @Test
+    public void pathStoredAgainAfterEvictionIsIndexed()
+    {
+        put(PAGE_PATH, PAGE);
+        this.entries.remove(WIKI + ':' + PAGE_PATH);
+        this.pathCache.cacheEntryRemoved(getRemovalEvent(WIKI + ':' + PAGE_PATH, PAGE));
+        put(PAGE_PATH, PAGE);
+
+        this.pathCache.onEvent(new DocumentDeletedEvent(), getDocument(PAGE), null);
+
+        assertNull(this.pathCache.get(WIKI, PAGE_PATH));
+    }
+
+    @Test
+    public void disabled() throws Exception
+    {
+        XWikiDavPathCache disabled = new XWikiDavPathCache(mock(CacheManager.class), 0);
+
+        disabled.put(WIKI, PAGE_PATH, PAGE, disabled.getGeneration());
+
+        assertNull(disabled.get(WIKI, PAGE_PATH));
+    }
+
+    private void put(String path, EntityReference reference)
+    {
+        this.pathCache.put(WIKI, path, reference, this.pathCache.getGeneration());
+    }
+
+    @SuppressWarnings("unchecked")
+    private CacheEntryEvent<EntityReference> getRemovalEvent(String key, EntityReference value)
+    {
+        CacheEntry<EntityReference> entry = mock(CacheEntry.class);
+        when(entry.getKey()).thenReturn(key);
+        when(entry.getValue()).thenReturn(value);
+        CacheEntryEvent<EntityReference> event = mock(CacheEntryEvent.class);
+        when(event.getEntry()).thenReturn(entry);
+        return event;
+    }
+
+    private XWikiDocument getDocument(DocumentReference reference)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference()).thenReturn(reference);
+        return document;
+    }
+}
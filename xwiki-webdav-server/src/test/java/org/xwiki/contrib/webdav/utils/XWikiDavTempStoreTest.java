@@ -0,0 +1,186 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.webdav.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the accounting of {@link XWikiDavTempStore}.
+ *
+ * @version $Id$
+ */
+public class XWikiDavTempStoreTest
+{
+    private static final String USER = "XWiki.Alice";
+
+    private static final String OTHER_USER = "XWiki.Bob";
+
+    private static final int THRESHOLD = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void storeEmptyContent() throws Exception
+    {
+        XWikiDavTempStore store = new XWikiDavTempStore(this.folder.getRoot(), THRESHOLD, 0, 0);
+
+        assertSame(XWikiDavTempContent.EMPTY, store.store(getStream(0), USER));
+        assertEquals(0, store.getUserBytes(USER));
+    }
+
+    @Test
+    public void storeInMemory() throws Exception
+    {
+        XWikiDavTempStore store = new XWikiDavTempStore(this.folder.getRoot(), THRESHOLD, 0, 0);
+
+        XWikiDavTempContent content = store.store(getStream(THRESHOLD), USER);
+
+        assertTrue(content.isInMemory());
+        assertEquals(THRESHOLD, store.getMemoryBytes());
+        assertEquals(0, store.getDiskBytes());
+        assertEquals(THRESHOLD, store.getUserBytes(USER));
+        assertEquals(0, store.getUserBytes(OTHER_USER));
+
+        content.dispose();
+        // A second release must not be accounted twice.
+        content.dispose();
+
+        assertEquals(0, store.getMemoryBytes());
+        assertEquals(0, store.getUserBytes(USER));
+    }
+
+    @Test
+    public void storeInFile() throws Exception
+    {
+        XWikiDavTempStore store = new XWikiDavTempStore(this.folder.getRoot(), THRESHOLD, 0, 0);
+
+        XWikiDavTempContent content = store.store(getStream(THRESHOLD + 1), USER);
+
+        assertFalse(content.isInMemory());
+        assertTrue(content.getFile().isFile());
+        assertEquals(0, store.getMemoryBytes());
+        assertEquals(THRESHOLD + 1, store.getDiskBytes());
+        assertEquals(THRESHOLD + 1, store.getUserBytes(USER));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        content.writeTo(out);
+        assertArrayEquals(getBytes(THRESHOLD + 1), out.toByteArray());
+
+        content.dispose();
+
+        assertFalse(content.getFile().exists());
+        assertEquals(0, store.getDiskBytes());
+        assertEquals(0, store.getUserBytes(USER));
+    }
+
+    @Test
+    public void rejectContentInMemoryAboveQuota() throws Exception
+    {
+        XWikiDavTempStore store = new XWikiDavTempStore(this.folder.getRoot(), THRESHOLD, 0, 150);
+        store.store(getStream(THRESHOLD), USER);
+
+        assertRejected(store, THRESHOLD, USER);
+
+        assertEquals(1, store.getRejections());
+        assertEquals(THRESHOLD, store.getUserBytes(USER));
+        assertEquals(THRESHOLD, store.getMemoryBytes());
+        // The quota is per user.
+        store.store(getStream(THRESHOLD), OTHER_USER);
+        assertEquals(2 * THRESHOLD, store.getMemoryBytes());
+    }
+
+    @Test
+    public void rejectContentInFileAboveQuota() throws Exception
+    {
+        XWikiDavTempStore store = new XWikiDavTempStore(this.folder.getRoot(), THRESHOLD, 0, 150);
+
+        assertRejected(store, 200, USER);
+
+        assertEquals(1, store.getRejections());
+        assertEquals(0, store.getUserBytes(USER));
+        assertEquals(0, store.getDiskBytes());
+        // The partially written file has been deleted.
+        assertEquals(0, this.folder.getRoot().list().length);
+    }
+
+    @Test
+    public void evictAboveMemoryBudget() throws Exception
+    {
+        XWikiDavTempStore store = new XWikiDavTempStore(this.folder.getRoot(), THRESHOLD, 25, 0);
+        XWikiDavTempContent first = store.store(getStream(10), USER);
+        XWikiDavTempContent second = store.store(getStream(10), USER);
+        // Accessing the second content makes it more valuable than the first one.
+        second.writeTo(new ByteArrayOutputStream());
+
+        XWikiDavTempContent third = store.store(getStream(10), OTHER_USER);
+
+        assertTrue(first.isEvicted());
+        assertFalse(second.isEvicted());
+        assertFalse(third.isEvicted());
+        assertEquals(1, store.getEvictions());
+        assertEquals(20, store.getMemoryBytes());
+        assertEquals(10, store.getUserBytes(USER));
+        assertEquals(10, store.getUserBytes(OTHER_USER));
+
+        // Disposing an evicted content must not release its bytes again.
+        first.dispose();
+        assertEquals(20, store.getMemoryBytes());
+        assertEquals(10, store.getUserBytes(USER));
+    }
+
+    private void assertRejected(XWikiDavTempStore store, int length, String user)
+    {
+        try {
+            store.store(getStream(length), user);
+            fail();
+        } catch (DavException e) {
+            assertEquals(DavServletResponse.SC_INSUFFICIENT_SPACE_ON_RESOURCE, e.getErrorCode());
+        }
+    }
+
+    private ByteArrayInputStream getStream(int length)
+    {
+        return new ByteArrayInputStream(getBytes(length));
+    }
+
+    private byte[] getBytes(int length)
+    {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+}